@@ -4,37 +4,55 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.lucene.facet.collections.LRUHashMap;
+
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 
-import de.hpi.fgis.concurrency.APIAccessRateLimitGuard.RateLimitedTask;
+import de.hpi.fgis.concurrency.APIAccessRateLimitGuard;
+import de.hpi.fgis.concurrency.APIAccessRateLimitGuard.Endpoint;
+import de.hpi.fgis.concurrency.APIAccessRateLimitGuard.EndpointTask;
 import de.hpi.fgis.concurrency.AsyncResultHandler;
+import de.hpi.fgis.concurrency.CircuitOpenException;
+import de.hpi.fgis.concurrency.ConcurrencyLimiter;
+import de.hpi.fgis.concurrency.MeteredExecutor;
+import de.hpi.fgis.crawler.Crawler;
+import de.hpi.fgis.crawler.DirectCrawler;
+import de.hpi.fgis.crawler.RetryScheduler;
+import de.hpi.fgis.database.local.MappedHashIndex;
 import de.hpi.fgis.database.mongodb.CachedMongoDBObjectManager;
 import de.hpi.fgis.database.mongodb.MongoDBObjectManager;
 import de.hpi.fgis.twitter.TwitterDumpFileReader;
 import de.hpi.fgis.util.FileUtil;
 import de.hpi.fgis.util.ProgressReport;
+import de.hpi.fgis.util.URLNormalizer;
+import de.hpi.fgis.yql.AdaptiveBatchSizer;
 import de.hpi.fgis.yql.DeserializationException;
+import de.hpi.fgis.yql.HostLatencyModel;
 import de.hpi.fgis.yql.YQLAccessRateLimitGuard;
 import de.hpi.fgis.yql.YQLCrawler;
 import de.hpi.fgis.yql.YQLCrawler.CrawlingResults;
+import de.hpi.fgis.yql.YQLException;
 
 /**
  * Basic executor to parse a tweet file and crawl all contained urls via YQL
+ * (or directly, see -Dcrawler.backend=direct)
  * @author tongr
  */
 public class YQLDumpFileCrawler {
@@ -52,27 +70,96 @@ public class YQLDumpFileCrawler {
 		new YQLDumpFileCrawler().parse(files);
 	}
 	protected static final Logger LOG = Logger.getLogger(YQLDumpFileCrawler.class.getName());
-	private boolean finished = false;
-	// on average we will (re-)try to retrieve the data of an url 3-times before rejecting the resource
-	private final double retryProbability = 2D/3D;
+	private volatile boolean finished = false;
+	// maximal time the shutdown waits for outstanding requests (they are cancelled afterwards)
+	private final long drainTimeout = Long.getLong("crawler.drainTimeout", 600000);
+	// unresolved urls are retried w/ exponential backoff (10s, 20s, ... up to 10min) until 3 attempts failed
+	private final RetryScheduler<AlignmentCandidate> retries = new RetryScheduler<>(3, 10000, 600000, 1000000);
+	// share of every batch reserved for due retries (they may use more if there are no fresh urls)
+	private final double retryShare = 0.3;
 	private final long requestTimeout = 20000;
 	private final int chunkSize = 100;
-	private final CachedMongoDBObjectManager redirectMan = new CachedMongoDBObjectManager(new MongoDBObjectManager("redirects", false), "from", 1000000, true);
+	// the number of urls per YQL query adapts to the observed latencies and failures (starting w/ chunkSize)
+	private final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(chunkSize, 10, 500).targetLatency(requestTimeout/2);
+	// local redirect index shared by all crawler processes on this host
+	private final String redirectIndexFolder = System.getProperty("redirect.index", "./redirect.index");
+	// alternative YQL endpoints (comma separated, i.e., one per egress IP/API key or a LocalYQLServer for load tests),
+	// each endpoint has its own quota, the public endpoint is used by default
+	private final String yqlEndpoints = System.getProperty("yql.endpoint");
+	// YQL data table definitions (comma separated, the first available one is used, the others are failovers)
+	private final String yqlTables = System.getProperty("yql.tables");
+	// YQL quotas shared by all crawler processes on this host (consumed budget survives restarts)
+	private final String yqlLedgerFolder = System.getProperty("yql.ledger", "./yql.ledger");
+	// crawling backend: "yql" (default) or "direct" (w/o YQL quotas)
+	private final String crawlerBackend = System.getProperty("crawler.backend", "yql");
+	// YQL requests slower than this latency percentile are hedged (disabled by default, i.e., -Dyql.hedge.percentile=0.95)
+	private final double hedgePercentile = Double.parseDouble(System.getProperty("yql.hedge.percentile", "-1"));
+	// maximal share of additional hedge requests (they count against the YQL quota)
+	private final double hedgeBudget = Double.parseDouble(System.getProperty("yql.hedge.budget", "0.05"));
+	// delay between two crawling tasks of the direct backend (in ms)
+	private final long directCrawlPeriod = 100;
+	// maximal number of urls waiting in the politeness frontier of the direct backend
+	private final int maxQueuedUrls = 10000;
+	// handling and persistence of the completed YQL responses (not on the http i/o or parser threads), the queued
+	// responses are bounded by the outstanding requests of the endpoints (see ConcurrencyLimiter)
+	private final MeteredExecutor workers = new MeteredExecutor("YQLDumpFileCrawler-worker", Integer.getInteger("yql.workers", Runtime.getRuntime().availableProcessors()));
+	// fetch latency of the crawled hosts (shared by all endpoints): urls of slow hosts are requested separately w/ their own timeouts
+	private final HostLatencyModel hostLatencies = Boolean.parseBoolean(System.getProperty("yql.latencyModel", "true")) ? new HostLatencyModel() : null;
+	// contents exceeding this length are truncated (and flagged)
+	private final int maxContentLength = Integer.getInteger("crawler.maxContentLength", 1024*1024);
+	// received content bytes and truncated contents of all batches
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final AtomicLong truncatedContents = new AtomicLong();
+	// redirects are identified by the fingerprint of the normalized source url
+	private final URLNormalizer normalizer = URLNormalizer.getInstance();
+	private final MongoDBObjectManager redirectSink = new MongoDBObjectManager("redirects", false);
+	private final CachedMongoDBObjectManager redirectMan = new CachedMongoDBObjectManager(redirectSink, "from_fp", 1000000, true);
 	private final MongoDBObjectManager webpageSink = new MongoDBObjectManager("webpages", false);
 	private final MongoDBObjectManager alignmentSink = new MongoDBObjectManager("alignments", false);
 	private final MongoDBObjectManager unresolvedAlignmentSink = new MongoDBObjectManager("unresolved_alignments", false);
 	private final MongoDBObjectManager tweetSink = new MongoDBObjectManager("tweets", false);
+	// urls breaking YQL requests (isolated by bisection) are neither retried nor requested again
+	private final MongoDBObjectManager deadUrlSink = new MongoDBObjectManager("dead_urls", false);
+	// attempts and due time of the urls waiting for a retry (_id: url_fp), the backoff survives restarts
+	private final MongoDBObjectManager retryUrlSink = new MongoDBObjectManager("retry_urls", false);
+	// marker documents of the completed schema migrations
+	private final MongoDBObjectManager migrationSink = new MongoDBObjectManager("migrations", false);
+	private static final String REDIRECT_MIGRATION = "redirects.from_fp";
+	private static final int MIGRATION_BATCH = 1000;
+	private final LRUHashMap<Long, Boolean> deadUrls = new LRUHashMap<>(1000000);
 	
 	private final Set<String> spamHashTags = new HashSet<>(Arrays.asList("gameinsight", "nowplaying", "listenlive"));
 	
 	private void parse(String... files) {
 		System.out.println(new Date().toString());
 		
+		redirectSink.ensureIndices(false, "from_fp");
+		migrateRedirects();
+		try {
+			redirectMan.setLocalIndex(MappedHashIndex.getInstance(redirectIndexFolder));
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Unable to open local redirect index, continuing without it", e);
+		}
+		
+		// urls given up in previous runs are not requested again
+		synchronized (deadUrls) {
+			for(DBObject dead : deadUrlSink.find()) {
+				if(dead.get("url_fp") instanceof Number) {
+					deadUrls.put(((Number) dead.get("url_fp")).longValue(), Boolean.TRUE);
+				}
+			}
+		}
+		// as well as the backoff of the urls to be retried
+		for(DBObject retry : retryUrlSink.find()) {
+			if(retry.get("_id") instanceof Number && retry.get("attempts") instanceof Number && retry.get("due") instanceof Number) {
+				retries.restore(((Number) retry.get("_id")).longValue(), ((Number) retry.get("attempts")).intValue(), ((Number) retry.get("due")).longValue());
+			}
+		}
+		
 		final Queue<AlignmentCandidate> alignmentCandidates = new LinkedList<>();
-		final Queue<AlignmentCandidate> retryAlignmentCandidates = new LinkedList<>();
 		
-		Closeable taskCloser = initJobs(alignmentCandidates, retryAlignmentCandidates);
-		addAlignmentTasks(alignmentCandidates, Collections.unmodifiableCollection(retryAlignmentCandidates), files);
+		Jobs jobs = initJobs(alignmentCandidates);
+		addAlignmentTasks(alignmentCandidates, files);
 		
 		
 		
@@ -96,121 +183,211 @@ public class YQLDumpFileCrawler {
 					this.wait(1000);
 				}
 				
-				synchronized (retryAlignmentCandidates) {
-					pending = retryAlignmentCandidates.size();
-				}
+				pending = retries.size();
 			} while( pending > 0 );
 			
-			synchronized (this) {
-				// wait for 10min (there might be some pending requests that will be re-tried forever, we'll cancel this after 10min)
-				this.wait(600000);
+			// wait for the outstanding requests (at most until their deadlines or the drain timeout)
+			if(!jobs.drain(drainTimeout)) {
+				LOG.warning("Outstanding requests have been cancelled after " + drainTimeout + "ms");
 			}
 			System.out.println(new Date().toString());
 		} catch (InterruptedException e) {
 			// ignore
 		} finally {
 			try {
-				taskCloser.close();
+				jobs.close();
 			} catch (Exception e) {
 				LOG.log(Level.WARNING, "Unable to close pending modules", e);
 			}
 		}
 	}
 	
-	private Closeable initJobs(final Queue<AlignmentCandidate> alignmentCandidates, final Queue<AlignmentCandidate> retryAlignmentCandidates) {
-		final YQLAccessRateLimitGuard guard = YQLAccessRateLimitGuard.getInstance();
-		final YQLCrawler crawler = new YQLCrawler();
-		crawler.requestTimeout(requestTimeout);
+	/**
+	 * the crawling jobs, their outstanding requests can be drained before they are closed
+	 */
+	private interface Jobs extends Closeable {
+		/**
+		 * waits until the outstanding requests are completed, the remaining requests are cancelled afterwards
+		 * @param timeout the maximal time to wait (in ms)
+		 * @return <code>true</code> if all requests completed
+		 * @throws InterruptedException if the waiting thread has been interrupted
+		 */
+		public boolean drain(long timeout) throws InterruptedException;
+	}
+
+	private Jobs initJobs(final Queue<AlignmentCandidate> alignmentCandidates) {
+		// every endpoint executes the crawling task w/ its own crawler as soon as it has budget
+		final APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(10) {};
+		final List<Crawler> crawlers = new ArrayList<>();
+		final List<YQLCrawler> yqlCrawlers = new ArrayList<>();
+		// the shared ledgers of the endpoints (memory-mapped)
+		final List<Closeable> ledgers = new ArrayList<>();
+		final DirectCrawler directCrawler;
+		if("direct".equals(crawlerBackend)) {
+			// only limited by the per-host politeness of the crawler
+			directCrawler = new DirectCrawler();
+			crawlers.add(directCrawler);
+			guard.addEndpoint(new Endpoint<Crawler>(null, directCrawlPeriod, directCrawler));
+			guard.idleDelay(directCrawlPeriod);
+		} else {
+			directCrawler = null;
+			for(String endpoint : yqlEndpoints==null ? new String[] {null} : yqlEndpoints.trim().split("\\s*,\\s*")) {
+				final YQLCrawler yqlCrawler = endpoint==null ? new YQLCrawler() : new YQLCrawler(endpoint);
+				if(hedgePercentile>=0) {
+					yqlCrawler.hedging(hedgePercentile, hedgeBudget);
+				}
+				if(yqlTables!=null) {
+					yqlCrawler.tables(yqlTables.trim().split("\\s*,\\s*"));
+				}
+				yqlCrawler.executor(workers).latencyModel(hostLatencies);
+				crawlers.add(yqlCrawler);
+				yqlCrawlers.add(yqlCrawler);
+				Endpoint<Crawler> yqlEndpoint;
+				try {
+					yqlEndpoint = YQLAccessRateLimitGuard.<Crawler>endpoint(endpoint, yqlCrawler, yqlLedgerFolder);
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Unable to open the shared YQL ledger, continuing with a local quota", e);
+					yqlEndpoint = YQLAccessRateLimitGuard.<Crawler>endpoint(endpoint, yqlCrawler);
+				}
+				// bisections, hedges and latency groups consume the quota of the endpoint as well
+				yqlCrawler.quota(yqlEndpoint.limiter());
+				guard.addEndpoint(yqlEndpoint);
+				if(yqlEndpoint.limiter() instanceof Closeable) {
+					ledgers.add((Closeable) yqlEndpoint.limiter());
+				}
+			}
+		}
+		for(Crawler crawler : crawlers) {
+			crawler.requestTimeout(requestTimeout).maxContentLength(maxContentLength);
+		}
 		
 		final ProgressReport rpt = new ProgressReport("Crawling urls from tweets ...").setUnit("tweets").setReport(2500);
-		RateLimitedTask task = new RateLimitedTask() {
+		EndpointTask<Crawler> task = new EndpointTask<Crawler>() {
 			
 			@Override
-			public void run() {
+			public boolean run(final Endpoint<Crawler> endpoint) {
+				final Crawler crawler = endpoint==null ? crawlers.get(0) : endpoint.client();
+				if(directCrawler!=null && directCrawler.queuedUrls()>maxQueuedUrls) {
+					// wait for the politeness frontier to drain
+					return false;
+				}
+				if(crawler instanceof YQLCrawler && ((YQLCrawler) crawler).unavailable()>0) {
+					// all table definitions (or the endpoint) failed --> no batches until the next probe
+					return false;
+				}
+				final ConcurrencyLimiter concurrency = endpoint==null ? null : endpoint.concurrency();
+				if(concurrency!=null && !concurrency.tryAcquire()) {
+					// too many outstanding requests --> the candidates stay queued (and are not pinned by the http client)
+					return false;
+				}
+				boolean sent = false;
 				try {
-					final HashSet<String> toBeCrawled = new HashSet<>(chunkSize*2);
-					final ArrayList<AlignmentCandidate> currentAlignments = new ArrayList<>(chunkSize);
-					final HashMap<String, String> cachedRedirects = new HashMap<>();
+					final int batchSize = batchSizer.batchSize();
+					// fingerprint -> normalized url
+					final HashMap<Long, String> toBeCrawled = new HashMap<>(batchSize*2);
+					final ArrayList<AlignmentCandidate> currentAlignments = new ArrayList<>(batchSize);
+					final HashMap<Long, String> cachedRedirects = new HashMap<>();
+					// urls still backing off (i.e., from a previous run), they are already rescheduled
+					final HashSet<Long> deferredUrls = new HashSet<>();
 
-					int approxCandidateCount = 0;
+					int freshCount;
 					synchronized (alignmentCandidates) {
-						approxCandidateCount = alignmentCandidates.size();
+						freshCount = alignmentCandidates.size();
 					}
-					boolean retry = false;
-					synchronized (retryAlignmentCandidates) {
-						// execute retries, if the number of retries is higher than the actual candidate list
-						if(retryAlignmentCandidates.size()>approxCandidateCount) {
-							while(toBeCrawled.size()<chunkSize && retryAlignmentCandidates.size()>0) {
-								AlignmentCandidate candidate = retryAlignmentCandidates.poll();
-								currentAlignments.add(candidate);
-								
-								for(String url : candidate.originalUrls()) {
-									DBObject redirect = redirectMan.findOne(url);
-									
-									if(redirect==null) {
-										toBeCrawled.add(url);
-									} else {
-										cachedRedirects.put(url, (String) redirect.get("to")); 
-									}
-								}
-							}
-							
-							if(toBeCrawled.size()>0) {
-								retry = true;
-							}
-						}
+					// due retries (one url each) get their share of the batch, fresh urls fill the remainder
+					final int retryQuota = freshCount>0 ? (int) Math.ceil(batchSize*retryShare) : batchSize;
+					pollCandidates(new LinkedList<>(retries.poll(retryQuota)), batchSize, currentAlignments, toBeCrawled, cachedRedirects, deferredUrls);
+					pollCandidates(alignmentCandidates, batchSize, currentAlignments, toBeCrawled, cachedRedirects, deferredUrls);
+					if(toBeCrawled.size()<batchSize) {
+						// not enough fresh urls
+						pollCandidates(new LinkedList<>(retries.poll(batchSize-toBeCrawled.size())), batchSize, currentAlignments, toBeCrawled, cachedRedirects, deferredUrls);
 					}
-					if(!retry) {
-						synchronized (alignmentCandidates) {
-							while(toBeCrawled.size()<chunkSize && alignmentCandidates.size()>0) {
-								AlignmentCandidate candidate = alignmentCandidates.poll();
-								currentAlignments.add(candidate);
-								
-								for(String url : candidate.originalUrls()) {
-									DBObject redirect = redirectMan.findOne(url);
-									
-									if(redirect==null) {
-										toBeCrawled.add(url);
-									} else {
-										cachedRedirects.put(url, (String) redirect.get("to")); 
-									}
-								}
-							}
-						}
+					for(Long fingerprint : toBeCrawled.keySet()) {
+						retries.attempted(fingerprint);
 					}
 					
 					if(toBeCrawled.size()>0) {
-						final boolean isRetry = retry;
-						crawler.crawlAsync(toBeCrawled, new AsyncResultHandler<CrawlingResults>() {
+						final int requested = toBeCrawled.size();
+						final long requestStart = System.currentTimeMillis();
+						crawler.crawlAsync(toBeCrawled.values(), new AsyncResultHandler<CrawlingResults>() {
 							
 							@Override
 							public void onThrowable(Throwable t) {
-								if(!(t instanceof IOException || t instanceof DeserializationException)) {
+								if(concurrency!=null) {
+									if(t instanceof YQLException || t instanceof CircuitOpenException || !(t instanceof IOException || t instanceof DeserializationException || t instanceof TimeoutException)) {
+										// error responses do not tell anything about the latency
+										concurrency.release();
+									} else {
+										// timeouts and broken responses --> fewer outstanding requests
+										concurrency.drop();
+									}
+								}
+								if(!(t instanceof IOException || t instanceof DeserializationException || t instanceof TimeoutException)) {
 									LOG.log(Level.WARNING, "Unexpected error occured!", t);
-								} else if (isRetry) {
-									LOG.log(Level.WARNING, "Some data extraction problems occured repeatedly!", t);
-								} else {
-									LOG.log(Level.INFO, "Some data extraction problems occured, retrying in several seconds ... ", t);
-									synchronized (retryAlignmentCandidates) {
-										retryAlignmentCandidates.addAll(currentAlignments);
+									return;
+								}
+								if(endpoint!=null && !(t instanceof CircuitOpenException)) {
+									// throttling responses and rising failure rates slow down the endpoint
+									if(t instanceof YQLException && ((YQLException) t).isThrottled()) {
+										endpoint.throttled();
+									} else {
+										endpoint.failed();
+									}
+								}
+								// timeouts and broken responses --> smaller batches (throttling is
+								// not caused by the batch size, the endpoint is slowed down instead)
+								if(!(t instanceof CircuitOpenException || (t instanceof YQLException && ((YQLException) t).isThrottled()))) {
+									batchSizer.onFailure(requested, t);
+								}
+								LOG.log(Level.INFO, "Some data extraction problems occured, retrying later ... ", t);
+								for(AlignmentCandidate alignment : currentAlignments) {
+									for(String origUrl : alignment.originalUrls()) {
+										if(origUrl!=null && !deferredUrls.contains(normalizer.fingerprint(origUrl))) {
+											retry(alignment, origUrl, normalizer.fingerprint(origUrl), t.getClass().getSimpleName());
+										}
 									}
 								}
 							}
 							
 							@Override
 							public void onCompleted(CrawlingResults data) {
+								if(concurrency!=null) {
+									concurrency.release(System.currentTimeMillis()-requestStart);
+								}
+								if(endpoint!=null) {
+									endpoint.succeeded();
+								}
 								if(data==null) {
 									return;
 								}
 								try {
 									ArrayList<DBObject> redirectItems = new ArrayList<>(data.urls().size());
+									HashMap<Long, String> crawledRedirects = new HashMap<>(data.redirects().size()*2);
 									
 									// store redirects
 									for(Entry<String, String> e : data.redirects().entrySet()) {
-										DBObject newItem = new BasicDBObject(2);
-										newItem.put("from", e.getKey());
+										final long fingerprint = normalizer.fingerprint(e.getKey());
+										DBObject newItem = new BasicDBObject(3);
+										newItem.put("from", normalizer.normalize(e.getKey()));
+										newItem.put("from_fp", fingerprint);
 										newItem.put("to", e.getValue());
 										redirectItems.add(newItem);
+										crawledRedirects.put(fingerprint, e.getValue());
+									}
+									int resolved = 0;
+									for(Long fingerprint : toBeCrawled.keySet()) {
+										if(crawledRedirects.containsKey(fingerprint)) {
+											resolved++;
+										}
+									}
+									// dead urls do not indicate an overloaded endpoint
+									batchSizer.onSuccess(requested-data.deadUrls().size(), resolved, System.currentTimeMillis()-requestStart);
+									for(String url : data.deadUrls()) {
+										markDead(url, normalizer.fingerprint(url), "bisection");
+									}
+									receivedBytes.addAndGet(data.bytes());
+									if(batchSizer.requests()%100==0) {
+										LOG.info("YQL batching: " + batchSizer + ", " + transferStats(yqlCrawlers));
 									}
 									redirectMan.store(redirectItems);
 									
@@ -222,6 +399,10 @@ public class YQLDumpFileCrawler {
 										if(data.content(url)!=null) {
 											newWebPageItem.put("url", url);
 											newWebPageItem.put("content", data.content(url));
+											if(data.isTruncated(url)) {
+												newWebPageItem.put("truncated", true);
+												truncatedContents.incrementAndGet();
+											}
 										}
 										if(data.header(url)!=null) {
 											newWebPageItem.put("url", url);
@@ -239,28 +420,26 @@ public class YQLDumpFileCrawler {
 									}
 									webpageSink.store(webpageItems);
 									
-									ArrayList<AlignmentCandidate> toBeReCrawled = new ArrayList<>(currentAlignments.size());
 									final int maxBulkSize = chunkSize*10;
 									// store alignments
 									ArrayList<DBObject> alignmentItems = new ArrayList<>(maxBulkSize);
 									for(AlignmentCandidate alignment : currentAlignments) {
 										HashSet<String> actualUrls = new HashSet<>(alignment.originalUrls().size());
-										ArrayList<String> toBeRetried = new ArrayList<>(alignment.originalUrls().size());
 										for(String origUrl : alignment.originalUrls()) {
-											if(cachedRedirects.containsKey(origUrl)) {
-												actualUrls.add(cachedRedirects.get(origUrl));
-											} else if(data.redirects().containsKey(origUrl)) {
-												actualUrls.add(data.redirects().get(origUrl));
-											} else if( ThreadLocalRandom.current().nextDouble() < retryProbability ) {
-												// no redirects found! --> retry later (w/ specific retry probability)
-												toBeRetried.add(origUrl);
+											final Long fingerprint = origUrl==null?null:normalizer.fingerprint(origUrl);
+											if(cachedRedirects.containsKey(fingerprint)) {
+												actualUrls.add(cachedRedirects.get(fingerprint));
+											} else if(crawledRedirects.containsKey(fingerprint)) {
+												actualUrls.add(crawledRedirects.get(fingerprint));
+												if(retries.succeeded(fingerprint)) {
+													retryUrlSink.collection().remove(new BasicDBObject("_id", fingerprint));
+												}
+											} else if(fingerprint!=null && !deferredUrls.contains(fingerprint)) {
+												// no redirects found! --> retry later (w/ backoff)
+												retry(alignment, origUrl, fingerprint, "unresolved");
 											}
 										}
 										
-										if(toBeRetried.size()>0) {
-											toBeReCrawled.add(new AlignmentCandidate(alignment.tweetId(), toBeRetried, alignment.hashtags()));
-										}
-										
 										
 										for(String url : actualUrls) {
 											if(url!=null) {
@@ -281,10 +460,6 @@ public class YQLDumpFileCrawler {
 									if(alignmentItems.size()>0) {
 										alignmentSink.store(alignmentItems);
 									}
-									
-									synchronized (retryAlignmentCandidates) {
-										retryAlignmentCandidates.addAll(toBeReCrawled);
-									}
 								} catch (Throwable t) {
 									t.printStackTrace();
 								}
@@ -292,37 +467,235 @@ public class YQLDumpFileCrawler {
 								rpt.inc(currentAlignments.size());
 							}
 						});
+						sent = true;
 					}
+					// nothing to crawl --> the request budget is not used
+					return toBeCrawled.size()>0;
 				} catch (IOException e1) {
 					e1.printStackTrace();
-					return;
+					return true;
+				} finally {
+					if(concurrency!=null && !sent) {
+						concurrency.release();
+					}
 				}
 			}
 			
 			@Override
 			public boolean repeat() {
-				if(finished) {
-					rpt.finish();
-					crawler.close();
-					guard.close();
-					return false;
+				if(!finished) {
+					return true;
+				}
+				// failing requests are retried --> stop only if there is nothing left to do
+				int pending;
+				synchronized (alignmentCandidates) {
+					pending = alignmentCandidates.size();
+				}
+				pending += retries.size();
+				for(YQLCrawler yqlCrawler : yqlCrawlers) {
+					pending += yqlCrawler.inFlight().size();
+				}
+				if(directCrawler!=null) {
+					pending += directCrawler.queuedUrls();
+				}
+				if(pending>0) {
+					return true;
 				}
-				return true;
+				rpt.finish();
+				LOG.info("YQL batching: " + batchSizer + ", " + transferStats(yqlCrawlers) + ", endpoints: " + guard.endpoints()
+						+ String.format(", task latency p50=%dms p95=%dms, dispatch delay p95=%dms", guard.latency(this).percentile(.5), guard.latency(this).percentile(.95), guard.dispatchDelays().percentile(.95)));
+				return false;
 			}
 		};
 		guard.add(task);
 		
-		return new Closeable() {
+		return new Jobs() {
+			
+			@Override
+			public boolean drain(long timeout) throws InterruptedException {
+				final long end = System.currentTimeMillis() + timeout;
+				boolean drained = true;
+				for(YQLCrawler yqlCrawler : yqlCrawlers) {
+					drained &= yqlCrawler.drain(Math.max(0, end-System.currentTimeMillis()));
+				}
+				if(directCrawler!=null) {
+					while(directCrawler.queuedUrls()>0 && System.currentTimeMillis()<end) {
+						Thread.sleep(100);
+					}
+					drained &= directCrawler.queuedUrls()==0;
+				}
+				return drained;
+			}
 			
 			@Override
 			public void close() throws IOException {
 				guard.close();
-				crawler.close();
+				for(Crawler crawler : crawlers) {
+					crawler.close();
+				}
+				// the queued responses are still written to the local redirect index
+				workers.shutdown();
+				try {
+					if(!workers.awaitTermination(drainTimeout, TimeUnit.MILLISECONDS)) {
+						LOG.warning("Dropping " + workers.shutdownNow().size() + " queued responses after " + drainTimeout + "ms");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if(redirectMan.getLocalIndex()!=null) {
+					redirectMan.getLocalIndex().close();
+				}
+				for(Closeable ledger : ledgers) {
+					ledger.close();
+				}
 			}
 		};
 	}
 
-	private void addAlignmentTasks(final Queue<AlignmentCandidate> alignmentCandidates, Collection<AlignmentCandidate> pendingRetryCandidates, String... files) {
+	/**
+	 * schedules the retry of a single url of the alignment candidate, urls
+	 * w/o attempts left are marked as dead
+	 */
+	private void retry(AlignmentCandidate alignment, String url, long fingerprint, String reason) {
+		if(isDead(fingerprint)) {
+			return;
+		}
+		AlignmentCandidate candidate = new AlignmentCandidate(alignment.tweetId(), Collections.singletonList(url), alignment.hashtags());
+		if(!retries.retry(fingerprint, candidate, reason)) {
+			markDead(url, fingerprint, "max attempts (" + reason + ")");
+		} else {
+			retryUrlSink.store(new BasicDBObject("_id", fingerprint).append("url", url).append("attempts", retries.attempts(fingerprint)).append("due", retries.due(fingerprint)));
+		}
+	}
+
+	private void markDead(String url, long fingerprint, String reason) {
+		synchronized (deadUrls) {
+			if(deadUrls.put(fingerprint, Boolean.TRUE)!=null) {
+				return;
+			}
+		}
+		deadUrlSink.store(new BasicDBObject("url", url).append("url_fp", fingerprint).append("reason", reason));
+		retryUrlSink.collection().remove(new BasicDBObject("_id", fingerprint));
+	}
+
+	private boolean isDead(Long fingerprint) {
+		synchronized (deadUrls) {
+			return fingerprint!=null && deadUrls.containsKey(fingerprint);
+		}
+	}
+
+	private String transferStats(List<YQLCrawler> yqlCrawlers) {
+		String stats = String.format("%.1f MB received, %d contents truncated, %s", receivedBytes.get()/(1024D*1024D), truncatedContents.get(), retries);
+		if(!yqlCrawlers.isEmpty()) {
+			long dead = 0, bisections = 0;
+			for(YQLCrawler yqlCrawler : yqlCrawlers) {
+				dead += yqlCrawler.deadUrls();
+				bisections += yqlCrawler.bisections();
+			}
+			stats += String.format(", %d dead urls (%d bisection requests)", dead, bisections);
+			for(YQLCrawler yqlCrawler : yqlCrawlers) {
+				stats += ", circuits: " + yqlCrawler.circuitStats() + ", in flight: " + yqlCrawler.inFlight();
+			}
+			stats += ", " + workers;
+			if(hostLatencies!=null) {
+				stats += ", host latencies: " + hostLatencies;
+			}
+			if(hedgePercentile>=0) {
+				for(YQLCrawler yqlCrawler : yqlCrawlers) {
+					stats += ", hedging: " + yqlCrawler.hedgingStats();
+				}
+			}
+		}
+		return stats;
+	}
+	
+	/**
+	 * adds the fingerprints to redirects stored by previous versions (identified by their source url only),
+	 * otherwise they would never be found and crawled again<br/>
+	 * the migration runs once: the outdated redirects are rewritten in batches (inserted w/ their fingerprint,
+	 * the originals are removed afterwards), an interrupted migration is continued by the next run (a crash between
+	 * both steps only leaves duplicates), the completion is recorded by a marker document
+	 */
+	private void migrateRedirects() {
+		if(migrationSink.findOne("_id", REDIRECT_MIGRATION)!=null) {
+			return;
+		}
+		long migrated = 0;
+		List<DBObject> batch = new ArrayList<>(MIGRATION_BATCH);
+		List<Object> ids = new ArrayList<>(MIGRATION_BATCH);
+		for(DBObject redirect : redirectSink.find("from_fp", new BasicDBObject("$exists", false))) {
+			if(redirect.get("from") instanceof String) {
+				final String from = (String) redirect.get("from");
+				ids.add(redirect.removeField("_id"));
+				redirect.put("from_fp", normalizer.fingerprint(from));
+				redirect.put("from", normalizer.normalize(from));
+				batch.add(redirect);
+			}
+			if(batch.size()>=MIGRATION_BATCH) {
+				migrated += replaceRedirects(batch, ids);
+			}
+		}
+		migrated += replaceRedirects(batch, ids);
+		migrationSink.store(new BasicDBObject("_id", REDIRECT_MIGRATION).append("completed", new Date()).append("migrated", migrated));
+		LOG.info("Added fingerprints to " + migrated + " existing redirects");
+	}
+
+	private int replaceRedirects(List<DBObject> batch, List<Object> ids) {
+		int replaced = batch.size();
+		if(replaced>0) {
+			redirectSink.store(batch);
+			redirectSink.collection().remove(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+		}
+		batch.clear();
+		ids.clear();
+		return replaced;
+	}
+
+	/**
+	 * polls alignment candidates from the specified queue until batchSize urls
+	 * have to be crawled, known redirects are resolved by one batched lookup
+	 * per polled chunk (all urls are identified by their fingerprint), urls
+	 * still backing off are deferred until their retry is due
+	 */
+	private void pollCandidates(Queue<AlignmentCandidate> candidates, int batchSize, List<AlignmentCandidate> currentAlignments, Map<Long, String> toBeCrawled, Map<Long, String> cachedRedirects, Set<Long> deferred) {
+		while(toBeCrawled.size()<batchSize) {
+			final HashMap<Long, String> urls = new HashMap<>(batchSize*2);
+			synchronized (candidates) {
+				while(toBeCrawled.size()+urls.size()<batchSize && candidates.size()>0) {
+					AlignmentCandidate candidate = candidates.poll();
+					currentAlignments.add(candidate);
+					for(String url : candidate.originalUrls()) {
+						if(url!=null) {
+							final long fingerprint = normalizer.fingerprint(url);
+							if(isDead(fingerprint)) {
+								continue;
+							}
+							if(retries.defer(fingerprint, new AlignmentCandidate(candidate.tweetId(), Collections.singletonList(url), candidate.hashtags()))) {
+								deferred.add(fingerprint);
+							} else {
+								urls.put(fingerprint, normalizer.normalize(url));
+							}
+						}
+					}
+				}
+			}
+			if(urls.isEmpty()) {
+				return;
+			}
+			
+			Map<Object, DBObject> redirects = redirectMan.findAll(urls.keySet());
+			for(Entry<Long, String> url : urls.entrySet()) {
+				DBObject redirect = redirects.get(url.getKey());
+				if(redirect==null) {
+					toBeCrawled.put(url.getKey(), url.getValue());
+				} else {
+					cachedRedirects.put(url.getKey(), (String) redirect.get("to")); 
+				}
+			}
+		}
+	}
+
+	private void addAlignmentTasks(final Queue<AlignmentCandidate> alignmentCandidates, String... files) {
 		for(String file : files) {
 			System.out.print("parsing tweets of: ");
 			System.out.println(file);
@@ -384,9 +757,7 @@ public class YQLDumpFileCrawler {
 								synchronized (alignmentCandidates) {
 									pendingAlignmentCandidateCount = alignmentCandidates.size();
 								}
-								synchronized (pendingRetryCandidates) {
-									pendingAlignmentCandidateCount = pendingRetryCandidates.size();
-								}
+								pendingAlignmentCandidateCount += retries.due();
 								// wait for the candidate count to be low enough (loop until this is the case)
 							} while(pendingAlignmentCandidateCount>chunkSize*10);
 						}
@@ -0,0 +1,248 @@
+package de.hpi.fgis.concurrency;
+
+/**
+ * paces the requests of an endpoint w/ an adaptive rate (additive increase,
+ * multiplicative decrease): every successful request increases the rate by a
+ * constant, a throttling response (or a failure rate above the threshold)
+ * cuts the rate by a factor, such that the requests stay close to the maximal
+ * sustainable rate of the endpoint<br/>
+ * all responses of requests sent before a decrease are likely to signal the
+ * same overload, thus, the rate is decreased at most once per cooldown
+ *
+ * @author tongr
+ *
+ */
+public class AIMDThrottle {
+	private final double maxRate;
+	private final double minRate;
+	private double increase;
+	private double decrease = 0.5;
+	private double failureThreshold = 0.5;
+	private long cooldown = 10000;
+
+	// recent outcomes (true for failures)
+	private final boolean[] outcomes = new boolean[20];
+	private int outcomeCount = 0;
+	private int nextOutcome = 0;
+
+	private double rate;
+	private long lastDispatch = 0;
+	private long previousDispatch = 0;
+	private long lastDecrease = 0;
+	private long decreases = 0;
+	private long throttles = 0;
+
+	/**
+	 * creates a new throttle starting at the maximal rate (the rate is
+	 * increased by 1% of the maximal rate per success)
+	 *
+	 * @param maxRate
+	 *            the maximal rate (in requests per second)
+	 * @param minRate
+	 *            the minimal rate (in requests per second)
+	 */
+	public AIMDThrottle(double maxRate, double minRate) {
+		if (minRate <= 0 || maxRate < minRate) {
+			throw new IllegalArgumentException("Illegal rates (min=" + minRate + ", max=" + maxRate + ")");
+		}
+		this.maxRate = maxRate;
+		this.minRate = minRate;
+		this.rate = maxRate;
+		this.increase = maxRate / 100;
+	}
+
+	/**
+	 * set the additive increase per successful request
+	 *
+	 * @param increase
+	 *            the increase (in requests per second)
+	 * @return this {@link AIMDThrottle} instance
+	 */
+	public synchronized AIMDThrottle increase(double increase) {
+		if (increase <= 0) {
+			throw new IllegalArgumentException("The increase has to be positive: " + increase);
+		}
+		this.increase = increase;
+		return this;
+	}
+
+	/**
+	 * set the multiplicative decrease (default: 0.5)
+	 *
+	 * @param decrease
+	 *            the factor applied to the rate (between 0 and 1)
+	 * @return this {@link AIMDThrottle} instance
+	 */
+	public synchronized AIMDThrottle decrease(double decrease) {
+		if (decrease <= 0 || decrease >= 1) {
+			throw new IllegalArgumentException("The decrease has to be in (0,1): " + decrease);
+		}
+		this.decrease = decrease;
+		return this;
+	}
+
+	/**
+	 * set the failure rate of the recent requests that decreases the rate
+	 * (default: 0.5)
+	 *
+	 * @param failureThreshold
+	 *            the failure rate (between 0 and 1)
+	 * @return this {@link AIMDThrottle} instance
+	 */
+	public synchronized AIMDThrottle failureThreshold(double failureThreshold) {
+		if (failureThreshold <= 0 || failureThreshold > 1) {
+			throw new IllegalArgumentException("The failure threshold has to be in (0,1]: " + failureThreshold);
+		}
+		this.failureThreshold = failureThreshold;
+		return this;
+	}
+
+	/**
+	 * set the minimal time between two decreases (default: 10s)
+	 *
+	 * @param cooldown
+	 *            the cooldown (in ms)
+	 * @return this {@link AIMDThrottle} instance
+	 */
+	public synchronized AIMDThrottle cooldown(long cooldown) {
+		this.cooldown = cooldown;
+		return this;
+	}
+
+	/**
+	 * gets the current rate
+	 *
+	 * @return the rate (in requests per second)
+	 */
+	public synchronized double rate() {
+		return rate;
+	}
+
+	/**
+	 * gets the time until the next request may be sent
+	 *
+	 * @return the delay (in ms), 0 if a request may be sent right now
+	 */
+	public synchronized long delay() {
+		if (lastDispatch == 0) {
+			return 0;
+		}
+		return Math.max(0, lastDispatch + (long) (1000 / rate) - System.currentTimeMillis());
+	}
+
+	/**
+	 * informs the throttle that a request has been sent
+	 *
+	 * @param time
+	 *            the time of the request (in ms)
+	 */
+	public synchronized void dispatched(long time) {
+		previousDispatch = lastDispatch;
+		lastDispatch = time;
+	}
+
+	/**
+	 * informs the throttle that the request sent at the specified time has
+	 * not been sent actually (it does not delay the next request)
+	 *
+	 * @param time
+	 *            the time of the request (in ms)
+	 */
+	public synchronized void refund(long time) {
+		if (lastDispatch == time) {
+			lastDispatch = previousDispatch;
+		}
+	}
+
+	/**
+	 * a request succeeded --> additive increase
+	 */
+	public synchronized void succeeded() {
+		record(false);
+		rate = Math.min(maxRate, rate + increase);
+	}
+
+	/**
+	 * a request failed (i.e., timeouts or error responses) --> multiplicative
+	 * decrease if the recent failure rate exceeds the threshold
+	 */
+	public synchronized void failed() {
+		record(true);
+		if (outcomeCount >= outcomes.length / 2 && failureRate() > failureThreshold) {
+			cut();
+		}
+	}
+
+	/**
+	 * the endpoint signaled an exceeded rate limit --> multiplicative decrease
+	 */
+	public synchronized void throttled() {
+		record(true);
+		throttles++;
+		cut();
+	}
+
+	/**
+	 * gets the failure rate of the recent requests
+	 *
+	 * @return the failure rate (between 0 and 1)
+	 */
+	public synchronized double failureRate() {
+		if (outcomeCount == 0) {
+			return 0;
+		}
+		int failures = 0;
+		for (int i = 0; i < outcomeCount; i++) {
+			if (outcomes[i]) {
+				failures++;
+			}
+		}
+		return failures / (double) outcomeCount;
+	}
+
+	/**
+	 * gets the number of rate decreases so far
+	 *
+	 * @return the number of decreases
+	 */
+	public synchronized long decreases() {
+		return decreases;
+	}
+
+	/**
+	 * gets the number of throttling signals so far
+	 *
+	 * @return the number of throttling signals
+	 */
+	public synchronized long throttles() {
+		return throttles;
+	}
+
+	private void record(boolean failure) {
+		outcomes[nextOutcome] = failure;
+		nextOutcome = (nextOutcome + 1) % outcomes.length;
+		if (outcomeCount < outcomes.length) {
+			outcomeCount++;
+		}
+	}
+
+	private void cut() {
+		long now = System.currentTimeMillis();
+		if (now - lastDecrease < cooldown) {
+			return;
+		}
+		lastDecrease = now;
+		decreases++;
+		rate = Math.max(minRate, rate * decrease);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%.2f req/s (%d decreases, %d throttles, %.0f%% recent failures)", rate, decreases, throttles, failureRate() * 100);
+	}
+}
@@ -1,62 +1,408 @@
 package de.hpi.fgis.concurrency;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * this class enables the execution of several API calls with rate limits (i.e.,
- * calls per second/minute/hour)
+ * calls per second/minute/hour)<br/>
+ * the guard manages a pool of endpoints (i.e., several egress IPs or API keys),
+ * each w/ its own budget (see {@link Quota}), base uri and client: the
+ * next queued task is executed by the endpoint w/ the most remaining budget,
+ * thus, the aggregate throughput scales linearly w/ the number of endpoints.
+ * Tasks that did not use their permit (see {@link EndpointTask}) return it,
+ * such that idle periods do not waste the quota.<br/>
+ * The dispatcher thread only grants the permits, the tasks are executed by an
+ * executor (see {@link #executor(ExecutorService)}), thus, heavy tasks do not
+ * delay the dispatching of other tasks and endpoints. A repeated task is
+ * queued again as soon as its execution finished.<br/>
+ * The queued tasks are scheduled by priority and weighted fair queuing, each
+ * task may have its own quota (see
+ * {@link #add(RateLimitedTask, int, double, Quota)}). Endpoints may
+ * pace their requests adaptively (see {@link Endpoint#throttle(AIMDThrottle)})
+ * and bound their outstanding requests (see
+ * {@link Endpoint#concurrency(ConcurrencyLimiter)}).
  * 
  * @author tongr
  * 
  */
 public abstract class APIAccessRateLimitGuard implements Closeable {
-	private final long startDelay;
-	private final long period;
-	private final Timer timer = new Timer();
-	private final Queue<RateLimitedTask> jobs = new LinkedList<>();
+	private static final Logger LOG = Logger.getLogger(APIAccessRateLimitGuard.class.getName());
+	private static final int LATENCY_SAMPLES = 1000;
+	private final long start;
+	private final List<Job> jobs = new LinkedList<>();
+	private final List<Endpoint<?>> endpoints = new CopyOnWriteArrayList<>();
+	private final Thread dispatcher;
+	private final Map<RateLimitedTask, TaskState> states = Collections.synchronizedMap(new IdentityHashMap<RateLimitedTask, TaskState>());
+	// virtual time of the weighted fair queuing (guarded by the jobs queue)
+	private double virtualTime = 0;
+	private final LatencyWindow dispatchDelays = new LatencyWindow(LATENCY_SAMPLES);
+	private ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
 
-	protected APIAccessRateLimitGuard(long startDelay, long period) {
-		this.startDelay = startDelay;
-		this.period = period;
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "APIAccessRateLimitGuard-worker-" + count.incrementAndGet());
+		}
+	});
+	private boolean ownExecutor = true;
+	private volatile long idleDelay = 100;
+	private volatile boolean closed = false;
 
-		init();
+	/**
+	 * creates a guard w/ a single (default) endpoint that executes at most
+	 * one task per period
+	 * 
+	 * @param startDelay
+	 *            the delay before the first execution (in ms)
+	 * @param period
+	 *            the delay between two executions (in ms)
+	 */
+	protected APIAccessRateLimitGuard(long startDelay, long period) {
+		this(startDelay);
+		addEndpoint(new Endpoint<Void>(null, period, null));
 	}
 
-	private void init() {
-		timer.scheduleAtFixedRate(new TimerTask() {
+	/**
+	 * creates a guard w/o endpoints (see {@link #addEndpoint(Endpoint)})
+	 * 
+	 * @param startDelay
+	 *            the delay before the first execution (in ms)
+	 */
+	protected APIAccessRateLimitGuard(long startDelay) {
+		this.start = System.currentTimeMillis() + startDelay;
+		this.dispatcher = new Thread(new Runnable() {
 			@Override
 			public void run() {
-				RateLimitedTask task;
-				synchronized (jobs) {
-					task = jobs.poll();
-				}
+				dispatchLoop();
+			}
+		}, "APIAccessRateLimitGuard");
+		// an unclosed guard does not keep the JVM alive
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * adds another endpoint to the pool
+	 * 
+	 * @param endpoint
+	 *            the endpoint
+	 * @return this {@link APIAccessRateLimitGuard} instance
+	 */
+	public APIAccessRateLimitGuard addEndpoint(Endpoint<?> endpoint) {
+		endpoints.add(endpoint);
+		synchronized (jobs) {
+			jobs.notifyAll();
+		}
+		return this;
+	}
+
+	/**
+	 * gets the endpoints of the pool
+	 * 
+	 * @return the endpoints
+	 */
+	public List<Endpoint<?>> endpoints() {
+		return Collections.unmodifiableList(endpoints);
+	}
+
+	/**
+	 * gets the number of tasks that may be executed right now (the remaining
+	 * budget of all endpoints)
+	 * 
+	 * @return the remaining budget
+	 */
+	public int remaining() {
+		int remaining = 0;
+		for (Endpoint<?> endpoint : endpoints) {
+			remaining += endpoint.limiter().remaining();
+		}
+		return remaining;
+	}
+
+	/**
+	 * set the delay before a task that did not use its permit is executed
+	 * again (default: 100ms)
+	 * 
+	 * @param idleDelay
+	 *            the delay (in ms)
+	 * @return this {@link APIAccessRateLimitGuard} instance
+	 */
+	public APIAccessRateLimitGuard idleDelay(long idleDelay) {
+		this.idleDelay = idleDelay;
+		return this;
+	}
+
+	/**
+	 * get the delay before a task that did not use its permit is executed
+	 * again
+	 * 
+	 * @return the delay (in ms)
+	 */
+	public long idleDelay() {
+		return idleDelay;
+	}
+
+	/**
+	 * set the executor running the tasks (default: a cached thread pool that
+	 * is shut down w/ this guard, a specified executor has to be shut down by
+	 * the caller)
+	 * 
+	 * @param executor
+	 *            the executor
+	 * @return this {@link APIAccessRateLimitGuard} instance
+	 */
+	public synchronized APIAccessRateLimitGuard executor(ExecutorService executor) {
+		if (ownExecutor) {
+			this.executor.shutdown();
+		}
+		this.executor = executor;
+		this.ownExecutor = false;
+		return this;
+	}
+
+	/**
+	 * get the executor running the tasks
+	 * 
+	 * @return the executor
+	 */
+	public synchronized ExecutorService executor() {
+		return executor;
+	}
+
+	/**
+	 * gets the execution times of the specified task
+	 * 
+	 * @param task
+	 *            the task
+	 * @return the execution times (in ms) of the most recent executions or
+	 *         <code>null</code> if the task is unknown
+	 */
+	public LatencyWindow latency(RateLimitedTask task) {
+		TaskState state = states.get(task);
+		return state == null ? null : state.latency;
+	}
+
+	/**
+	 * gets the number of slots (permits) the specified task consumed so far
+	 * 
+	 * @param task
+	 *            the task
+	 * @return the number of consumed slots (0 if the task is unknown)
+	 */
+	public long slots(RateLimitedTask task) {
+		TaskState state = states.get(task);
+		return state == null ? 0 : state.slots.get();
+	}
 
-				if (task != null) {
-					task.run();
+	/**
+	 * gets the number of executions of the specified task that did not use
+	 * their slot (see {@link EndpointTask#run(Endpoint)})
+	 * 
+	 * @param task
+	 *            the task
+	 * @return the number of idle executions (0 if the task is unknown)
+	 */
+	public long idleExecutions(RateLimitedTask task) {
+		TaskState state = states.get(task);
+		return state == null ? 0 : state.idle.get();
+	}
+
+	/**
+	 * gets the delays between granting a permit and starting the task (i.e.,
+	 * an indicator for an overloaded executor)
+	 * 
+	 * @return the delays (in ms) of the most recent executions
+	 */
+	public LatencyWindow dispatchDelays() {
+		return dispatchDelays;
+	}
 
-					// add the task to the queue if it has to be repeated
-					if (task.repeat()) {
-						synchronized (jobs) {
-							jobs.add(task);
+	private void dispatchLoop() {
+		while (!closed) {
+			Job job = null;
+			Endpoint<?> endpoint = null;
+			synchronized (jobs) {
+				long now = System.currentTimeMillis();
+				// 0 --> wait until notified
+				long wait = now < start ? start - now : 0;
+				if (wait <= 0) {
+					// the highest priority, then the smallest virtual time (weighted fair queuing)
+					for (Job candidate : jobs) {
+						long delay = candidate.notBefore - now;
+						if (candidate.state.quota != null) {
+							delay = Math.max(delay, candidate.state.quota.delay());
+						}
+						if (delay > 0) {
+							wait = wait == 0 ? delay : Math.min(wait, delay);
+						} else if (job == null || candidate.state.priority > job.state.priority
+								|| (candidate.state.priority == job.state.priority && candidate.state.tag < job.state.tag)) {
+							job = candidate;
+						}
+					}
+				}
+				if (job != null) {
+					// the endpoint w/ the most remaining budget executes the task
+					int remaining = 0;
+					for (Endpoint<?> candidate : endpoints) {
+						long paced = candidate.throttle() == null ? 0 : candidate.throttle().delay();
+						if (paced <= 0 && candidate.saturated()) {
+							// retried as soon as outstanding requests may have finished
+							paced = idleDelay;
 						}
+						int candidateRemaining = paced > 0 ? 0 : candidate.limiter().remaining();
+						if (candidateRemaining > remaining) {
+							endpoint = candidate;
+							remaining = candidateRemaining;
+						}
+						long delay = Math.max(1, Math.max(paced, candidate.limiter().delay()));
+						wait = wait == 0 ? delay : Math.min(wait, delay);
+					}
+					if (endpoint != null && !endpoint.limiter().tryAcquire()) {
+						endpoint = null;
+						wait = 1;
+					} else if (endpoint != null && job.state.quota != null && !job.state.quota.tryAcquire()) {
+						// the quota has been spent meanwhile (i.e., by another process sharing it) --> the job keeps its turn
+						endpoint.limiter().refund();
+						endpoint = null;
+						wait = Math.max(1, job.state.quota.delay());
+					}
+				}
+				if (endpoint == null) {
+					try {
+						jobs.wait(wait);
+					} catch (InterruptedException e) {
+						return;
 					}
+					continue;
+				}
+				jobs.remove(job);
+				virtualTime = job.state.tag;
+				job.state.tag += 1 / job.state.weight;
+			}
+			dispatch(job.state, endpoint);
+		}
+	}
+
+	/**
+	 * hands the task to the executor (the permit has been granted already)
+	 */
+	private void dispatch(final TaskState task, final Endpoint<?> endpoint) {
+		final long granted = System.currentTimeMillis();
+		if (endpoint.throttle() != null) {
+			endpoint.throttle().dispatched(granted);
+		}
+		try {
+			executor().execute(new Runnable() {
+				@Override
+				public void run() {
+					dispatchDelays.add(System.currentTimeMillis() - granted);
+					execute(task, endpoint, granted);
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			endpoint.refund(granted);
+			if (task.quota != null) {
+				task.quota.refund(granted);
+			}
+			if (!closed) {
+				LOG.log(Level.WARNING, "Unable to execute rate limited task", e);
+			}
+		}
+	}
+
+	/**
+	 * executes the task using the specified endpoint (the permit has been
+	 * granted at the specified time)
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void execute(TaskState state, Endpoint endpoint, long granted) {
+		RateLimitedTask task = state.task;
+		boolean used = true;
+		endpoint.executions.incrementAndGet();
+		state.slots.incrementAndGet();
+		long start = System.currentTimeMillis();
+		try {
+			if (task instanceof EndpointTask) {
+				used = ((EndpointTask) task).run(endpoint);
+			} else {
+				task.run();
+			}
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Rate limited task failed", e);
+		}
+		state.latency.add(System.currentTimeMillis() - start);
+		if (!used) {
+			endpoint.executions.decrementAndGet();
+			endpoint.refund(granted);
+			state.slots.decrementAndGet();
+			state.idle.incrementAndGet();
+			if (state.quota != null) {
+				state.quota.refund(granted);
 			}
-		}, startDelay, period);
+		}
+
+		// add the task to the queue if it has to be repeated
+		if (task.repeat()) {
+			enqueue(state, used ? 0 : System.currentTimeMillis() + idleDelay);
+		}
 	}
 
 	/**
-	 * adds another rate limited task to the scheduler
+	 * adds another rate limited task to the scheduler (default priority 0,
+	 * weight 1, w/o quota)
 	 * 
 	 * @param task
 	 */
 	public void add(RateLimitedTask task) {
+		add(task, 0, 1, null);
+	}
+
+	/**
+	 * adds another rate limited task to the scheduler: tasks w/ a higher
+	 * priority are always executed first, tasks of the same priority share
+	 * the slots of the endpoints according to their weights (weighted fair
+	 * queuing, i.e., a task w/ weight 2 gets twice the slots of a task w/
+	 * weight 1 if both have work)
+	 * 
+	 * @param task
+	 *            the task
+	 * @param priority
+	 *            the priority of the task
+	 * @param weight
+	 *            the weight of the task within its priority
+	 * @param quota
+	 *            the maximal number of slots of this task (or
+	 *            <code>null</code> to be limited by the endpoints only)
+	 */
+	public void add(RateLimitedTask task, int priority, double weight, Quota quota) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("The weight has to be positive: " + weight);
+		}
+		TaskState state = new TaskState(task, priority, weight, quota);
+		states.put(task, state);
+		enqueue(state, 0);
+	}
+
+	private void enqueue(TaskState state, long notBefore) {
 		synchronized (jobs) {
-			jobs.add(task);
+			// tasks do not gain credit while they are idle
+			state.tag = Math.max(state.tag, virtualTime);
+			jobs.add(new Job(state, notBefore));
+			jobs.notifyAll();
 		}
 	}
 
@@ -67,7 +413,48 @@ public abstract class APIAccessRateLimitGuard implements Closeable {
 	 */
 	@Override
 	public void close() {
-		timer.cancel();
+		closed = true;
+		synchronized (jobs) {
+			jobs.notifyAll();
+		}
+		synchronized (this) {
+			if (ownExecutor) {
+				// running tasks are finished
+				executor.shutdown();
+			}
+		}
+	}
+
+	private static class Job {
+		private final TaskState state;
+		private final long notBefore;
+
+		Job(TaskState state, long notBefore) {
+			this.state = state;
+			this.notBefore = notBefore;
+		}
+	}
+
+	/**
+	 * the scheduling parameters and statistics of a task
+	 */
+	private static class TaskState {
+		private final RateLimitedTask task;
+		private final int priority;
+		private final double weight;
+		private final Quota quota;
+		private final AtomicLong slots = new AtomicLong();
+		private final AtomicLong idle = new AtomicLong();
+		private final LatencyWindow latency = new LatencyWindow(LATENCY_SAMPLES);
+		// virtual start time of the next slot (guarded by the jobs queue)
+		private double tag = 0;
+
+		TaskState(RateLimitedTask task, int priority, double weight, Quota quota) {
+			this.task = task;
+			this.priority = priority;
+			this.weight = weight;
+			this.quota = quota;
+		}
 	}
 
 	/**
@@ -86,4 +473,224 @@ public abstract class APIAccessRateLimitGuard implements Closeable {
 		 */
 		public abstract boolean repeat();
 	}
+
+	/**
+	 * a rate limited task that uses the base uri and client of the endpoint it
+	 * is executed by (all endpoints of the guard have to provide clients of the
+	 * same type)
+	 * 
+	 * @author tongr
+	 * 
+	 * @param <C>
+	 *            the type of the endpoint clients
+	 */
+	public static abstract class EndpointTask<C> implements RateLimitedTask {
+		/**
+		 * executes the task w/o a dedicated endpoint
+		 */
+		@Override
+		public void run() {
+			run(null);
+		}
+
+		/**
+		 * executes the task using the specified endpoint
+		 * 
+		 * @param endpoint
+		 *            the endpoint granting the permit (or <code>null</code>)
+		 * @return <code>false</code> if the task did not access the endpoint
+		 *         (i.e., there was nothing to do), the permit is returned
+		 */
+		public abstract boolean run(Endpoint<C> endpoint);
+	}
+
+	/**
+	 * an API endpoint w/ its own budget (i.e., one egress IP or API key)
+	 * 
+	 * @author tongr
+	 * 
+	 * @param <C>
+	 *            the type of the client
+	 */
+	public static class Endpoint<C> {
+		private final String baseURI;
+		private final Quota limiter;
+		private final C client;
+		private final AtomicLong executions = new AtomicLong();
+		private volatile AIMDThrottle throttle = null;
+		private volatile ConcurrencyLimiter concurrency = null;
+
+		/**
+		 * creates a new endpoint that executes at most one task per period
+		 * 
+		 * @param baseURI
+		 *            the base uri of the endpoint (or <code>null</code> for the
+		 *            default one)
+		 * @param period
+		 *            the delay between two executions (in ms)
+		 * @param client
+		 *            the client accessing the endpoint
+		 */
+		public Endpoint(String baseURI, long period, C client) {
+			this(baseURI, new RateLimiter(1, period), client);
+		}
+
+		/**
+		 * creates a new endpoint
+		 * 
+		 * @param baseURI
+		 *            the base uri of the endpoint (or <code>null</code> for the
+		 *            default one)
+		 * @param limiter
+		 *            the budget of the endpoint
+		 * @param client
+		 *            the client accessing the endpoint
+		 */
+		public Endpoint(String baseURI, Quota limiter, C client) {
+			this.baseURI = baseURI;
+			this.limiter = limiter;
+			this.client = client;
+		}
+
+		/**
+		 * gets the base uri of the endpoint
+		 * 
+		 * @return the base uri (or <code>null</code> for the default one)
+		 */
+		public String baseURI() {
+			return baseURI;
+		}
+
+		/**
+		 * gets the budget of the endpoint
+		 * 
+		 * @return the quota of the endpoint
+		 */
+		public Quota limiter() {
+			return limiter;
+		}
+
+		/**
+		 * set the adaptive pacing of the requests (default: <code>null</code>,
+		 * only limited by the budget), the throttle has to be informed about
+		 * the responses (see {@link #succeeded()}, {@link #failed()} and
+		 * {@link #throttled()})
+		 * 
+		 * @param throttle
+		 *            the throttle
+		 * @return this {@link Endpoint} instance
+		 */
+		public Endpoint<C> throttle(AIMDThrottle throttle) {
+			this.throttle = throttle;
+			return this;
+		}
+
+		/**
+		 * get the adaptive pacing of the requests
+		 * 
+		 * @return the throttle (or <code>null</code>)
+		 */
+		public AIMDThrottle throttle() {
+			return throttle;
+		}
+
+		/**
+		 * set the limit of outstanding requests (default: <code>null</code>,
+		 * unbounded), the dispatcher does not grant permits to an endpoint at
+		 * its limit, nevertheless, the tasks have to acquire and release the
+		 * in-flight requests themselves (see
+		 * {@link ConcurrencyLimiter#tryAcquire()})
+		 * 
+		 * @param concurrency
+		 *            the concurrency limiter
+		 * @return this {@link Endpoint} instance
+		 */
+		public Endpoint<C> concurrency(ConcurrencyLimiter concurrency) {
+			this.concurrency = concurrency;
+			return this;
+		}
+
+		/**
+		 * get the limit of outstanding requests
+		 * 
+		 * @return the concurrency limiter (or <code>null</code>)
+		 */
+		public ConcurrencyLimiter concurrency() {
+			return concurrency;
+		}
+
+		/**
+		 * checks whether the endpoint reached its limit of outstanding requests
+		 */
+		private boolean saturated() {
+			ConcurrencyLimiter concurrency = this.concurrency;
+			return concurrency != null && concurrency.inFlight() >= concurrency.limit();
+		}
+
+		/**
+		 * a request of this endpoint succeeded
+		 */
+		public void succeeded() {
+			if (throttle != null) {
+				throttle.succeeded();
+			}
+		}
+
+		/**
+		 * a request of this endpoint failed
+		 */
+		public void failed() {
+			if (throttle != null) {
+				throttle.failed();
+			}
+		}
+
+		/**
+		 * this endpoint signaled an exceeded rate limit
+		 */
+		public void throttled() {
+			if (throttle != null) {
+				throttle.throttled();
+			}
+		}
+
+		/**
+		 * returns the unused permit granted at the specified time
+		 */
+		private void refund(long granted) {
+			limiter.refund(granted);
+			if (throttle != null) {
+				throttle.refund(granted);
+			}
+		}
+
+		/**
+		 * gets the client accessing the endpoint
+		 * 
+		 * @return the client
+		 */
+		public C client() {
+			return client;
+		}
+
+		/**
+		 * gets the number of tasks executed by this endpoint so far
+		 * 
+		 * @return the number of executions
+		 */
+		public long executions() {
+			return executions.get();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("%s (%d executions, %s%s%s)", baseURI == null ? "default" : baseURI, executions.get(), limiter, throttle == null ? "" : ", "
+					+ throttle, concurrency == null ? "" : ", " + concurrency);
+		}
+	}
 }
@@ -0,0 +1,146 @@
+package de.hpi.fgis.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * a {@link CompletableFuture} view of an asynchronous request: it is completed
+ * by its {@link #handler()}, cancelling the future (or exceeding its
+ * {@link #timeout(long)}) aborts the underlying requests (see
+ * {@link #attach(Future)} and {@link #onCancel(Runnable)})
+ *
+ * @author tongr
+ *
+ * @param <T>
+ *            the expected content type
+ */
+public class AsyncResultFuture<T> extends CompletableFuture<T> {
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "AsyncResultFuture-timer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final List<Runnable> cancellations = new ArrayList<>();
+	private boolean aborted = false;
+
+	/**
+	 * gets a handler that completes this future
+	 *
+	 * @return the result handler
+	 */
+	public AsyncResultHandler<T> handler() {
+		return new AsyncResultHandler<T>() {
+			@Override
+			public void onCompleted(T data) {
+				complete(data);
+			}
+
+			@Override
+			public void onThrowable(Throwable t) {
+				completeExceptionally(t);
+			}
+		};
+	}
+
+	/**
+	 * cancels the specified request as soon as this future is cancelled (or
+	 * times out)
+	 *
+	 * @param request
+	 *            the underlying request
+	 * @return this {@link AsyncResultFuture} instance
+	 */
+	public AsyncResultFuture<T> attach(final Future<?> request) {
+		return onCancel(new Runnable() {
+			@Override
+			public void run() {
+				request.cancel(true);
+			}
+		});
+	}
+
+	/**
+	 * executes the specified action as soon as this future is cancelled (or
+	 * times out), right away if it has been cancelled already
+	 *
+	 * @param cancellation
+	 *            the action aborting the underlying requests
+	 * @return this {@link AsyncResultFuture} instance
+	 */
+	public AsyncResultFuture<T> onCancel(Runnable cancellation) {
+		boolean run;
+		synchronized (cancellations) {
+			run = aborted;
+			if (!run) {
+				cancellations.add(cancellation);
+			}
+		}
+		if (run) {
+			cancellation.run();
+		}
+		return this;
+	}
+
+	/**
+	 * completes this future w/ a {@link TimeoutException} (and aborts the
+	 * underlying requests) if it is not completed within the specified time
+	 *
+	 * @param timeout
+	 *            the timeout (in ms)
+	 * @return this {@link AsyncResultFuture} instance
+	 */
+	public AsyncResultFuture<T> timeout(final long timeout) {
+		final Future<?> task = TIMER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (completeExceptionally(new TimeoutException("No result within " + timeout + "ms"))) {
+					abort();
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable t) {
+				task.cancel(false);
+			}
+		});
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.CompletableFuture#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			abort();
+		}
+		return cancelled;
+	}
+
+	private void abort() {
+		List<Runnable> actions;
+		synchronized (cancellations) {
+			aborted = true;
+			actions = new ArrayList<>(cancellations);
+			cancellations.clear();
+		}
+		for (Runnable action : actions) {
+			action.run();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package de.hpi.fgis.concurrency;
+
+import de.hpi.fgis.yql.YQLApi;
+
+/**
+ * this interface enables the asynchronous execution of {@link YQLApi} calls
+ * whose result items are handed over one by one as soon as they are parsed
+ * 
+ * @author tongr
+ *
+ * @param <T> the expected content type of the remaining results
+ */
+public interface AsyncStreamHandler<T> extends AsyncResultHandler<T> {
+	/**
+	 * is called for every result item as soon as it is available (i.e., before
+	 * {@link AsyncResultHandler#onCompleted(Object)} is called with the
+	 * remaining results)
+	 * 
+	 * @param item
+	 *            the result item
+	 */
+	public abstract void onItem(Object item);
+}
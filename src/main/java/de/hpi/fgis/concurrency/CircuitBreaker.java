@@ -0,0 +1,221 @@
+package de.hpi.fgis.concurrency;
+
+import java.util.logging.Logger;
+
+/**
+ * stops sending requests to a resource (i.e., an endpoint or a table
+ * definition) that failed repeatedly: after the configured number of
+ * consecutive failures the circuit opens and all requests are refused, once
+ * the open timeout elapsed a single probe request is allowed (half open), a
+ * successful probe closes the circuit, a failing probe opens it again w/ a
+ * doubled timeout<br/>
+ * the outcome of every allowed request has to be reported (see
+ * {@link #succeeded()}, {@link #failed()} and {@link #ignored()}), lost probes
+ * are replaced after the timeout
+ *
+ * @author tongr
+ *
+ */
+public class CircuitBreaker {
+	private static final Logger LOG = Logger.getLogger(CircuitBreaker.class.getName());
+
+	/**
+	 * the states of a {@link CircuitBreaker}
+	 */
+	public static enum State {
+		/** requests are allowed */
+		CLOSED,
+		/** requests are refused */
+		OPEN,
+		/** a probe request is pending */
+		HALF_OPEN
+	}
+
+	private final String name;
+	private int failureThreshold = 5;
+	private long openTimeout = 10000;
+	private long maxOpenTimeout = 300000;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long timeout = openTimeout;
+	private long openedAt = 0;
+	private long probeAt = 0;
+	private long opens = 0;
+	private long refused = 0;
+
+	/**
+	 * creates a new (closed) circuit breaker
+	 *
+	 * @param name
+	 *            the name of the guarded resource (for logging)
+	 */
+	public CircuitBreaker(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * set the number of consecutive failures that opens the circuit (default:
+	 * 5)
+	 *
+	 * @param failureThreshold
+	 *            the number of consecutive failures
+	 * @return this {@link CircuitBreaker} instance
+	 */
+	public synchronized CircuitBreaker failureThreshold(int failureThreshold) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("The failure threshold has to be positive: " + failureThreshold);
+		}
+		this.failureThreshold = failureThreshold;
+		return this;
+	}
+
+	/**
+	 * set the time the circuit stays open before it is probed (default: 10s,
+	 * doubled after every failing probe up to 5min)
+	 *
+	 * @param openTimeout
+	 *            the initial timeout (in ms)
+	 * @param maxOpenTimeout
+	 *            the maximal timeout (in ms)
+	 * @return this {@link CircuitBreaker} instance
+	 */
+	public synchronized CircuitBreaker openTimeout(long openTimeout, long maxOpenTimeout) {
+		if (openTimeout <= 0 || maxOpenTimeout < openTimeout) {
+			throw new IllegalArgumentException("Illegal timeouts (initial=" + openTimeout + ", max=" + maxOpenTimeout + ")");
+		}
+		this.openTimeout = openTimeout;
+		this.maxOpenTimeout = maxOpenTimeout;
+		this.timeout = state == State.CLOSED ? openTimeout : Math.max(openTimeout, Math.min(maxOpenTimeout, timeout));
+		return this;
+	}
+
+	/**
+	 * checks whether a request may be sent, if the open timeout elapsed this
+	 * request is the probe
+	 *
+	 * @return <code>true</code> if the request may be sent (its outcome has
+	 *         to be reported)
+	 */
+	public synchronized boolean allowRequest() {
+		long now = System.currentTimeMillis();
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (now >= openedAt + timeout) {
+				LOG.info("Probing " + name + " (open for " + (now - openedAt) + "ms)");
+				state = State.HALF_OPEN;
+				probeAt = now;
+				return true;
+			}
+			break;
+		case HALF_OPEN:
+			if (now >= probeAt + timeout) {
+				// the previous probe has been lost
+				probeAt = now;
+				return true;
+			}
+			break;
+		}
+		refused++;
+		return false;
+	}
+
+	/**
+	 * a request succeeded --> the circuit is closed
+	 */
+	public synchronized void succeeded() {
+		if (state != State.CLOSED) {
+			LOG.info("Closing the circuit of " + name);
+		}
+		state = State.CLOSED;
+		failures = 0;
+		timeout = openTimeout;
+	}
+
+	/**
+	 * a request failed --> the circuit opens after too many consecutive
+	 * failures or a failing probe
+	 */
+	public synchronized void failed() {
+		failures++;
+		if (state == State.HALF_OPEN) {
+			timeout = Math.min(maxOpenTimeout, timeout * 2);
+			open();
+		} else if (state == State.CLOSED && failures >= failureThreshold) {
+			open();
+		}
+	}
+
+	/**
+	 * a request did not tell anything about the resource (i.e., it has been
+	 * cancelled or throttled) --> another probe may be sent
+	 */
+	public synchronized void ignored() {
+		if (state == State.HALF_OPEN) {
+			probeAt = 0;
+		}
+	}
+
+	private void open() {
+		LOG.warning("Opening the circuit of " + name + " for " + timeout + "ms (" + failures + " consecutive failures)");
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+		opens++;
+	}
+
+	/**
+	 * gets the current state
+	 *
+	 * @return the state of the circuit
+	 */
+	public synchronized State state() {
+		return state;
+	}
+
+	/**
+	 * gets the time until the next request may be sent
+	 *
+	 * @return the delay (in ms), 0 if a request may be sent right now
+	 */
+	public synchronized long delay() {
+		long now = System.currentTimeMillis();
+		switch (state) {
+		case OPEN:
+			return Math.max(0, openedAt + timeout - now);
+		case HALF_OPEN:
+			return Math.max(0, probeAt + timeout - now);
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * gets the number of times the circuit opened so far
+	 *
+	 * @return the number of openings
+	 */
+	public synchronized long opens() {
+		return opens;
+	}
+
+	/**
+	 * gets the number of requests refused so far
+	 *
+	 * @return the number of refused requests
+	 */
+	public synchronized long refused() {
+		return refused;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%s: %s (%d opens, %d refused)", name, state, opens, refused);
+	}
+}
@@ -0,0 +1,37 @@
+package de.hpi.fgis.concurrency;
+
+import java.io.IOException;
+
+/**
+ * a request has been refused because the circuit of the resource is open (see
+ * {@link CircuitBreaker}), i.e., it has not been sent at all
+ *
+ * @author tongr
+ *
+ */
+public class CircuitOpenException extends IOException {
+	private static final long serialVersionUID = 2813746035163518274L;
+	private final long delay;
+
+	/**
+	 * creates a new exception
+	 *
+	 * @param message
+	 *            the detail message
+	 * @param delay
+	 *            the time until the next request may be sent (in ms)
+	 */
+	public CircuitOpenException(String message, long delay) {
+		super(message);
+		this.delay = delay;
+	}
+
+	/**
+	 * gets the time until the next request may be sent
+	 *
+	 * @return the delay (in ms)
+	 */
+	public long delay() {
+		return delay;
+	}
+}
@@ -0,0 +1,196 @@
+package de.hpi.fgis.concurrency;
+
+/**
+ * limits the number of outstanding (in-flight) asynchronous requests, the
+ * allowed number adapts to the observed latencies (gradient style): as long
+ * as the latency stays close to the minimal latency (no queueing at the
+ * endpoint) the limit grows by sqrt(limit), rising latencies shrink the limit
+ * by the ratio of the minimal and the current latency, timeouts and similar
+ * overload signals cut it (see {@link #drop()})<br/>
+ * following Little's law, the limit converges to throughput * minimal latency
+ * plus a small queue, thus, requests (and their pinned data) do not pile up
+ * in the http client if the endpoint slows down
+ *
+ * @author tongr
+ *
+ */
+public class ConcurrencyLimiter {
+	private final int minLimit;
+	private final int maxLimit;
+	private double limit;
+	// latency tolerated before the limit shrinks (relative to the minimal latency)
+	private double tolerance = 1.5;
+	private double smoothing = 0.2;
+	private double backoff = 0.9;
+	// the minimal latency is probed again after this number of samples
+	private int probeInterval = 500;
+
+	private int inFlight = 0;
+	private long minLatency = -1;
+	private long samples = 0;
+	private long rejected = 0;
+	private long dropped = 0;
+	private int maxInFlight = 0;
+
+	/**
+	 * creates a new limiter
+	 *
+	 * @param initialLimit
+	 *            the initial number of allowed in-flight requests
+	 * @param minLimit
+	 *            the minimal number of allowed in-flight requests
+	 * @param maxLimit
+	 *            the maximal number of allowed in-flight requests
+	 */
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit <= 0 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("Illegal limits (initial=" + initialLimit + ", min=" + minLimit + ", max=" + maxLimit + ")");
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+	}
+
+	/**
+	 * set the latency tolerated before the limit shrinks (default: 1.5 times
+	 * the minimal latency)
+	 *
+	 * @param tolerance
+	 *            the tolerance (relative to the minimal latency, at least 1)
+	 * @return this {@link ConcurrencyLimiter} instance
+	 */
+	public synchronized ConcurrencyLimiter tolerance(double tolerance) {
+		if (tolerance < 1) {
+			throw new IllegalArgumentException("The tolerance has to be at least 1: " + tolerance);
+		}
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	/**
+	 * set the weight of a new limit estimate (default: 0.2)
+	 *
+	 * @param smoothing
+	 *            the weight (between 0 and 1)
+	 * @return this {@link ConcurrencyLimiter} instance
+	 */
+	public synchronized ConcurrencyLimiter smoothing(double smoothing) {
+		if (smoothing <= 0 || smoothing > 1) {
+			throw new IllegalArgumentException("The smoothing has to be in (0,1]: " + smoothing);
+		}
+		this.smoothing = smoothing;
+		return this;
+	}
+
+	/**
+	 * starts another request if the limit allows it
+	 *
+	 * @return <code>true</code> if the request may be started (it has to be
+	 *         released afterwards)
+	 */
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= limit()) {
+			rejected++;
+			return false;
+		}
+		inFlight++;
+		maxInFlight = Math.max(maxInFlight, inFlight);
+		return true;
+	}
+
+	/**
+	 * releases a request w/o latency sample (i.e., it has not been sent or it
+	 * failed for reasons not related to the load of the endpoint)
+	 */
+	public synchronized void release() {
+		inFlight = Math.max(0, inFlight - 1);
+	}
+
+	/**
+	 * releases a completed request and adapts the limit to its latency
+	 *
+	 * @param latency
+	 *            the latency of the request (in ms)
+	 */
+	public synchronized void release(long latency) {
+		// the limit is only raised if it has actually been used
+		boolean limited = inFlight * 2 >= limit;
+		release();
+		samples++;
+		if (minLatency < 0 || latency < minLatency || samples % probeInterval == 0) {
+			minLatency = Math.max(1, latency);
+		}
+		double gradient = Math.max(0.5, Math.min(1, tolerance * minLatency / Math.max(1, latency)));
+		double estimate = limit * gradient;
+		if (gradient >= 1 && limited) {
+			// room for a small queue
+			estimate += Math.sqrt(limit);
+		}
+		limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + estimate * smoothing));
+	}
+
+	/**
+	 * releases a request that signaled an overload (i.e., a timeout) and
+	 * cuts the limit
+	 */
+	public synchronized void drop() {
+		release();
+		dropped++;
+		limit = Math.max(minLimit, limit * backoff);
+	}
+
+	/**
+	 * gets the number of allowed in-flight requests
+	 *
+	 * @return the limit
+	 */
+	public synchronized int limit() {
+		return Math.max(minLimit, (int) limit);
+	}
+
+	/**
+	 * gets the number of in-flight requests
+	 *
+	 * @return the number of outstanding requests
+	 */
+	public synchronized int inFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * gets the minimal latency observed (within the current probe interval)
+	 *
+	 * @return the minimal latency (in ms) or -1 if there are no samples
+	 */
+	public synchronized long minLatency() {
+		return minLatency;
+	}
+
+	/**
+	 * gets the number of requests refused so far
+	 *
+	 * @return the number of rejected requests
+	 */
+	public synchronized long rejected() {
+		return rejected;
+	}
+
+	/**
+	 * gets the number of requests that signaled an overload so far
+	 *
+	 * @return the number of dropped requests
+	 */
+	public synchronized long dropped() {
+		return dropped;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d/%d in flight (max. %d, min. latency %dms), %d rejected, %d dropped", inFlight, limit(), maxInFlight, minLatency, rejected, dropped);
+	}
+}
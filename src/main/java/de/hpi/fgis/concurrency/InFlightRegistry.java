@@ -0,0 +1,155 @@
+package de.hpi.fgis.concurrency;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * keeps track of the outstanding asynchronous requests, every request has a
+ * deadline (see {@link AsyncResultFuture#timeout(long)}), thus, a shutdown can
+ * wait for the actual outstanding work (see {@link #drain(long)}) and cancel
+ * the remaining requests afterwards (see {@link #cancelAll()})
+ *
+ * @author tongr
+ *
+ */
+public class InFlightRegistry {
+	// request -> registration time
+	private final Map<AsyncResultFuture<?>, Long> requests = new IdentityHashMap<>();
+	private long registered = 0;
+	private long expired = 0;
+	private long cancelled = 0;
+
+	/**
+	 * registers the specified request until it is completed
+	 *
+	 * @param request
+	 *            the pending request
+	 * @param deadline
+	 *            the time the request may take (in ms), it is aborted w/ a
+	 *            {@link TimeoutException} afterwards (0 --> no deadline)
+	 * @return the request
+	 */
+	public <T> AsyncResultFuture<T> register(final AsyncResultFuture<T> request, long deadline) {
+		synchronized (this) {
+			requests.put(request, System.currentTimeMillis());
+			registered++;
+		}
+		if (deadline > 0) {
+			request.timeout(deadline);
+		}
+		request.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T result, Throwable t) {
+				completed(request, t);
+			}
+		});
+		return request;
+	}
+
+	private synchronized void completed(AsyncResultFuture<?> request, Throwable t) {
+		if (requests.remove(request) == null) {
+			return;
+		}
+		if (t instanceof TimeoutException) {
+			expired++;
+		} else if (t instanceof CancellationException) {
+			cancelled++;
+		}
+		if (requests.isEmpty()) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * waits until all outstanding requests are completed
+	 *
+	 * @param timeout
+	 *            the maximal time to wait (in ms)
+	 * @return <code>true</code> if there are no outstanding requests
+	 * @throws InterruptedException
+	 *             if the waiting thread has been interrupted
+	 */
+	public synchronized boolean drain(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (!requests.isEmpty() && remaining > 0) {
+			wait(remaining);
+			remaining = end - System.currentTimeMillis();
+		}
+		return requests.isEmpty();
+	}
+
+	/**
+	 * cancels all outstanding requests
+	 *
+	 * @return the number of cancelled requests
+	 */
+	public int cancelAll() {
+		List<AsyncResultFuture<?>> pending;
+		synchronized (this) {
+			pending = new ArrayList<>(requests.keySet());
+		}
+		int count = 0;
+		for (AsyncResultFuture<?> request : pending) {
+			if (request.cancel(true)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * gets the number of outstanding requests
+	 *
+	 * @return the number of outstanding requests
+	 */
+	public synchronized int size() {
+		return requests.size();
+	}
+
+	/**
+	 * gets the age of the oldest outstanding request
+	 *
+	 * @return the age (in ms) or -1 if there are no outstanding requests
+	 */
+	public synchronized long oldest() {
+		long oldest = Long.MAX_VALUE;
+		for (Long time : requests.values()) {
+			oldest = Math.min(oldest, time);
+		}
+		return requests.isEmpty() ? -1 : System.currentTimeMillis() - oldest;
+	}
+
+	/**
+	 * gets the number of requests that exceeded their deadline so far
+	 *
+	 * @return the number of expired requests
+	 */
+	public synchronized long expired() {
+		return expired;
+	}
+
+	/**
+	 * gets the number of requests cancelled so far
+	 *
+	 * @return the number of cancelled requests
+	 */
+	public synchronized long cancelled() {
+		return cancelled;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d in flight (oldest %dms), %d registered, %d expired, %d cancelled", requests.size(), oldest(), registered, expired, cancelled);
+	}
+}
@@ -0,0 +1,74 @@
+package de.hpi.fgis.concurrency;
+
+import java.util.Arrays;
+
+/**
+ * keeps the most recent latency observations (sliding window of a fixed
+ * number of samples) and computes percentiles over them
+ *
+ * @author tongr
+ *
+ */
+public class LatencyWindow {
+	private final long[] samples;
+	private int count = 0;
+	private int next = 0;
+
+	/**
+	 * creates a new window
+	 *
+	 * @param size
+	 *            the number of most recent observations to be kept
+	 */
+	public LatencyWindow(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("The window has to keep at least one sample");
+		}
+		this.samples = new long[size];
+	}
+
+	/**
+	 * adds another observation (replaces the oldest one if the window is
+	 * full)
+	 *
+	 * @param latency
+	 *            the observed latency (in ms)
+	 */
+	public synchronized void add(long latency) {
+		samples[next] = latency;
+		next = (next + 1) % samples.length;
+		if (count < samples.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * gets the number of observations in the window
+	 *
+	 * @return the number of samples
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * gets the specified percentile of the observations in the window
+	 * (nearest rank)
+	 *
+	 * @param percentile
+	 *            the percentile (between 0 and 1, i.e., 0.95)
+	 * @return the latency (in ms) or -1 if there are no observations
+	 */
+	public synchronized long percentile(double percentile) {
+		if (percentile < 0 || percentile > 1) {
+			throw new IllegalArgumentException("The percentile has to be in [0,1]: " + percentile);
+		}
+		if (count == 0) {
+			return -1;
+		}
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, rank))];
+	}
+}
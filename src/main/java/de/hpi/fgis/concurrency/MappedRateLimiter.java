@@ -0,0 +1,406 @@
+package de.hpi.fgis.concurrency;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * a {@link Quota} whose window log is a memory-mapped ledger file that can
+ * be shared by several processes (JVMs) on the same host (i.e., all crawlers
+ * using the same IP), the acquired permits survive restarts<br/>
+ * the ledger is a ring buffer of the acquisition times of the permits within
+ * the window (ordered by time), its head and the number of entries are kept in
+ * the header. All processes synchronize their modifications via a file lock,
+ * {@link #delay()} and {@link #remaining()} read the ledger w/o locking (i.e.,
+ * their result is an estimate that a subsequent {@link #tryAcquire()} may
+ * refuse). Unlike the in-memory {@link RateLimiter}, bursts cannot be limited.
+ *
+ * @author tongr
+ *
+ */
+public class MappedRateLimiter implements Quota, Closeable {
+	private static final Logger LOG = Logger.getLogger(MappedRateLimiter.class.getName());
+	private static final Map<String, MappedRateLimiter> INSTANCES = new HashMap<>();
+
+	private static final int MAGIC = 0x5243524c;
+	private static final int VERSION = 2;
+	// header layout
+	private static final int HEADER_SIZE = 40;
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_PERMITS = 8;
+	private static final int H_WINDOW = 16;
+	private static final int H_ACQUIRED = 24;
+	private static final int H_HEAD = 32;
+	private static final int H_COUNT = 36;
+	// header size of the first ledger version (unordered slots, 0 if free)
+	private static final int V1_HEADER_SIZE = 32;
+	// slot layout: acquisition time (8 bytes)
+	private static final int SLOT_SIZE = 8;
+	// delay reported if the ledger cannot be locked
+	private static final long ERROR_DELAY = 1000;
+
+	private final int permits;
+	private final long window;
+	private final File file;
+	private final RandomAccessFile ledgerFile;
+	private final MappedByteBuffer ledger;
+	private long acquired = 0;
+
+	/**
+	 * gets the (shared) {@link MappedRateLimiter} instance of the specified
+	 * ledger file, within one JVM all accessors of a ledger have to use the
+	 * same instance
+	 *
+	 * @param file
+	 *            the ledger file
+	 * @param permits
+	 *            the number of permits per window
+	 * @param window
+	 *            the length of the window (in ms)
+	 * @return the {@link MappedRateLimiter} instance of the ledger
+	 * @throws IOException
+	 *             if the ledger cannot be opened or has been created w/
+	 *             another rate limit
+	 */
+	public static synchronized MappedRateLimiter getInstance(String file, int permits, long window) throws IOException {
+		String path = new File(file).getCanonicalPath();
+		MappedRateLimiter instance = INSTANCES.get(path);
+		if (instance == null) {
+			instance = new MappedRateLimiter(new File(path), permits, window);
+			INSTANCES.put(path, instance);
+		} else if (instance.permits() != permits || instance.window() != window) {
+			throw new IOException("The ledger " + path + " is used w/ another rate limit");
+		}
+		return instance;
+	}
+
+	/**
+	 * creates a new ledger accessor
+	 *
+	 * @param file
+	 *            the ledger file (created if it does not exist, converted if
+	 *            it has been written in the previous format)
+	 * @param permits
+	 *            the number of permits per window
+	 * @param window
+	 *            the length of the window (in ms)
+	 * @throws IOException
+	 *             if the ledger cannot be opened or has been created w/
+	 *             another rate limit
+	 */
+	protected MappedRateLimiter(File file, int permits, long window) throws IOException {
+		if (permits <= 0 || window <= 0) {
+			throw new IllegalArgumentException("Illegal rate limit (permits=" + permits + ", window=" + window + ")");
+		}
+		this.permits = permits;
+		this.window = window;
+		if (file.getParentFile() != null && !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+			throw new IOException("Unable to create ledger folder " + file.getParentFile());
+		}
+		this.file = file;
+		this.ledgerFile = new RandomAccessFile(file, "rw");
+
+		FileLock lock = ledgerFile.getChannel().lock();
+		try {
+			boolean create = ledgerFile.length() < V1_HEADER_SIZE;
+			long[] converted = null;
+			if (!create) {
+				ledgerFile.seek(H_MAGIC);
+				int magic = ledgerFile.readInt();
+				int version = ledgerFile.readInt();
+				if (magic != MAGIC || (version != VERSION && version != 1)) {
+					throw new IOException("Illegal ledger file format: " + file);
+				}
+				int ledgerPermits = ledgerFile.readInt();
+				ledgerFile.seek(H_WINDOW);
+				long ledgerWindow = ledgerFile.readLong();
+				if (ledgerPermits != permits || ledgerWindow != window) {
+					throw new IOException("The ledger " + file + " has been created w/ another rate limit (" + ledgerPermits + " permits per " + ledgerWindow
+							+ "ms)");
+				}
+				if (version == 1) {
+					converted = readV1Slots();
+				}
+			}
+			if (create || converted != null) {
+				ledgerFile.setLength(HEADER_SIZE + (long) permits * SLOT_SIZE);
+			}
+			ledger = ledgerFile.getChannel().map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) permits * SLOT_SIZE);
+			if (create) {
+				ledger.putInt(H_MAGIC, MAGIC);
+				ledger.putInt(H_PERMITS, permits);
+				ledger.putLong(H_WINDOW, window);
+				ledger.putLong(H_ACQUIRED, 0);
+			}
+			if (create || converted != null) {
+				int count = converted != null ? converted.length : 0;
+				for (int i = 0; i < count; i++) {
+					ledger.putLong(slotOffset(i), converted[i]);
+				}
+				ledger.putInt(H_HEAD, 0);
+				ledger.putInt(H_COUNT, count);
+				ledger.putInt(H_VERSION, VERSION);
+			}
+		} catch (IOException | RuntimeException e) {
+			lock.release();
+			ledgerFile.close();
+			throw e;
+		}
+		lock.release();
+	}
+
+	/**
+	 * reads the permits of a ledger written in the first format (one slot per
+	 * permit, 0 if free) that are still within the window
+	 *
+	 * @return the acquisition times of the permits (ascending)
+	 */
+	private long[] readV1Slots() throws IOException {
+		long now = System.currentTimeMillis();
+		long[] times = new long[permits];
+		int count = 0;
+		for (int slot = 0; slot < permits; slot++) {
+			ledgerFile.seek(V1_HEADER_SIZE + (long) slot * SLOT_SIZE);
+			long time = ledgerFile.readLong();
+			if (time != 0L && time + window > now) {
+				times[count++] = time;
+			}
+		}
+		times = Arrays.copyOf(times, count);
+		Arrays.sort(times);
+		return times;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.concurrency.Quota#permits()
+	 */
+	@Override
+	public int permits() {
+		return permits;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.concurrency.Quota#window()
+	 */
+	@Override
+	public long window() {
+		return window;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.concurrency.Quota#tryAcquire()
+	 */
+	@Override
+	public synchronized boolean tryAcquire() {
+		FileLock lock = lock();
+		if (lock == null) {
+			return false;
+		}
+		try {
+			long now = System.currentTimeMillis();
+			expire(now);
+			int head = ledger.getInt(H_HEAD);
+			int count = ledger.getInt(H_COUNT);
+			if (count >= permits()) {
+				return false;
+			}
+			// keep the ring ordered, even if the clocks of the processes differ slightly
+			long time = count > 0 ? Math.max(now, timeAt(head, count - 1)) : now;
+			ledger.putLong(slotOffset((head + count) % permits()), time);
+			ledger.putInt(H_COUNT, count + 1);
+			ledger.putLong(H_ACQUIRED, ledger.getLong(H_ACQUIRED) + 1);
+			acquired++;
+			return true;
+		} finally {
+			release(lock);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.concurrency.Quota#refund()
+	 */
+	@Override
+	public void refund() {
+		refund(Long.MAX_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.concurrency.Quota#refund(long)
+	 */
+	@Override
+	public synchronized void refund(long acquiredBefore) {
+		FileLock lock = lock();
+		if (lock == null) {
+			return;
+		}
+		try {
+			expire(System.currentTimeMillis());
+			int head = ledger.getInt(H_HEAD);
+			int count = ledger.getInt(H_COUNT);
+			// the most recent permit acquired at or before the specified time
+			// (usually the tail of the ring)
+			int latest = count - 1;
+			while (latest >= 0 && timeAt(head, latest) > acquiredBefore) {
+				latest--;
+			}
+			if (latest >= 0) {
+				// close the gap by moving the permits acquired later
+				for (int i = latest; i < count - 1; i++) {
+					ledger.putLong(slotOffset((head + i) % permits()), timeAt(head, i + 1));
+				}
+				ledger.putInt(H_COUNT, count - 1);
+				ledger.putLong(H_ACQUIRED, ledger.getLong(H_ACQUIRED) - 1);
+				acquired--;
+			}
+		} finally {
+			release(lock);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.concurrency.Quota#delay()
+	 */
+	@Override
+	public long delay() {
+		int head = ledger.getInt(H_HEAD);
+		int count = ledger.getInt(H_COUNT);
+		if (count < permits()) {
+			return 0;
+		}
+		// the oldest permit is at the head of the ring
+		return Math.max(0, timeAt(head, 0) + window() - System.currentTimeMillis());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.concurrency.Quota#remaining()
+	 */
+	@Override
+	public int remaining() {
+		int head = ledger.getInt(H_HEAD);
+		int count = ledger.getInt(H_COUNT);
+		return permits() - count + expired(head, count, System.currentTimeMillis());
+	}
+
+	/**
+	 * gets the number of permits acquired by this process so far
+	 *
+	 * @return the number of acquired permits
+	 */
+	@Override
+	public synchronized long acquired() {
+		return acquired;
+	}
+
+	/**
+	 * gets the number of permits acquired by all processes sharing the ledger
+	 * (since its creation)
+	 *
+	 * @return the number of acquired permits
+	 */
+	public long acquiredTotal() {
+		return ledger.getLong(H_ACQUIRED);
+	}
+
+	/**
+	 * drops the permits outside of the window from the head of the ring (the
+	 * ledger has to be locked)
+	 */
+	private void expire(long now) {
+		int head = ledger.getInt(H_HEAD);
+		int count = ledger.getInt(H_COUNT);
+		int expired = expired(head, count, now);
+		if (expired > 0) {
+			ledger.putInt(H_HEAD, (head + expired) % permits());
+			ledger.putInt(H_COUNT, count - expired);
+		}
+	}
+
+	/**
+	 * gets the number of (ordered) entries of the ring that are outside of the
+	 * window
+	 */
+	private int expired(int head, int count, long now) {
+		int low = 0;
+		int high = Math.min(Math.max(count, 0), permits());
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (timeAt(head, mid) + window() <= now) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * gets the acquisition time of the i-th entry of the ring
+	 */
+	private long timeAt(int head, int i) {
+		return ledger.getLong(slotOffset((head + i) % permits()));
+	}
+
+	private static int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private FileLock lock() {
+		try {
+			return ledgerFile.getChannel().lock();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Unable to lock the ledger " + file, e);
+			return null;
+		}
+	}
+
+	private void release(FileLock lock) {
+		try {
+			lock.release();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Unable to release the ledger " + file, e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d/%d permits remaining (%d ms window, shared via %s), %d acquired", remaining(), permits(), window(), file, acquired);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (MappedRateLimiter.class) {
+			if (INSTANCES.get(file.getCanonicalPath()) == this) {
+				INSTANCES.remove(file.getCanonicalPath());
+			}
+		}
+		synchronized (this) {
+			ledger.force();
+			ledgerFile.close();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package de.hpi.fgis.concurrency;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a fixed pool of worker threads that keeps track of its queue depth and the
+ * time tasks wait in the queue, i.e., to hand the handling and persistence of
+ * completed responses over from the http i/o and parser threads<br/>
+ * the queue is unbounded, thus, the submitting thread never executes a task
+ * itself. The tasks must not wait for other events (i.e., a response that is
+ * still being received), such that a worker is always released by the task
+ * it runs. The producer has to bound the number of queued tasks (i.e., one
+ * task per completed response bounded by the outstanding requests, see
+ * {@link ConcurrencyLimiter}).
+ *
+ * @author tongr
+ *
+ */
+public class MeteredExecutor extends ThreadPoolExecutor {
+	private static final int LATENCY_SAMPLES = 1000;
+	private final String name;
+	private final LatencyWindow waits = new LatencyWindow(LATENCY_SAMPLES);
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	/**
+	 * creates a new executor
+	 *
+	 * @param name
+	 *            the name of the executor (prefix of the thread names)
+	 * @param threads
+	 *            the number of worker threads
+	 */
+	public MeteredExecutor(final String name, int threads) {
+		super(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		this.name = name;
+		setThreadFactory(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ThreadPoolExecutor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(final Runnable command) {
+		final long queued = System.currentTimeMillis();
+		super.execute(new Runnable() {
+			@Override
+			public void run() {
+				waits.add(System.currentTimeMillis() - queued);
+				command.run();
+			}
+		});
+		int depth = getQueue().size();
+		int max;
+		while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+			// retry
+		}
+	}
+
+	/**
+	 * gets the number of queued tasks
+	 *
+	 * @return the current queue depth
+	 */
+	public int queueDepth() {
+		return getQueue().size();
+	}
+
+	/**
+	 * gets the maximal number of queued tasks so far
+	 *
+	 * @return the maximal queue depth
+	 */
+	public int maxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * gets the time the recent tasks waited in the queue
+	 *
+	 * @return the queueing delays (in ms)
+	 */
+	public LatencyWindow waits() {
+		return waits;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ThreadPoolExecutor#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: %d queued (max. %d), %d active, %d completed, wait p50=%dms p95=%dms", name, queueDepth(), maxQueueDepth(),
+				getActiveCount(), getCompletedTaskCount(), waits.percentile(.5), waits.percentile(.95));
+	}
+}
@@ -0,0 +1,68 @@
+package de.hpi.fgis.concurrency;
+
+/**
+ * a request quota of an API (i.e., 2,000 requests per hour): there are never
+ * more than the allowed number of permits within any window, unused permits
+ * may be returned (see {@link RateLimiter} for an in-memory quota and
+ * {@link MappedRateLimiter} for a quota shared by several processes)
+ *
+ * @author tongr
+ *
+ */
+public interface Quota {
+	/**
+	 * gets the number of permits per window
+	 *
+	 * @return the number of permits
+	 */
+	public abstract int permits();
+
+	/**
+	 * gets the length of the window
+	 *
+	 * @return the length of the window (in ms)
+	 */
+	public abstract long window();
+
+	/**
+	 * acquires a permit if there is budget left
+	 *
+	 * @return <code>true</code> if the permit has been acquired
+	 */
+	public abstract boolean tryAcquire();
+
+	/**
+	 * returns the most recently acquired permit (i.e., it has not been used)
+	 */
+	public abstract void refund();
+
+	/**
+	 * returns a permit acquired at or before the specified time (i.e., it has
+	 * not been used), permits acquired later by other callers are kept
+	 *
+	 * @param acquiredBefore
+	 *            the time right after the permit was acquired (in ms)
+	 */
+	public abstract void refund(long acquiredBefore);
+
+	/**
+	 * gets the time until the next permit is available
+	 *
+	 * @return the delay (in ms), 0 if there is budget left
+	 */
+	public abstract long delay();
+
+	/**
+	 * gets the number of permits that may be acquired right now
+	 *
+	 * @return the remaining budget
+	 */
+	public abstract int remaining();
+
+	/**
+	 * gets the number of permits acquired so far (by this process)
+	 *
+	 * @return the number of acquired permits
+	 */
+	public abstract long acquired();
+}
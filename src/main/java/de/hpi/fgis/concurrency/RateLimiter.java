@@ -0,0 +1,193 @@
+package de.hpi.fgis.concurrency;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * an in-memory {@link Quota}, i.e., a rate limiter that enforces the actual quota of an API (i.e., 2,000
+ * requests per hour): a sliding window log ensures that there are never more
+ * than the allowed number of permits within any window, unused permits are
+ * banked (i.e., a burst of requests is allowed after an idle period)<br/>
+ * optionally, bursts can be limited by a token bucket that refills at the
+ * average rate of the quota (see {@link #burst(int)})
+ *
+ * @author tongr
+ *
+ */
+public class RateLimiter implements Quota {
+	private final int permits;
+	private final long window;
+	// the times of the permits acquired within the current window
+	private final ArrayDeque<Long> log = new ArrayDeque<>();
+	private int burst;
+	private double tokens;
+	private long lastRefill;
+	private long acquired = 0;
+
+	/**
+	 * creates a new rate limiter
+	 *
+	 * @param permits
+	 *            the number of permits per window
+	 * @param window
+	 *            the length of the window (in ms)
+	 */
+	public RateLimiter(int permits, long window) {
+		if (permits <= 0 || window <= 0) {
+			throw new IllegalArgumentException("Illegal rate limit (permits=" + permits + ", window=" + window + ")");
+		}
+		this.permits = permits;
+		this.window = window;
+		this.burst = permits;
+		this.tokens = permits;
+		this.lastRefill = System.currentTimeMillis();
+	}
+
+	/**
+	 * limits the number of permits acquired at once, the token bucket is
+	 * refilled by permits/window (default: the number of permits per window,
+	 * i.e., only the window limit applies)
+	 *
+	 * @param burst
+	 *            the maximal number of permits acquired at once
+	 * @return this {@link RateLimiter} instance
+	 */
+	public synchronized RateLimiter burst(int burst) {
+		if (burst <= 0 || burst > permits) {
+			throw new IllegalArgumentException("The burst has to be in [1," + permits + "]: " + burst);
+		}
+		this.burst = burst;
+		this.tokens = Math.min(tokens, burst);
+		return this;
+	}
+
+	/**
+	 * gets the maximal number of permits acquired at once
+	 *
+	 * @return the burst size
+	 */
+	public synchronized int burst() {
+		return burst;
+	}
+
+	/**
+	 * gets the number of permits per window
+	 *
+	 * @return the number of permits
+	 */
+	public int permits() {
+		return permits;
+	}
+
+	/**
+	 * gets the length of the window
+	 *
+	 * @return the length of the window (in ms)
+	 */
+	public long window() {
+		return window;
+	}
+
+	/**
+	 * acquires a permit if there is budget left
+	 *
+	 * @return <code>true</code> if the permit has been acquired
+	 */
+	public synchronized boolean tryAcquire() {
+		long now = System.currentTimeMillis();
+		update(now);
+		if (log.size() >= permits || tokens < 1) {
+			return false;
+		}
+		log.add(now);
+		tokens--;
+		acquired++;
+		return true;
+	}
+
+	/**
+	 * returns the most recently acquired permit (i.e., it has not been used)
+	 */
+	public synchronized void refund() {
+		refund(Long.MAX_VALUE);
+	}
+
+	/**
+	 * returns a permit acquired at or before the specified time (i.e., it has
+	 * not been used), permits acquired later by other callers are kept
+	 *
+	 * @param acquiredBefore
+	 *            the time right after the permit was acquired (in ms)
+	 */
+	public synchronized void refund(long acquiredBefore) {
+		Iterator<Long> it = log.descendingIterator();
+		while (it.hasNext()) {
+			if (it.next() <= acquiredBefore) {
+				it.remove();
+				tokens = Math.min(burst, tokens + 1);
+				acquired--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * gets the time until the next permit is available
+	 *
+	 * @return the delay (in ms), 0 if there is budget left
+	 */
+	public synchronized long delay() {
+		long now = System.currentTimeMillis();
+		update(now);
+		long delay = 0;
+		if (log.size() >= permits) {
+			delay = log.peekFirst() + window - now;
+		}
+		if (tokens < 1) {
+			delay = Math.max(delay, (long) Math.ceil((1 - tokens) * window / permits));
+		}
+		return Math.max(0, delay);
+	}
+
+	/**
+	 * gets the number of permits that may be acquired right now
+	 *
+	 * @return the remaining budget
+	 */
+	public synchronized int remaining() {
+		update(System.currentTimeMillis());
+		return Math.min(permits - log.size(), (int) tokens);
+	}
+
+	/**
+	 * gets the number of permits acquired so far
+	 *
+	 * @return the number of acquired permits
+	 */
+	public synchronized long acquired() {
+		return acquired;
+	}
+
+	/**
+	 * drops the permits outside of the window and refills the token bucket
+	 */
+	private void update(long now) {
+		while (!log.isEmpty() && log.peekFirst() + window <= now) {
+			log.pollFirst();
+		}
+		if (now > lastRefill) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * (double) permits / window);
+			lastRefill = now;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d/%d permits remaining (%d ms window), %d acquired", remaining(), permits, window, acquired);
+	}
+}
@@ -0,0 +1,100 @@
+package de.hpi.fgis.crawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+import de.hpi.fgis.concurrency.AsyncResultFuture;
+import de.hpi.fgis.concurrency.AsyncResultHandler;
+import de.hpi.fgis.yql.YQLCrawler;
+import de.hpi.fgis.yql.YQLCrawler.CrawlingResults;
+
+/**
+ * a crawling backend that fetches the contents and headers of a list of urls
+ * and resolves their redirects (i.e., via the YQL API, see
+ * {@link YQLCrawler}, or directly, see {@link DirectCrawler})
+ * 
+ * @author tongr
+ * 
+ */
+public interface Crawler extends Closeable {
+	/**
+	 * crawls the specified urls asynchronously
+	 * 
+	 * @param urls
+	 *            the urls to be crawled
+	 * @param asyncResultHandler
+	 *            an asynchronous result processor that gets informed if the
+	 *            results are available, whereas the crawling results include a
+	 *            mapping from an actual url (destination of one or more
+	 *            redirects from a source url) to the content of the actual page
+	 *            as well as redirect information (original_url -> actual_url)
+	 * @throws IOException
+	 *             in case of network problems
+	 */
+	public void crawlAsync(Collection<String> urls, AsyncResultHandler<CrawlingResults> asyncResultHandler) throws IOException;
+
+	/**
+	 * crawls the specified urls asynchronously (see
+	 * {@link #crawlAsync(Collection, AsyncResultHandler)}), by default
+	 * cancelling the future does not abort the pending requests
+	 * 
+	 * @param urls
+	 *            the urls to be crawled
+	 * @return the pending crawling results, network problems complete the
+	 *         future exceptionally
+	 */
+	public default CompletableFuture<CrawlingResults> crawlAsync(Collection<String> urls) {
+		AsyncResultFuture<CrawlingResults> future = new AsyncResultFuture<>();
+		try {
+			crawlAsync(urls, future.handler());
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * set the maximal allowed request time for a single http resource (in ms)
+	 * 
+	 * @param requestTimeout
+	 *            maximal allowed request time for a single http resource (in
+	 *            ms)
+	 * @return this {@link Crawler} instance
+	 */
+	public Crawler requestTimeout(long requestTimeout);
+
+	/**
+	 * get the maximal allowed request time for a single http resource (in ms)
+	 * 
+	 * @return maximal allowed request time for a single http resource (in ms)
+	 */
+	public long requestTimeout();
+
+	/**
+	 * set the maximal content length stored per resource, longer contents are
+	 * truncated (see {@link CrawlingResults#isTruncated(String)})
+	 * 
+	 * @param maxContentLength
+	 *            the maximal content length (in bytes, or characters if the
+	 *            backend only gets decoded contents)
+	 * @return this {@link Crawler} instance
+	 */
+	public Crawler maxContentLength(int maxContentLength);
+
+	/**
+	 * get the maximal content length stored per resource
+	 * 
+	 * @return the maximal content length (in bytes, or characters if the
+	 *         backend only gets decoded contents)
+	 */
+	public int maxContentLength();
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close();
+}
@@ -0,0 +1,538 @@
+package de.hpi.fgis.crawler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+
+import de.hpi.fgis.concurrency.AsyncResultHandler;
+import de.hpi.fgis.yql.YQLCrawler.CrawlingResults;
+
+/**
+ * this class fetches the contents of a specified list of urls directly (w/o
+ * the YQL API and its rate limits) using an {@link AsyncHttpClient}<br/>
+ * redirects are followed manually, such that the redirect chain of every url is
+ * tracked the same way the YQL data.headers table does (every url of the chain
+ * is mapped to the final url), contents are only downloaded for the accepted
+ * content type (default "text/html")<br/>
+ * all requests (including redirects) pass a {@link PolitenessFrontier}, such
+ * that every host is contacted with a bounded rate and concurrency<br/>
+ * compressed transfers are negotiated (gzip/deflate), contents are truncated
+ * while streaming as soon as they exceed the maximal content length (or the
+ * byte budget of their batch is used up)
+ *
+ * @author tongr
+ *
+ */
+public class DirectCrawler implements Crawler {
+	private static final Logger LOG = Logger.getLogger(DirectCrawler.class.getName());
+	private static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (compatible; MSIE 6.0; Windows NT 5.1)";
+	private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+	/**
+	 * the name used to find applying robots.txt rules
+	 */
+	public static final String ROBOTS_AGENT = "TwitCrawl";
+
+	private final AsyncHttpClient client;
+	private final PolitenessFrontier<PendingRequest> frontier;
+	private long requestTimeout = 5000;
+	private int maxRedirects = 10;
+	private String contentType = "text/html";
+	private int maxContentLength = 1024 * 1024;
+	private long maxBatchBytes = 64L * 1024 * 1024;
+
+	/**
+	 * creates a new crawler using the default user agent
+	 */
+	public DirectCrawler() {
+		this(DEFAULT_USER_AGENT);
+	}
+
+	/**
+	 * creates a new crawler
+	 *
+	 * @param userAgent
+	 *            the user agent string sent with every request
+	 */
+	public DirectCrawler(String userAgent) {
+		this(new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+				.setFollowRedirects(false)
+				.setCompressionEnabled(true)
+				.setUserAgent(userAgent)
+				.build()), 1000, 2, true);
+	}
+
+	/**
+	 * creates a new crawler using the specified client (the client has to be
+	 * configured not to follow redirects and should have compression enabled,
+	 * it is closed with this crawler)
+	 *
+	 * @param client
+	 *            the http client
+	 * @param politenessDelay
+	 *            the minimal delay between the start of two requests to the
+	 *            same host (in ms)
+	 * @param maxRequestsPerHost
+	 *            the maximal number of concurrent requests per host
+	 * @param obeyRobotsTxt
+	 *            if <code>true</code>, urls disallowed by robots.txt files are
+	 *            skipped and their crawl delays are respected
+	 */
+	public DirectCrawler(AsyncHttpClient client, long politenessDelay, int maxRequestsPerHost, boolean obeyRobotsTxt) {
+		this.client = client;
+		RobotsTxtCache robots = obeyRobotsTxt ? new RobotsTxtCache(client, ROBOTS_AGENT, 24L * 60 * 60 * 1000, 100000) : null;
+		this.frontier = new PolitenessFrontier<>(new PolitenessFrontier.Dispatcher<PendingRequest>() {
+			@Override
+			public void dispatch(String url, PendingRequest request) {
+				execute(url, request.chain, request.batch);
+			}
+
+			@Override
+			public void reject(String url, PendingRequest request) {
+				LOG.fine("Skipping " + url);
+				request.batch.skipped();
+			}
+		}, politenessDelay, maxRequestsPerHost, robots);
+	}
+
+	/**
+	 * crawls the specified urls and waits for the results
+	 *
+	 * @param urls
+	 *            the urls to be crawled
+	 * @return the crawling results
+	 * @throws IOException
+	 *             if none of the urls could be fetched
+	 */
+	public CrawlingResults crawl(Collection<String> urls) throws IOException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final CrawlingResults[] results = new CrawlingResults[1];
+		final Throwable[] error = new Throwable[1];
+		crawlAsync(urls, new AsyncResultHandler<CrawlingResults>() {
+			@Override
+			public void onCompleted(CrawlingResults data) {
+				results[0] = data;
+				done.countDown();
+			}
+
+			@Override
+			public void onThrowable(Throwable t) {
+				error[0] = t;
+				done.countDown();
+			}
+		});
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while crawling", e);
+		}
+		if (error[0] != null) {
+			throw error[0] instanceof IOException ? (IOException) error[0] : new IOException(error[0]);
+		}
+		return results[0];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.crawler.Crawler#crawlAsync(java.util.Collection, de.hpi.fgis.concurrency.AsyncResultHandler)
+	 */
+	@Override
+	public void crawlAsync(Collection<String> urls, AsyncResultHandler<CrawlingResults> asyncResultHandler) throws IOException {
+		if (urls == null || urls.size() <= 0) {
+			asyncResultHandler.onCompleted(new CrawlingResults());
+			return;
+		}
+		Set<String> distinctUrls = new LinkedHashSet<>(urls);
+		Batch batch = new Batch(distinctUrls.size(), asyncResultHandler);
+		for (String url : distinctUrls) {
+			fetch(url, new ArrayList<String>(), batch);
+		}
+	}
+
+	/**
+	 * gets the number of urls waiting for their host to become available
+	 *
+	 * @return the number of queued urls
+	 */
+	public int queuedUrls() {
+		return frontier.size();
+	}
+
+	/**
+	 * set the maximal number of redirects followed per url
+	 *
+	 * @param maxRedirects
+	 *            the maximal number of redirects
+	 * @return this {@link DirectCrawler} instance
+	 */
+	public DirectCrawler maxRedirects(int maxRedirects) {
+		this.maxRedirects = maxRedirects;
+		return this;
+	}
+
+	/**
+	 * set the content type of the resources to be downloaded (resources of
+	 * other types are only represented by their headers)
+	 *
+	 * @param contentType
+	 *            the accepted content type (i.e., "text/html")
+	 * @return this {@link DirectCrawler} instance
+	 */
+	public DirectCrawler contentType(String contentType) {
+		this.contentType = contentType;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.crawler.Crawler#maxContentLength(int)
+	 */
+	@Override
+	public DirectCrawler maxContentLength(int maxContentLength) {
+		this.maxContentLength = maxContentLength;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.crawler.Crawler#maxContentLength()
+	 */
+	@Override
+	public int maxContentLength() {
+		return maxContentLength;
+	}
+
+	/**
+	 * set the maximal number of content bytes downloaded per
+	 * {@link #crawlAsync(Collection, AsyncResultHandler)} call, the contents
+	 * of the remaining resources are truncated as soon as the budget is used
+	 * up
+	 *
+	 * @param maxBatchBytes
+	 *            the byte budget per batch
+	 * @return this {@link DirectCrawler} instance
+	 */
+	public DirectCrawler maxBatchBytes(long maxBatchBytes) {
+		this.maxBatchBytes = maxBatchBytes;
+		return this;
+	}
+
+	/**
+	 * get the maximal number of content bytes downloaded per batch
+	 *
+	 * @return the byte budget per batch
+	 */
+	public long maxBatchBytes() {
+		return maxBatchBytes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.crawler.Crawler#requestTimeout(long)
+	 */
+	@Override
+	public DirectCrawler requestTimeout(long requestTimeout) {
+		this.requestTimeout = requestTimeout;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.crawler.Crawler#requestTimeout()
+	 */
+	@Override
+	public long requestTimeout() {
+		return requestTimeout;
+	}
+
+	private void fetch(String url, List<String> chain, Batch batch) {
+		frontier.add(url, new PendingRequest(chain, batch));
+	}
+
+	private void execute(String url, List<String> chain, Batch batch) {
+		try {
+			withTimeout(client.prepareGet(url))
+				.addHeader("Accept", contentType + ",*/*;q=0.1")
+				.execute(new PageHandler(url, chain, batch));
+		} catch (IOException | IllegalArgumentException e) {
+			LOG.log(Level.FINE, "Unable to request " + url, e);
+			frontier.release(url);
+			batch.failed(e);
+		}
+	}
+
+	// PerRequestConfig is deprecated, but async-http-client 1.7 has no other per-request timeout
+	// (referenced by its qualified name, the suppression does not cover imports)
+	@SuppressWarnings("deprecation")
+	private BoundRequestBuilder withTimeout(BoundRequestBuilder request) {
+		com.ning.http.client.PerRequestConfig requestConfig = new com.ning.http.client.PerRequestConfig();
+		requestConfig.setRequestTimeoutInMs((int) requestTimeout);
+		return request.setPerRequestConfig(requestConfig);
+	}
+
+	private boolean isRedirect(int status) {
+		return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+	}
+
+	private boolean isAccepted(String responseContentType) {
+		return contentType == null || responseContentType == null || responseContentType.toLowerCase().contains(contentType);
+	}
+
+	private static Charset charset(String responseContentType) {
+		if (responseContentType != null) {
+			int pos = responseContentType.toLowerCase().indexOf("charset=");
+			if (pos >= 0) {
+				String name = responseContentType.substring(pos + 8).replaceAll("[\"';].*$", "").trim();
+				try {
+					return Charset.forName(name);
+				} catch (IllegalArgumentException e) {
+					// unknown charset
+				}
+			}
+		}
+		return DEFAULT_CHARSET;
+	}
+
+	/**
+	 * the crawling state of one {@link DirectCrawler#crawlAsync(Collection, AsyncResultHandler)} call
+	 */
+	private static class Batch {
+		private final Map<String, Map<String, String>> headers = new ConcurrentHashMap<>();
+		private final Map<String, String> contents = new ConcurrentHashMap<>();
+		private final Map<String, String> redirects = new ConcurrentHashMap<>();
+		private final Set<String> truncated = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicInteger pending;
+		private final AtomicInteger failures = new AtomicInteger();
+		private final int size;
+		private final AsyncResultHandler<CrawlingResults> handler;
+		private volatile Throwable lastFailure;
+
+		Batch(int size, AsyncResultHandler<CrawlingResults> handler) {
+			this.size = size;
+			this.pending = new AtomicInteger(size);
+			this.handler = handler;
+		}
+
+		/**
+		 * accounts the received bytes
+		 *
+		 * @return the number of bytes received for this batch so far
+		 */
+		long received(int length) {
+			return bytes.addAndGet(length);
+		}
+
+		void completed(String url, List<String> chain, Map<String, String> header, String content, boolean isTruncated) {
+			for (String from : chain) {
+				redirects.put(from, url);
+			}
+			if (!chain.isEmpty()) {
+				redirects.put(url, url);
+			}
+			if (header.size() > 0) {
+				headers.put(url, header);
+			}
+			if (content != null && !content.isEmpty()) {
+				contents.put(url, content);
+				if (isTruncated) {
+					truncated.add(url);
+				}
+			}
+			finish();
+		}
+
+		void skipped() {
+			finish();
+		}
+
+		void failed(Throwable t) {
+			lastFailure = t;
+			failures.incrementAndGet();
+			finish();
+		}
+
+		private void finish() {
+			if (pending.decrementAndGet() == 0) {
+				if (failures.get() == size) {
+					handler.onThrowable(new IOException("Unable to fetch any of " + size + " urls", lastFailure));
+				} else {
+					handler.onCompleted(new CrawlingResults(headers, contents, redirects, truncated, bytes.get()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * a request waiting in the frontier
+	 */
+	private static class PendingRequest {
+		private final List<String> chain;
+		private final Batch batch;
+
+		PendingRequest(List<String> chain, Batch batch) {
+			this.chain = chain;
+			this.batch = batch;
+		}
+	}
+
+	/**
+	 * handles the response of a single http request (follows redirects, skips
+	 * the contents of unaccepted types)
+	 */
+	private class PageHandler implements AsyncHandler<Void> {
+		private final String url;
+		private final List<String> chain;
+		private final Batch batch;
+		private final AtomicBoolean handled = new AtomicBoolean(false);
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private int status = -1;
+		private boolean truncated = false;
+		private FluentCaseInsensitiveStringsMap responseHeaders;
+
+		PageHandler(String url, List<String> chain, Batch batch) {
+			this.url = url;
+			this.chain = chain;
+			this.batch = batch;
+		}
+
+		@Override
+		public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+			status = responseStatus.getStatusCode();
+			return STATE.CONTINUE;
+		}
+
+		@Override
+		public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+			responseHeaders = headers.getHeaders();
+			String location = responseHeaders.getFirstValue("Location");
+			if (isRedirect(status) && location != null && chain.size() < maxRedirects) {
+				String target = null;
+				try {
+					target = URI.create(url).resolve(location.trim()).toString();
+				} catch (IllegalArgumentException e) {
+					LOG.log(Level.FINE, "Illegal redirect location of " + url + ": " + location, e);
+				}
+				if (target != null && !target.equals(url) && !chain.contains(target) && handled.compareAndSet(false, true)) {
+					List<String> nextChain = new ArrayList<>(chain);
+					nextChain.add(url);
+					frontier.release(url);
+					fetch(target, nextChain, batch);
+					return STATE.ABORT;
+				}
+			}
+			if (!isAccepted(responseHeaders.getFirstValue("Content-Type"))) {
+				// skip the content of other resource types
+				complete(false);
+				return STATE.ABORT;
+			}
+			return STATE.CONTINUE;
+		}
+
+		@Override
+		public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+			byte[] part = bodyPart.getBodyPartBytes();
+			int length = Math.min(part.length, maxContentLength - body.size());
+			boolean budgetExceeded = batch.received(part.length) > maxBatchBytes;
+			if (length < part.length || budgetExceeded) {
+				// keep the prefix and stop the transfer
+				body.write(part, 0, Math.max(0, length));
+				truncated = true;
+				complete(true);
+				return STATE.ABORT;
+			}
+			body.write(part, 0, length);
+			return STATE.CONTINUE;
+		}
+
+		@Override
+		public Void onCompleted() throws Exception {
+			complete(true);
+			return null;
+		}
+
+		@Override
+		public void onThrowable(Throwable t) {
+			if (handled.compareAndSet(false, true)) {
+				LOG.log(Level.FINE, "Unable to fetch " + url, t);
+				frontier.release(url);
+				batch.failed(t);
+			}
+		}
+
+		private void complete(boolean withContent) {
+			if (!handled.compareAndSet(false, true)) {
+				return;
+			}
+			frontier.release(url);
+			HashMap<String, String> header = new HashMap<>();
+			String responseContentType = null;
+			if (responseHeaders != null) {
+				for (Entry<String, List<String>> e : responseHeaders) {
+					if (e.getKey() != null && e.getValue() != null && !e.getValue().isEmpty()) {
+						header.put(e.getKey().toLowerCase(), join(e.getValue()));
+					}
+				}
+				responseContentType = responseHeaders.getFirstValue("Content-Type");
+			}
+			if (status >= 0) {
+				header.put("status", Integer.toString(status));
+			}
+			String content = null;
+			if (withContent && body.size() > 0) {
+				content = new String(body.toByteArray(), charset(responseContentType));
+			}
+			batch.completed(url, chain, header, content, truncated);
+		}
+
+		private String join(List<String> values) {
+			if (values.size() == 1) {
+				return values.get(0);
+			}
+			StringBuilder joined = new StringBuilder();
+			for (String value : values) {
+				if (joined.length() > 0) {
+					joined.append(", ");
+				}
+				joined.append(value);
+			}
+			return joined.toString();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.crawler.Crawler#close()
+	 */
+	@Override
+	public void close() {
+		frontier.close();
+		client.close();
+	}
+}
@@ -0,0 +1,361 @@
+package de.hpi.fgis.crawler;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * a Mercator-style url frontier that keeps a FIFO back queue per host and
+ * hands the urls to a {@link Dispatcher} as soon as their host may be
+ * contacted again: the hosts are ordered by their next allowed fetch time
+ * (heap), every host is contacted at most once per politeness delay (or the
+ * crawl delay of its robots.txt) and by at most maxPerHost concurrent
+ * requests, urls disallowed by robots.txt are rejected.<br/>
+ * Every dispatched url has to be released (see
+ * {@link PolitenessFrontier#release(String)}) as soon as its request finished.
+ *
+ * @author tongr
+ *
+ * @param <T>
+ *            the type of the items attached to the urls
+ */
+public class PolitenessFrontier<T> implements Closeable {
+	private static final Logger LOG = Logger.getLogger(PolitenessFrontier.class.getName());
+	private static final long CLEANUP_INTERVAL = 10000;
+
+	/**
+	 * gets informed about urls that may be fetched now or have to be skipped
+	 *
+	 * @author tongr
+	 *
+	 * @param <T>
+	 *            the type of the items attached to the urls
+	 */
+	public static interface Dispatcher<T> {
+		/**
+		 * the url may be fetched now (the frontier has to be informed via
+		 * {@link PolitenessFrontier#release(String)} after the request
+		 * finished)
+		 *
+		 * @param url
+		 *            the url to be fetched
+		 * @param item
+		 *            the item attached to the url
+		 */
+		public void dispatch(String url, T item);
+
+		/**
+		 * the url must not be fetched (i.e., disallowed by robots.txt or
+		 * illegal)
+		 *
+		 * @param url
+		 *            the url
+		 * @param item
+		 *            the item attached to the url
+		 */
+		public void reject(String url, T item);
+	}
+
+	private final Dispatcher<T> dispatcher;
+	private final long delay;
+	private final int maxPerHost;
+	private final RobotsTxtCache robots;
+
+	private final Map<String, HostQueue> hosts = new HashMap<>();
+	private final PriorityQueue<HostQueue> ready = new PriorityQueue<>();
+	private final Thread worker;
+	private int size = 0;
+	private long lastCleanup = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * creates a new frontier
+	 *
+	 * @param dispatcher
+	 *            the dispatcher to hand the urls to
+	 * @param delay
+	 *            the minimal delay between the start of two requests to the
+	 *            same host (in ms)
+	 * @param maxPerHost
+	 *            the maximal number of concurrent requests per host
+	 * @param robots
+	 *            the robots.txt cache (or <code>null</code> to ignore
+	 *            robots.txt files)
+	 */
+	public PolitenessFrontier(Dispatcher<T> dispatcher, long delay, int maxPerHost, RobotsTxtCache robots) {
+		if (maxPerHost <= 0) {
+			throw new IllegalArgumentException("At least one request per host has to be allowed");
+		}
+		this.dispatcher = dispatcher;
+		this.delay = delay;
+		this.maxPerHost = maxPerHost;
+		this.robots = robots;
+		this.worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchLoop();
+			}
+		}, "PolitenessFrontier");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * adds another url to the back queue of its host
+	 *
+	 * @param url
+	 *            the url to be fetched
+	 * @param item
+	 *            the item attached to the url
+	 */
+	public void add(String url, T item) {
+		String host = hostOf(url);
+		if (host == null) {
+			dispatcher.reject(url, item);
+			return;
+		}
+		synchronized (this) {
+			HostQueue queue = hosts.get(host);
+			if (queue == null) {
+				queue = new HostQueue(host);
+				hosts.put(host, queue);
+			}
+			queue.urls.add(new Entry<>(url, item));
+			size++;
+			schedule(queue);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * informs the frontier that the request of the specified (dispatched) url
+	 * finished
+	 *
+	 * @param url
+	 *            the dispatched url
+	 */
+	public void release(String url) {
+		String host = hostOf(url);
+		synchronized (this) {
+			HostQueue queue = hosts.get(host);
+			if (queue == null || queue.active <= 0) {
+				LOG.warning("Releasing url that has not been dispatched: " + url);
+				return;
+			}
+			queue.active--;
+			schedule(queue);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * gets the number of urls waiting to be dispatched
+	 *
+	 * @return the number of queued urls
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * gets the number of known hosts (hosts w/ queued or active urls and
+	 * hosts contacted within the last politeness delay)
+	 *
+	 * @return the number of hosts
+	 */
+	public synchronized int hosts() {
+		return hosts.size();
+	}
+
+	/**
+	 * adds the host to the heap iff it has urls that may be dispatched
+	 */
+	private void schedule(HostQueue queue) {
+		if (!queue.scheduled && !queue.waitingForRobots && !queue.urls.isEmpty() && queue.active < maxPerHost) {
+			queue.scheduled = true;
+			ready.add(queue);
+		}
+	}
+
+	private void dispatchLoop() {
+		while (!closed) {
+			List<Entry<T>> rejected = new ArrayList<>();
+			Entry<T> next = null;
+			synchronized (this) {
+				while (!closed && next == null) {
+					HostQueue queue = ready.peek();
+					long now = now();
+					if (queue == null || queue.nextAllowed > now) {
+						if (!rejected.isEmpty()) {
+							break;
+						}
+						if (now - lastCleanup > CLEANUP_INTERVAL) {
+							cleanup(now);
+						}
+						try {
+							wait(queue == null ? 0 : queue.nextAllowed - now);
+						} catch (InterruptedException e) {
+							return;
+						}
+						continue;
+					}
+					ready.poll();
+					queue.scheduled = false;
+
+					RobotsRules rules = RobotsRules.ALLOW_ALL;
+					if (robots != null) {
+						final HostQueue waiting = queue;
+						queue.waitingForRobots = true;
+						rules = robots.get(queue.host, new Runnable() {
+							@Override
+							public void run() {
+								robotsLoaded(waiting);
+							}
+						});
+						if (rules == null) {
+							// the host is scheduled again as soon as the rules are available
+							continue;
+						}
+						queue.waitingForRobots = false;
+						if (queue.scheduled) {
+							// the rules have been loaded synchronously
+							ready.remove(queue);
+							queue.scheduled = false;
+						}
+					}
+
+					Entry<T> entry = queue.urls.poll();
+					size--;
+					if (rules.isAllowed(pathOf(entry.url))) {
+						queue.active++;
+						queue.nextAllowed = now + Math.max(delay, rules.crawlDelay());
+						next = entry;
+					} else {
+						rejected.add(entry);
+					}
+					schedule(queue);
+				}
+			}
+			for (Entry<T> entry : rejected) {
+				dispatcher.reject(entry.url, entry.item);
+			}
+			if (next != null) {
+				try {
+					dispatcher.dispatch(next.url, next.item);
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Unable to dispatch " + next.url, e);
+					release(next.url);
+				}
+			}
+		}
+	}
+
+	/**
+	 * gets the current time, the dispatch of an url is decided by the last
+	 * call before {@link Dispatcher#dispatch(String, Object)}
+	 *
+	 * @return the current time (in ms)
+	 */
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * removes idle hosts that may be contacted again (the politeness state
+	 * of recently contacted hosts has to be kept)
+	 */
+	private void cleanup(long now) {
+		Iterator<HostQueue> it = hosts.values().iterator();
+		while (it.hasNext()) {
+			HostQueue queue = it.next();
+			if (queue.active == 0 && queue.urls.isEmpty() && !queue.waitingForRobots && queue.nextAllowed <= now) {
+				it.remove();
+			}
+		}
+		lastCleanup = now;
+	}
+
+	private void robotsLoaded(HostQueue queue) {
+		synchronized (this) {
+			queue.waitingForRobots = false;
+			if (hosts.get(queue.host) == queue) {
+				schedule(queue);
+			}
+			notifyAll();
+		}
+	}
+
+	private static String hostOf(String url) {
+		try {
+			URI uri = URI.create(url);
+			if (uri.getScheme() == null || uri.getHost() == null) {
+				return null;
+			}
+			String host = uri.getScheme().toLowerCase() + "://" + uri.getHost().toLowerCase();
+			return uri.getPort() >= 0 ? host + ":" + uri.getPort() : host;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static String pathOf(String url) {
+		URI uri = URI.create(url);
+		String path = uri.getRawPath();
+		if (path == null || path.isEmpty()) {
+			path = "/";
+		}
+		return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	private static class Entry<T> {
+		private final String url;
+		private final T item;
+
+		Entry(String url, T item) {
+			this.url = url;
+			this.item = item;
+		}
+	}
+
+	/**
+	 * the back queue of a single host
+	 */
+	private class HostQueue implements Comparable<HostQueue> {
+		private final String host;
+		private final Queue<Entry<T>> urls = new ArrayDeque<>();
+		private long nextAllowed = 0;
+		private int active = 0;
+		private boolean scheduled = false;
+		private boolean waitingForRobots = false;
+
+		HostQueue(String host) {
+			this.host = host;
+		}
+
+		@Override
+		public int compareTo(HostQueue o) {
+			return Long.compare(nextAllowed, o.nextAllowed);
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package de.hpi.fgis.crawler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.facet.collections.LRUHashMap;
+
+/**
+ * schedules the retries of failed items (i.e., unresolved urls): every key
+ * (i.e., the fingerprint of an url) has an attempt counter, the retries are
+ * delayed by an exponential backoff with jitter and a key is given up as soon
+ * as it reaches the maximal number of attempts<br/>
+ * attempts are counted when a key is actually requested (see
+ * {@link #attempted(long)}), such that several items sharing a key (i.e.,
+ * tweets w/ the same url) do not exhaust its attempts at once<br/>
+ * the attempts and the due time of the latest retry of a key can be restored
+ * (i.e., after a restart, see {@link #restore(long, int, long)}), items whose
+ * key is still backing off are deferred until it is due (see
+ * {@link #defer(long, Object)})
+ *
+ * @author tongr
+ *
+ * @param <T>
+ *            the type of the items to be retried
+ */
+public class RetryScheduler<T> {
+	private final DelayQueue<Retry> queue = new DelayQueue<>();
+	private final LRUHashMap<Long, Integer> attempts;
+	private final LRUHashMap<Long, Long> dues;
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private double jitter = 0.5;
+
+	private long retries = 0;
+	private long givenUp = 0;
+	private final Map<String, Long> reasons = new HashMap<>();
+
+	/**
+	 * creates a new scheduler
+	 *
+	 * @param maxAttempts
+	 *            the maximal number of attempts per key (including the first
+	 *            one)
+	 * @param baseDelay
+	 *            the delay of the first retry (in ms), every further retry
+	 *            doubles the delay
+	 * @param maxDelay
+	 *            the maximal delay of a retry (in ms)
+	 * @param maxKeys
+	 *            the maximal number of attempt counters (and due times) kept
+	 *            (least recently used ones are dropped)
+	 */
+	public RetryScheduler(int maxAttempts, long baseDelay, long maxDelay, int maxKeys) {
+		if (maxAttempts <= 0 || baseDelay < 0 || maxDelay < baseDelay) {
+			throw new IllegalArgumentException("Illegal retry configuration (maxAttempts=" + maxAttempts + ", baseDelay=" + baseDelay + ", maxDelay=" + maxDelay + ")");
+		}
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.attempts = new LRUHashMap<>(maxKeys);
+		this.dues = new LRUHashMap<>(maxKeys);
+	}
+
+	/**
+	 * set the share of the backoff delay that is randomized (0 for fixed
+	 * delays, 1 for delays drawn from [0, backoff])
+	 *
+	 * @param jitter
+	 *            the randomized share (between 0 and 1)
+	 * @return this {@link RetryScheduler} instance
+	 */
+	public synchronized RetryScheduler<T> jitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("The jitter has to be in [0,1]: " + jitter);
+		}
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * counts another attempt of the specified key (i.e., the url has been
+	 * requested)
+	 *
+	 * @param key
+	 *            the key
+	 */
+	public synchronized void attempted(long key) {
+		Integer count = attempts.get(key);
+		attempts.put(key, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * gets the number of attempts of the specified key
+	 *
+	 * @param key
+	 *            the key
+	 * @return the number of attempts
+	 */
+	public synchronized int attempts(long key) {
+		Integer count = attempts.get(key);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * gets the time the latest retry of the specified key is due
+	 *
+	 * @param key
+	 *            the key
+	 * @return the due time (in ms), 0 if the key has not been retried
+	 */
+	public synchronized long due(long key) {
+		Long due = dues.get(key);
+		return due == null ? 0 : due;
+	}
+
+	/**
+	 * restores the attempts and the due time of the latest retry of the
+	 * specified key (i.e., persisted by a previous run)
+	 *
+	 * @param key
+	 *            the key
+	 * @param attempts
+	 *            the number of attempts
+	 * @param due
+	 *            the due time of the latest retry (in ms)
+	 */
+	public synchronized void restore(long key, int attempts, long due) {
+		this.attempts.put(key, attempts);
+		this.dues.put(key, due);
+	}
+
+	/**
+	 * forgets the attempts of the specified key (i.e., it succeeded)
+	 *
+	 * @param key
+	 *            the key
+	 * @return <code>true</code> if the key had been retried
+	 */
+	public synchronized boolean succeeded(long key) {
+		attempts.remove(key);
+		return dues.remove(key) != null;
+	}
+
+	/**
+	 * delays the specified item until the latest retry of its key is due (no
+	 * attempt is counted)
+	 *
+	 * @param key
+	 *            the key of the item
+	 * @param item
+	 *            the item to be delayed
+	 * @return <code>false</code> if the key is not backing off (the item may
+	 *         be requested right away)
+	 */
+	public boolean defer(long key, T item) {
+		long due = due(key);
+		if (due <= now()) {
+			return false;
+		}
+		queue.add(new Retry(item, due));
+		return true;
+	}
+
+	/**
+	 * schedules a retry of the specified item if its key has attempts left
+	 *
+	 * @param key
+	 *            the key of the item
+	 * @param item
+	 *            the item to be retried
+	 * @param reason
+	 *            the reason of the failure
+	 * @return <code>false</code> if the key reached the maximal number of
+	 *         attempts (the item is given up)
+	 */
+	public boolean retry(long key, T item, String reason) {
+		long due;
+		synchronized (this) {
+			Long count = reasons.get(reason);
+			reasons.put(reason, count == null ? 1 : count + 1);
+			int attempt = attempts(key);
+			if (attempt >= maxAttempts) {
+				givenUp++;
+				dues.remove(key);
+				return false;
+			}
+			retries++;
+			due = now() + backoff(attempt);
+			dues.put(key, due);
+		}
+		queue.add(new Retry(item, due));
+		return true;
+	}
+
+	/**
+	 * gets the current time, the retry delays are measured by this clock
+	 *
+	 * @return the current time (in ms)
+	 */
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * the backoff delay after the specified number of attempts
+	 */
+	private long backoff(int attempt) {
+		long delay = baseDelay;
+		for (int i = 1; i < attempt && delay < maxDelay; i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, maxDelay);
+		long random = (long) (jitter * delay);
+		return delay - random + (random > 0 ? ThreadLocalRandom.current().nextLong(random + 1) : 0);
+	}
+
+	/**
+	 * gets the items whose retry delay expired
+	 *
+	 * @param maxItems
+	 *            the maximal number of returned items
+	 * @return the items to be retried now
+	 */
+	public List<T> poll(int maxItems) {
+		List<T> items = new ArrayList<>();
+		Retry retry;
+		while (items.size() < maxItems && (retry = queue.poll()) != null) {
+			items.add(retry.item);
+		}
+		return items;
+	}
+
+	/**
+	 * gets the number of scheduled retries (including the ones not due yet)
+	 *
+	 * @return the number of scheduled retries
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * gets the number of scheduled retries whose delay expired
+	 *
+	 * @return the number of due retries
+	 */
+	public int due() {
+		int due = 0;
+		for (Retry retry : queue) {
+			if (retry.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+				due++;
+			}
+		}
+		return due;
+	}
+
+	/**
+	 * gets the number of scheduled retries so far
+	 *
+	 * @return the number of retries
+	 */
+	public synchronized long retries() {
+		return retries;
+	}
+
+	/**
+	 * gets the number of items given up so far
+	 *
+	 * @return the number of given up items
+	 */
+	public synchronized long givenUp() {
+		return givenUp;
+	}
+
+	/**
+	 * gets the number of failures per reason
+	 *
+	 * @return the failure counts by reason
+	 */
+	public synchronized Map<String, Long> reasons() {
+		return new HashMap<>(reasons);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d retries scheduled (%d pending), %d given up, reasons %s", retries, queue.size(), givenUp, reasons);
+	}
+
+	private class Retry implements Delayed {
+		private final T item;
+		private final long due;
+
+		Retry(T item, long due) {
+			this.item = item;
+			this.due = due;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - now(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+		}
+	}
+}
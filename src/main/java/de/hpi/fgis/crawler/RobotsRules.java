@@ -0,0 +1,180 @@
+package de.hpi.fgis.crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * the rules of a robots.txt file that apply to a specific user agent (see <a
+ * href="http://www.robotstxt.org/">http://www.robotstxt.org/</a>), the longest
+ * matching allow/disallow rule wins, wildcards ('*') and end anchors ('$') are
+ * supported
+ *
+ * @author tongr
+ *
+ */
+public class RobotsRules {
+	/**
+	 * rules that allow everything (i.e., if no robots.txt is available)
+	 */
+	public static final RobotsRules ALLOW_ALL = new RobotsRules(new ArrayList<Rule>(), 0);
+
+	private final List<Rule> rules;
+	private final long crawlDelay;
+
+	private RobotsRules(List<Rule> rules, long crawlDelay) {
+		this.rules = rules;
+		this.crawlDelay = crawlDelay;
+	}
+
+	/**
+	 * parses the rules of the specified robots.txt content that apply to the
+	 * user agent (or the rules for all agents, '*', if there are no specific
+	 * ones)
+	 *
+	 * @param robotsTxt
+	 *            the content of the robots.txt file
+	 * @param agent
+	 *            the name of the user agent (i.e., "twitcrawl")
+	 * @return the applying rules
+	 */
+	public static RobotsRules parse(String robotsTxt, String agent) {
+		if (robotsTxt == null) {
+			return ALLOW_ALL;
+		}
+		agent = agent == null ? "" : agent.toLowerCase();
+
+		List<Rule> specificRules = null, defaultRules = null, currentRules = null;
+		long specificDelay = 0, defaultDelay = 0;
+		boolean specific = false, common = false, inAgentLines = false;
+
+		for (String line : robotsTxt.split("\r\n|\r|\n")) {
+			int comment = line.indexOf('#');
+			if (comment >= 0) {
+				line = line.substring(0, comment);
+			}
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String field = line.substring(0, colon).trim().toLowerCase();
+			String value = line.substring(colon + 1).trim();
+
+			if ("user-agent".equals(field)) {
+				if (!inAgentLines) {
+					// a new group starts
+					specific = common = false;
+					currentRules = new ArrayList<>();
+					inAgentLines = true;
+				}
+				String name = value.toLowerCase();
+				if ("*".equals(name)) {
+					common = true;
+					if (defaultRules == null) {
+						defaultRules = currentRules;
+					}
+				} else if (!name.isEmpty() && agent.contains(name)) {
+					specific = true;
+					if (specificRules == null) {
+						specificRules = currentRules;
+					}
+				}
+				continue;
+			}
+			inAgentLines = false;
+			if (currentRules == null || !(specific || common)) {
+				continue;
+			}
+			if ("disallow".equals(field) || "allow".equals(field)) {
+				// an empty disallow rule allows everything
+				if (!value.isEmpty()) {
+					currentRules.add(new Rule(value, "allow".equals(field)));
+				}
+			} else if ("crawl-delay".equals(field)) {
+				try {
+					long delay = (long) (Double.parseDouble(value) * 1000);
+					if (specific) {
+						specificDelay = delay;
+					}
+					if (common) {
+						defaultDelay = delay;
+					}
+				} catch (NumberFormatException e) {
+					// ignore illegal values
+				}
+			}
+		}
+		if (specificRules != null) {
+			return new RobotsRules(specificRules, specificDelay);
+		}
+		if (defaultRules != null) {
+			return new RobotsRules(defaultRules, defaultDelay);
+		}
+		return ALLOW_ALL;
+	}
+
+	/**
+	 * checks whether the specified path may be crawled
+	 *
+	 * @param path
+	 *            the path (including the query) of the url
+	 * @return <code>true</code> if the path may be crawled
+	 */
+	public boolean isAllowed(String path) {
+		if (path == null || path.isEmpty()) {
+			path = "/";
+		}
+		Rule best = null;
+		for (Rule rule : rules) {
+			if (rule.matches(path) && (best == null || rule.length() > best.length() || (rule.length() == best.length() && rule.allow))) {
+				best = rule;
+			}
+		}
+		return best == null || best.allow;
+	}
+
+	/**
+	 * gets the requested delay between two requests (in ms)
+	 *
+	 * @return the crawl delay (in ms), 0 if not specified
+	 */
+	public long crawlDelay() {
+		return crawlDelay;
+	}
+
+	private static class Rule {
+		private final String path;
+		private final Pattern pattern;
+		private final boolean allow;
+
+		Rule(String path, boolean allow) {
+			this.path = path;
+			this.allow = allow;
+			if (path.indexOf('*') >= 0 || path.endsWith("$")) {
+				StringBuilder regex = new StringBuilder();
+				boolean anchored = path.endsWith("$");
+				String body = anchored ? path.substring(0, path.length() - 1) : path;
+				for (String part : body.split("\\*", -1)) {
+					if (regex.length() > 0) {
+						regex.append(".*");
+					}
+					regex.append(Pattern.quote(part));
+				}
+				if (!anchored) {
+					regex.append(".*");
+				}
+				pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+			} else {
+				pattern = null;
+			}
+		}
+
+		boolean matches(String target) {
+			return pattern == null ? target.startsWith(path) : pattern.matcher(target).matches();
+		}
+
+		int length() {
+			return path.length();
+		}
+	}
+}
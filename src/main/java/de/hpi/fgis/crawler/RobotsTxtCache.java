@@ -0,0 +1,148 @@
+package de.hpi.fgis.crawler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.facet.collections.LRUHashMap;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Response;
+
+/**
+ * caches the robots.txt rules of the most recently crawled hosts, missing
+ * rules are fetched asynchronously (unavailable robots.txt files allow
+ * everything)
+ *
+ * @author tongr
+ *
+ */
+public class RobotsTxtCache {
+	private static final Logger LOG = Logger.getLogger(RobotsTxtCache.class.getName());
+
+	private final AsyncHttpClient client;
+	private final String agent;
+	private final long ttl;
+	private final LRUHashMap<String, CachedRules> cache;
+	private final Map<String, List<Runnable>> loading = new HashMap<>();
+
+	/**
+	 * creates a new cache
+	 *
+	 * @param client
+	 *            the client used to fetch the robots.txt files
+	 * @param agent
+	 *            the name of the crawler (as used in the user-agent lines of
+	 *            robots.txt files)
+	 * @param ttl
+	 *            the time (in ms) the rules of a host are valid
+	 * @param maxHosts
+	 *            the maximal number of cached hosts
+	 */
+	public RobotsTxtCache(AsyncHttpClient client, String agent, long ttl, int maxHosts) {
+		this.client = client;
+		this.agent = agent;
+		this.ttl = ttl;
+		this.cache = new LRUHashMap<>(maxHosts);
+	}
+
+	/**
+	 * gets the rules of the specified host, if the rules are not available yet
+	 * they are fetched and the callback is informed as soon as the rules are
+	 * available
+	 *
+	 * @param host
+	 *            the host including scheme and port (i.e.,
+	 *            "http://www.example.com")
+	 * @param onLoaded
+	 *            is called when the missing rules are available
+	 * @return the rules of the host or <code>null</code> if they are not
+	 *         available yet
+	 */
+	public RobotsRules get(final String host, Runnable onLoaded) {
+		synchronized (this) {
+			CachedRules cached = cache.get(host);
+			if (cached != null && cached.expires > System.currentTimeMillis()) {
+				return cached.rules;
+			}
+			List<Runnable> callbacks = loading.get(host);
+			if (callbacks != null) {
+				callbacks.add(onLoaded);
+				return null;
+			}
+			callbacks = new ArrayList<>();
+			callbacks.add(onLoaded);
+			loading.put(host, callbacks);
+		}
+
+		try {
+			client.prepareGet(host + "/robots.txt").execute(new AsyncCompletionHandler<Void>() {
+				@Override
+				public Void onCompleted(Response response) throws Exception {
+					RobotsRules rules = RobotsRules.ALLOW_ALL;
+					if (response.getStatusCode() == 200) {
+						rules = RobotsRules.parse(response.getResponseBody("UTF-8"), agent);
+					}
+					loaded(host, rules);
+					return null;
+				}
+
+				@Override
+				public void onThrowable(Throwable t) {
+					LOG.log(Level.FINE, "Unable to fetch robots.txt of " + host, t);
+					loaded(host, RobotsRules.ALLOW_ALL);
+				}
+			});
+		} catch (IOException | IllegalArgumentException e) {
+			LOG.log(Level.FINE, "Unable to fetch robots.txt of " + host, e);
+			loaded(host, RobotsRules.ALLOW_ALL);
+		}
+		synchronized (this) {
+			// the rules might be available already
+			CachedRules cached = cache.get(host);
+			return cached == null ? null : cached.rules;
+		}
+	}
+
+	/**
+	 * sets the rules of the specified host
+	 *
+	 * @param host
+	 *            the host including scheme and port
+	 * @param rules
+	 *            the rules of the host
+	 */
+	public void put(String host, RobotsRules rules) {
+		synchronized (this) {
+			cache.put(host, new CachedRules(rules, System.currentTimeMillis() + ttl));
+		}
+	}
+
+	private void loaded(String host, RobotsRules rules) {
+		List<Runnable> callbacks;
+		synchronized (this) {
+			cache.put(host, new CachedRules(rules, System.currentTimeMillis() + ttl));
+			callbacks = loading.remove(host);
+		}
+		if (callbacks != null) {
+			for (Runnable callback : callbacks) {
+				callback.run();
+			}
+		}
+	}
+
+	private static class CachedRules {
+		private final RobotsRules rules;
+		private final long expires;
+
+		CachedRules(RobotsRules rules, long expires) {
+			this.rules = rules;
+			this.expires = expires;
+		}
+	}
+}
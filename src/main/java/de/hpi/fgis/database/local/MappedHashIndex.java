@@ -0,0 +1,506 @@
+package de.hpi.fgis.database.local;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.hpi.fgis.util.URLNormalizer;
+
+/**
+ * disk-backed hash index (64-bit fingerprint -> string value) that can be
+ * shared by several processes (JVMs) on the same host<br/>
+ * the values are stored in append-only segment files, the (open addressing)
+ * hash table pointing to the latest record of each fingerprint is a
+ * memory-mapped file. All processes synchronize their access via a file lock,
+ * overwritten records are removed by compaction. Fingerprints are typically
+ * computed via {@link URLNormalizer}.
+ *
+ * @author tongr
+ *
+ */
+public class MappedHashIndex implements Closeable {
+	private static final Logger LOG = Logger.getLogger(MappedHashIndex.class.getName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Map<String, MappedHashIndex> INSTANCES = new HashMap<>();
+
+	private static final int MAGIC = 0x54434958;
+	private static final int VERSION = 1;
+	// header layout
+	private static final int HEADER_SIZE = 64;
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_CAPACITY = 8;
+	private static final int H_SIZE = 12;
+	private static final int H_GENERATION = 16;
+	private static final int H_ACTIVE_SEGMENT = 24;
+	private static final int H_TOTAL_BYTES = 32;
+	private static final int H_GARBAGE_BYTES = 40;
+	// slot layout: fingerprint (8 bytes), location (8 bytes)
+	private static final int SLOT_SIZE = 16;
+	// record layout: fingerprint (8 bytes), value length (4 bytes), value
+	private static final int RECORD_HEADER_SIZE = 12;
+	private static final long EMPTY = 0L;
+	private static final double MAX_LOAD = 0.7;
+	private static final long MIN_COMPACTION_SIZE = 16 * 1024 * 1024;
+
+	private final File folder;
+	private final int initialCapacity;
+	private final long maxSegmentSize;
+	private final RandomAccessFile lockFile;
+	private final RandomAccessFile indexFile;
+	private final Map<Integer, RandomAccessFile> segments = new HashMap<>();
+	private MappedByteBuffer index;
+	private int capacity;
+	private long generation;
+	private boolean closed = false;
+
+	/**
+	 * gets the (shared) {@link MappedHashIndex} instance stored in the
+	 * specified folder, within one JVM all accessors of a folder have to use
+	 * the same instance
+	 *
+	 * @param folder
+	 *            the folder containing the index and segment files
+	 * @return the {@link MappedHashIndex} instance of the folder
+	 * @throws IOException
+	 *             if the index files cannot be opened
+	 */
+	public static synchronized MappedHashIndex getInstance(String folder) throws IOException {
+		String path = new File(folder).getCanonicalPath();
+		MappedHashIndex instance = INSTANCES.get(path);
+		if (instance == null) {
+			instance = new MappedHashIndex(new File(path), 1 << 16, 64L * 1024 * 1024);
+			INSTANCES.put(path, instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * creates a new index accessor
+	 *
+	 * @param folder
+	 *            the folder containing the index and segment files
+	 * @param initialCapacity
+	 *            the number of hash slots of a newly created index (rounded up
+	 *            to the next power of two)
+	 * @param maxSegmentSize
+	 *            the number of bytes after which a new segment file is started
+	 * @throws IOException
+	 *             if the index files cannot be opened
+	 */
+	protected MappedHashIndex(File folder, int initialCapacity, long maxSegmentSize) throws IOException {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Unable to create index folder " + folder);
+		}
+		this.folder = folder;
+		this.initialCapacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+		this.maxSegmentSize = maxSegmentSize;
+		this.lockFile = new RandomAccessFile(new File(folder, "index.lock"), "rw");
+		this.indexFile = new RandomAccessFile(new File(folder, "index.dat"), "rw");
+
+		FileLock lock = lockFile.getChannel().lock();
+		try {
+			if (indexFile.length() < HEADER_SIZE) {
+				// create a new index
+				indexFile.setLength(HEADER_SIZE + (long) this.initialCapacity * SLOT_SIZE);
+				map(this.initialCapacity);
+				index.putInt(H_MAGIC, MAGIC);
+				index.putInt(H_VERSION, VERSION);
+				index.putInt(H_CAPACITY, this.initialCapacity);
+				index.putInt(H_SIZE, 0);
+				index.putLong(H_GENERATION, 0);
+				index.putInt(H_ACTIVE_SEGMENT, 1);
+				index.putLong(H_TOTAL_BYTES, 0);
+				index.putLong(H_GARBAGE_BYTES, 0);
+			} else {
+				map(readCapacity());
+				if (index.getInt(H_MAGIC) != MAGIC || index.getInt(H_VERSION) != VERSION) {
+					throw new IOException("Illegal index file format: " + new File(folder, "index.dat"));
+				}
+			}
+			generation = index.getLong(H_GENERATION);
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * gets the value stored for the specified fingerprint
+	 *
+	 * @param fingerprint
+	 *            the fingerprint to look up
+	 * @return the latest value stored for the fingerprint or <code>null</code>
+	 *         if no value is available
+	 * @throws IOException
+	 *             if the index files cannot be read
+	 */
+	public synchronized String get(long fingerprint) throws IOException {
+		fingerprint = normalize(fingerprint);
+		FileLock lock = lockFile.getChannel().lock(0, Long.MAX_VALUE, true);
+		try {
+			sync();
+			int slot = findSlot(fingerprint);
+			if (index.getLong(slotOffset(slot)) == EMPTY) {
+				return null;
+			}
+			return readRecord(fingerprint, index.getLong(slotOffset(slot) + 8));
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * stores the value of the specified fingerprint (replaces previous values)
+	 *
+	 * @param fingerprint
+	 *            the fingerprint
+	 * @param value
+	 *            the value to be stored
+	 * @throws IOException
+	 *             if the index files cannot be written
+	 */
+	public synchronized void put(long fingerprint, String value) throws IOException {
+		if (value == null) {
+			throw new IllegalArgumentException("Unable to store null values!");
+		}
+		fingerprint = normalize(fingerprint);
+		byte[] data = value.getBytes(UTF8);
+		FileLock lock = lockFile.getChannel().lock();
+		try {
+			sync();
+			int slot = findSlot(fingerprint);
+			int slotOffset = slotOffset(slot);
+			boolean replace = index.getLong(slotOffset) != EMPTY;
+			if (replace) {
+				long prevLocation = index.getLong(slotOffset + 8);
+				String prevValue = readRecord(fingerprint, prevLocation);
+				if (value.equals(prevValue)) {
+					// nothing to do
+					return;
+				}
+				if (prevValue != null) {
+					index.putLong(H_GARBAGE_BYTES, index.getLong(H_GARBAGE_BYTES) + RECORD_HEADER_SIZE + prevValue.getBytes(UTF8).length);
+				}
+			}
+
+			long location = appendRecord(fingerprint, data);
+			index.putLong(slotOffset + 8, location);
+			index.putLong(slotOffset, fingerprint);
+
+			if (!replace) {
+				int size = index.getInt(H_SIZE) + 1;
+				index.putInt(H_SIZE, size);
+				if (size > capacity * MAX_LOAD) {
+					grow();
+				}
+			}
+
+			long total = index.getLong(H_TOTAL_BYTES);
+			if (total > MIN_COMPACTION_SIZE && index.getLong(H_GARBAGE_BYTES) * 2 > total) {
+				compactLocked();
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * the number of fingerprints stored in this index
+	 *
+	 * @return the number of stored fingerprints
+	 * @throws IOException
+	 *             if the index files cannot be read
+	 */
+	public synchronized int size() throws IOException {
+		FileLock lock = lockFile.getChannel().lock(0, Long.MAX_VALUE, true);
+		try {
+			sync();
+			return index.getInt(H_SIZE);
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * rewrites all current records into new segment files and deletes the
+	 * segments containing outdated records
+	 *
+	 * @throws IOException
+	 *             if the index files cannot be written
+	 */
+	public synchronized void compact() throws IOException {
+		FileLock lock = lockFile.getChannel().lock();
+		try {
+			sync();
+			compactLocked();
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * writes all pending changes to disk
+	 *
+	 * @throws IOException
+	 *             if the index files cannot be written
+	 */
+	public synchronized void flush() throws IOException {
+		index.force();
+		for (RandomAccessFile segment : segments.values()) {
+			segment.getChannel().force(false);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (MappedHashIndex.class) {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					flush();
+				} finally {
+					closeSegments();
+					indexFile.close();
+					lockFile.close();
+					INSTANCES.values().remove(this);
+				}
+			}
+		}
+	}
+
+	private void map(int capacity) throws IOException {
+		this.index = indexFile.getChannel().map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+		this.capacity = capacity;
+	}
+
+	private int readCapacity() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		indexFile.getChannel().read(header, 0);
+		return header.getInt(H_CAPACITY);
+	}
+
+	/**
+	 * updates the local view of the index (another process might have grown
+	 * or compacted it), has to be called while holding the file lock
+	 */
+	private void sync() throws IOException {
+		if (closed) {
+			throw new IOException("Index already closed!");
+		}
+		if (index.getInt(H_CAPACITY) != capacity) {
+			map(index.getInt(H_CAPACITY));
+		}
+		if (index.getLong(H_GENERATION) != generation) {
+			// segments have been rewritten
+			closeSegments();
+			generation = index.getLong(H_GENERATION);
+		}
+	}
+
+	private static long normalize(long fingerprint) {
+		// 0 marks empty slots
+		return fingerprint == EMPTY ? 1L : fingerprint;
+	}
+
+	private static int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private int homeSlot(long fingerprint) {
+		return (int) (fingerprint ^ (fingerprint >>> 29) ^ (fingerprint >>> 43)) & (capacity - 1);
+	}
+
+	private int findSlot(long fingerprint) {
+		int mask = capacity - 1;
+		int slot = homeSlot(fingerprint);
+		while (true) {
+			long current = index.getLong(slotOffset(slot));
+			if (current == EMPTY || current == fingerprint) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * removes the fingerprint from the hash table, the following slots of the
+	 * probe sequence are moved back to close the gap (no tombstones needed)
+	 */
+	private void removeSlot(long fingerprint) {
+		int mask = capacity - 1;
+		int hole = findSlot(fingerprint);
+		if (index.getLong(slotOffset(hole)) == EMPTY) {
+			return;
+		}
+		for (int slot = (hole + 1) & mask; index.getLong(slotOffset(slot)) != EMPTY; slot = (slot + 1) & mask) {
+			long current = index.getLong(slotOffset(slot));
+			// move the entry if the hole lies between its home slot and its position
+			if (((slot - homeSlot(current)) & mask) >= ((slot - hole) & mask)) {
+				index.putLong(slotOffset(hole) + 8, index.getLong(slotOffset(slot) + 8));
+				index.putLong(slotOffset(hole), current);
+				hole = slot;
+			}
+		}
+		index.putLong(slotOffset(hole), EMPTY);
+		index.putLong(slotOffset(hole) + 8, 0L);
+		index.putInt(H_SIZE, index.getInt(H_SIZE) - 1);
+	}
+
+	private RandomAccessFile segment(int id) throws IOException {
+		RandomAccessFile segment = segments.get(id);
+		if (segment == null) {
+			segment = new RandomAccessFile(new File(folder, String.format("segment-%08d.dat", id)), "rw");
+			segments.put(id, segment);
+		}
+		return segment;
+	}
+
+	private void closeSegments() throws IOException {
+		for (RandomAccessFile segment : segments.values()) {
+			segment.close();
+		}
+		segments.clear();
+	}
+
+	private String readRecord(long fingerprint, long location) throws IOException {
+		int id = (int) (location >>> 32);
+		long offset = location & 0xffffffffL;
+		FileChannel channel = segment(id).getChannel();
+
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		if (channel.read(header, offset) < RECORD_HEADER_SIZE || header.getLong(0) != fingerprint) {
+			LOG.log(Level.WARNING, "Index record of " + fingerprint + " is corrupt!");
+			return null;
+		}
+		ByteBuffer data = ByteBuffer.allocate(header.getInt(8));
+		while (data.hasRemaining()) {
+			if (channel.read(data, offset + RECORD_HEADER_SIZE + data.position()) < 0) {
+				LOG.log(Level.WARNING, "Index record of " + fingerprint + " is truncated!");
+				return null;
+			}
+		}
+		return new String(data.array(), UTF8);
+	}
+
+	private long appendRecord(long fingerprint, byte[] data) throws IOException {
+		int id = index.getInt(H_ACTIVE_SEGMENT);
+		FileChannel channel = segment(id).getChannel();
+		long offset = channel.size();
+		if (offset > 0 && offset + RECORD_HEADER_SIZE + data.length > maxSegmentSize) {
+			// start a new segment
+			id++;
+			index.putInt(H_ACTIVE_SEGMENT, id);
+			channel = segment(id).getChannel();
+			offset = channel.size();
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+		record.putLong(fingerprint).putInt(data.length).put(data).flip();
+		long position = offset;
+		while (record.hasRemaining()) {
+			position += channel.write(record, position);
+		}
+		index.putLong(H_TOTAL_BYTES, index.getLong(H_TOTAL_BYTES) + RECORD_HEADER_SIZE + data.length);
+
+		return ((long) id << 32) | offset;
+	}
+
+	/**
+	 * doubles the number of hash slots (the index file is never truncated thus
+	 * mappings of other processes remain valid until they sync)
+	 */
+	private void grow() throws IOException {
+		int size = index.getInt(H_SIZE);
+		long[] fingerprints = new long[size];
+		long[] locations = new long[size];
+		int n = 0;
+		for (int slot = 0; slot < capacity; slot++) {
+			long fingerprint = index.getLong(slotOffset(slot));
+			if (fingerprint != EMPTY) {
+				fingerprints[n] = fingerprint;
+				locations[n] = index.getLong(slotOffset(slot) + 8);
+				n++;
+			}
+		}
+
+		int newCapacity = capacity << 1;
+		indexFile.setLength(HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+		map(newCapacity);
+		for (int slot = 0; slot < newCapacity; slot++) {
+			index.putLong(slotOffset(slot), EMPTY);
+			index.putLong(slotOffset(slot) + 8, 0L);
+		}
+		for (int i = 0; i < n; i++) {
+			int slot = findSlot(fingerprints[i]);
+			index.putLong(slotOffset(slot) + 8, locations[i]);
+			index.putLong(slotOffset(slot), fingerprints[i]);
+		}
+		index.putInt(H_CAPACITY, newCapacity);
+	}
+
+	private void compactLocked() throws IOException {
+		int lastOldSegment = index.getInt(H_ACTIVE_SEGMENT);
+		index.putInt(H_ACTIVE_SEGMENT, lastOldSegment + 1);
+		index.putLong(H_TOTAL_BYTES, 0);
+
+		List<Long> unreadable = new ArrayList<>();
+		for (int slot = 0; slot < capacity; slot++) {
+			long fingerprint = index.getLong(slotOffset(slot));
+			if (fingerprint != EMPTY) {
+				long location = index.getLong(slotOffset(slot) + 8);
+				String value = readRecord(fingerprint, location);
+				if (value != null) {
+					// the slot position does not change, just update its location
+					index.putLong(slotOffset(slot) + 8, appendRecord(fingerprint, value.getBytes(UTF8)));
+				} else {
+					unreadable.add(fingerprint);
+				}
+			}
+		}
+		// the records of these slots would point into deleted segments
+		for (long fingerprint : unreadable) {
+			removeSlot(fingerprint);
+		}
+		index.putLong(H_GARBAGE_BYTES, 0);
+		index.putLong(H_GENERATION, ++generation);
+
+		// remove all outdated segments
+		for (Iterator<Map.Entry<Integer, RandomAccessFile>> it = segments.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Integer, RandomAccessFile> e = it.next();
+			if (e.getKey() <= lastOldSegment) {
+				e.getValue().close();
+				it.remove();
+			}
+		}
+		File[] files = folder.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].getName().matches("segment-\\d+\\.dat")
+					&& Integer.parseInt(files[i].getName().substring(8, files[i].getName().length() - 4)) <= lastOldSegment
+					&& !files[i].delete()) {
+				LOG.log(Level.WARNING, "Unable to delete outdated segment " + files[i]);
+			}
+		}
+	}
+}
@@ -1,23 +1,43 @@
 package de.hpi.fgis.database.mongodb;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.lucene.facet.collections.LRUHashMap;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import com.mongodb.util.JSONParseException;
+
+import de.hpi.fgis.database.local.MappedHashIndex;
+import de.hpi.fgis.util.URLNormalizer;
 
 /**
  * straight forward mockup for DBObject storage in MongoDB supporting cached
- * access to the latest instances (LRU cache)
+ * access to the latest instances (LRU cache) and an optional local
+ * {@link MappedHashIndex} as second-level cache (shared with other processes)
  * 
  * @author tongr
  * 
  */
 public class CachedMongoDBObjectManager {
+	private static final Logger LOG = Logger.getLogger(CachedMongoDBObjectManager.class.getName());
+	// max. number of values per $in query
+	private static final int IN_QUERY_CHUNK_SIZE = 1000;
 	private final MongoDBObjectManager persistence;
 	private final String keyAttribute;
 	private final LRUHashMap<Object, DBObject> cache;
 	private final boolean checkPersisted;
+	private MappedHashIndex localIndex;
 
 	/**
 	 * creates a new instance of the cached MongoDB storage interface
@@ -52,6 +72,29 @@ public class CachedMongoDBObjectManager {
 		}
 	}
 
+	/**
+	 * get the local (second-level) index
+	 * 
+	 * @return the local index or <code>null</code> if no index is used
+	 */
+	public MappedHashIndex getLocalIndex() {
+		return localIndex;
+	}
+
+	/**
+	 * set the local (second-level) index that is checked in case of LRU cache
+	 * misses before asking the persistence source
+	 * 
+	 * @param localIndex
+	 *            the local index or <code>null</code> to disable the second
+	 *            level
+	 * @return this instance
+	 */
+	public CachedMongoDBObjectManager setLocalIndex(MappedHashIndex localIndex) {
+		this.localIndex = localIndex;
+		return this;
+	}
+
 	/**
 	 * stores & caches the specified {@link DBObject} instance(s)
 	 */
@@ -75,6 +118,11 @@ public class CachedMongoDBObjectManager {
 	public void store(Iterable<? extends DBObject> instances) {
 		// cache the values
 		cache(instances);
+		if (localIndex != null && instances != null) {
+			for (DBObject obj : instances) {
+				index(obj);
+			}
+		}
 
 		persistence.store(instances);
 	}
@@ -92,18 +140,90 @@ public class CachedMongoDBObjectManager {
 		// check cache
 		DBObject foundInstance = checkCache(value);
 
+		// cache miss --> ask local index
+		if (foundInstance == null) {
+			foundInstance = checkIndex(value);
+
+			if (foundInstance != null) {
+				cache(foundInstance);
+			}
+		}
+
 		// cache miss --> ask persistence?
 		if (checkPersisted && foundInstance == null) {
 			foundInstance = persistence.findOne(keyAttribute, value);
 
 			if (foundInstance != null) {
 				cache(foundInstance);
+				index(foundInstance);
 			}
 		}
 
 		return foundInstance;
 	}
 
+	/**
+	 * returns the (latest cached / first) {@link DBObject} instances for all
+	 * specified values of the key attribute. The values are looked up in the
+	 * cache first, all misses are resolved via (chunked) <code>$in</code>
+	 * queries to the persistence source (if enabled).
+	 * 
+	 * @param values
+	 *            the values of the key attribute to query for
+	 * @return a map (value -> instance) containing all found instances
+	 */
+	public Map<Object, DBObject> findAll(Collection<?> values) {
+		Map<Object, DBObject> foundInstances = new HashMap<>(values.size() * 2);
+		List<Object> misses = new ArrayList<>(values.size());
+
+		// check cache
+		synchronized (cache) {
+			for (Object value : new LinkedHashSet<>(values)) {
+				if (value == null) {
+					continue;
+				}
+				DBObject foundInstance = cache.get(value);
+				if (foundInstance == null) {
+					misses.add(value);
+				} else {
+					foundInstances.put(value, foundInstance);
+				}
+			}
+		}
+
+		// cache misses --> ask local index
+		if (localIndex != null) {
+			List<Object> indexMisses = new ArrayList<>(misses.size());
+			for (Object value : misses) {
+				DBObject foundInstance = checkIndex(value);
+				if (foundInstance == null) {
+					indexMisses.add(value);
+				} else {
+					cache(foundInstance);
+					foundInstances.put(value, foundInstance);
+				}
+			}
+			misses = indexMisses;
+		}
+
+		// cache misses --> ask persistence (one query per chunk)?
+		if (checkPersisted) {
+			for (int from = 0; from < misses.size(); from += IN_QUERY_CHUNK_SIZE) {
+				List<Object> chunk = misses.subList(from, Math.min(misses.size(), from + IN_QUERY_CHUNK_SIZE));
+				for (DBObject foundInstance : persistence.findIn(keyAttribute, chunk)) {
+					final Object key = foundInstance.get(keyAttribute);
+					if (key != null && !foundInstances.containsKey(key)) {
+						cache(foundInstance);
+						index(foundInstance);
+						foundInstances.put(key, foundInstance);
+					}
+				}
+			}
+		}
+
+		return foundInstances;
+	}
+
 	private DBObject checkCache(Object value) {
 		synchronized (cache) {
 			// check cache map and return found value
@@ -111,6 +231,57 @@ public class CachedMongoDBObjectManager {
 		}
 	}
 
+	private DBObject checkIndex(Object value) {
+		if (localIndex == null || value == null) {
+			return null;
+		}
+		try {
+			String serialized = localIndex.get(fingerprint(value));
+			if (serialized == null) {
+				return null;
+			}
+			DBObject obj = (DBObject) JSON.parse(serialized);
+			// guard against fingerprint collisions
+			if (obj == null || !sameKey(value, obj.get(keyAttribute))) {
+				return null;
+			}
+			return obj;
+		} catch (IOException | JSONParseException | ClassCastException e) {
+			LOG.log(Level.WARNING, "Unable to read from local index!", e);
+			return null;
+		}
+	}
+
+	private void index(DBObject obj) {
+		final Object key = obj.get(keyAttribute);
+		if (localIndex == null || key == null) {
+			return;
+		}
+		// do not persist the mongo specific object id
+		DBObject copy = new BasicDBObject(obj.toMap());
+		copy.removeField("_id");
+		try {
+			localIndex.put(fingerprint(key), JSON.serialize(copy));
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Unable to write to local index!", e);
+		}
+	}
+
+	private static boolean sameKey(Object key, Object other) {
+		if (key instanceof Number && other instanceof Number) {
+			// JSON deserialization might change the number type
+			return ((Number) key).longValue() == ((Number) other).longValue();
+		}
+		return key.equals(other);
+	}
+
+	private static long fingerprint(Object key) {
+		if (key instanceof Long) {
+			return (Long) key;
+		}
+		return URLNormalizer.hash64(key.toString());
+	}
+
 	private void cache(DBObject obj) {
 		final Object key = obj.get(keyAttribute);
 		if (key != null) {
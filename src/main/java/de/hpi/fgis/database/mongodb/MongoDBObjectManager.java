@@ -1,6 +1,7 @@
 package de.hpi.fgis.database.mongodb;
 
 import java.util.Arrays;
+import java.util.Collection;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
@@ -139,6 +140,17 @@ public class MongoDBObjectManager extends AbstractMongoManager {
 
 		return find(query);
 	}
+	/**
+	 * returns an iterator of {@link DBObject} instances having one of the specified attribute values (i.e., a single <code>$in</code> query)
+	 * @param attribute the attribute to query for
+	 * @param values the attribute values to query for
+	 * @return the iterator with all {@link DBObject} instances matching to the query
+	 */
+	public Iterable<DBObject> findIn(String attribute, Collection<?> values) {
+		DBObject query = new BasicDBObject(attribute, new BasicDBObject("$in", values));
+
+		return find(query);
+	}
 	/**
 	 * returns an iterator of {@link DBObject} instances with the specified attribute values
 	 * @param attributes the attributes to query for
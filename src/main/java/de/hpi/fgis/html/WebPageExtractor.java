@@ -26,6 +26,8 @@ public class WebPageExtractor implements ITransformation {
 	protected final static String TMP_TEXT_CONTENT_ATTRIBUTE_NAME = "___TEXT";
 	protected final static String TMP_ERROR_ATTRIBUTE_NAME = "___ERROR";
 	protected static int TIMEOUT = 1500;
+	// maximal number of bytes loaded per page, longer pages are truncated
+	protected static int MAX_BODY_SIZE = 1024*1024;
 	private String urlAttribute = "url";
 	private String metaAttribute = "meta";
 	private String htmlAttribute = "html";
@@ -56,12 +58,16 @@ public class WebPageExtractor implements ITransformation {
 		
 		try {
 			// request the resource
-			Response res = Jsoup.connect(url).userAgent("Mozilla/7.0 (X11; U; Linux i2058;) Gecko/Ubuntu/8.04 (hardy) Firefox/4.0.1 (alpha)").timeout(TIMEOUT).execute();
+			Response res = Jsoup.connect(url).userAgent("Mozilla/7.0 (X11; U; Linux i2058;) Gecko/Ubuntu/8.04 (hardy) Firefox/4.0.1 (alpha)").timeout(TIMEOUT).maxBodySize(MAX_BODY_SIZE).execute();
 		
 			// parse the document
 			Document doc = res.parse();
 		
-			data.put(TMP_META_ATTRIBUTE_NAME, getMetaData(res, doc));
+			DBObject meta = getMetaData(res, doc);
+			if(res.bodyAsBytes().length>=MAX_BODY_SIZE) {
+				meta.put("truncated", true);
+			}
+			data.put(TMP_META_ATTRIBUTE_NAME, meta);
 			data.put(TMP_HTML_CONTENT_ATTRIBUTE_NAME, doc.html());
 			data.put(TMP_TEXT_CONTENT_ATTRIBUTE_NAME, doc.body().text());
 		} catch (Exception e) {
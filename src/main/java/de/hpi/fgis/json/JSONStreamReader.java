@@ -0,0 +1,344 @@
+package de.hpi.fgis.json;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSONParseException;
+
+/**
+ * incremental JSON parser that consumes a character stream and builds the
+ * same {@link DBObject} representation as {@link com.mongodb.util.JSON#parse(String)}.<br/>
+ * Optionally, all items located at a specified path (i.e., the elements of
+ * "query/results/resources") are handed to an {@link ItemListener} as soon as
+ * they are complete instead of being added to the resulting object tree.
+ *
+ * @author tongr
+ *
+ */
+public class JSONStreamReader {
+	/**
+	 * gets informed about every completely parsed item at the item path
+	 *
+	 * @author tongr
+	 *
+	 */
+	public static interface ItemListener {
+		/**
+		 * is called for every item at the item path
+		 *
+		 * @param item
+		 *            the parsed item
+		 */
+		public void onItem(Object item);
+	}
+
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int bufferPos = 0;
+	private int bufferEnd = 0;
+	private int position = 0;
+
+	/**
+	 * creates a new parser for the specified character stream (the reader
+	 * is buffered internally)
+	 *
+	 * @param in
+	 *            the character stream to be parsed
+	 */
+	public JSONStreamReader(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * skips leading whitespaces and returns the first character of the
+	 * stream w/o consuming it
+	 *
+	 * @return the first non-whitespace character or -1 at the end of the
+	 *         stream
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public int peekFirst() throws IOException {
+		skipWhitespace();
+		return peek();
+	}
+
+	/**
+	 * reads up to the specified number of characters (i.e., for logging the
+	 * beginning of erroneous data)
+	 *
+	 * @param maxLength
+	 *            the maximal number of characters to be read
+	 * @return the read characters
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public String readPrefix(int maxLength) throws IOException {
+		StringBuilder prefix = new StringBuilder(maxLength);
+		while (prefix.length() < maxLength && peek() >= 0) {
+			prefix.append((char) next());
+		}
+		return prefix.toString();
+	}
+
+	/**
+	 * parses the complete stream (has to contain one JSON value)
+	 *
+	 * @return the parsed value
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 * @throws JSONParseException
+	 *             if the stream does not contain proper JSON
+	 */
+	public Object read() throws IOException {
+		return read(null, null);
+	}
+
+	/**
+	 * parses the complete stream (has to contain one JSON value), all items
+	 * at the specified path are handed to the listener and are not part of the
+	 * resulting object tree
+	 *
+	 * @param itemPath
+	 *            the attribute names leading to the items (if the value at the
+	 *            path is a list, every element is handed to the listener,
+	 *            otherwise the value itself)
+	 * @param listener
+	 *            the listener to be informed about the items
+	 * @return the parsed value (w/o items)
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 * @throws JSONParseException
+	 *             if the stream does not contain proper JSON
+	 */
+	public Object read(String[] itemPath, ItemListener listener) throws IOException {
+		Object value = readValue(listener == null ? null : itemPath, 0, listener);
+		skipWhitespace();
+		if (peek() >= 0) {
+			throw error("Unexpected data after JSON value");
+		}
+		return value;
+	}
+
+	private Object readValue(String[] itemPath, int depth, ItemListener listener) throws IOException {
+		skipWhitespace();
+		int c = peek();
+		switch (c) {
+		case '{':
+			return readObject(itemPath, depth, listener);
+		case '[':
+			return readList(null, 0, null);
+		case '"':
+		case '\'':
+			return readString();
+		case 't':
+			expect("true");
+			return Boolean.TRUE;
+		case 'f':
+			expect("false");
+			return Boolean.FALSE;
+		case 'n':
+			expect("null");
+			return null;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return readNumber();
+			}
+			throw error(c < 0 ? "Unexpected end of JSON data" : "Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private DBObject readObject(String[] itemPath, int depth, ItemListener listener) throws IOException {
+		next(); // '{'
+		BasicDBObject obj = new BasicDBObject();
+		skipWhitespace();
+		if (peek() == '}') {
+			next();
+			return obj;
+		}
+		while (true) {
+			skipWhitespace();
+			String name = readString();
+			skipWhitespace();
+			if (next() != ':') {
+				throw error("Expected ':'");
+			}
+
+			boolean onPath = itemPath != null && depth < itemPath.length && itemPath[depth].equals(name);
+			if (onPath && depth == itemPath.length - 1) {
+				// emit the items instead of adding them
+				skipWhitespace();
+				if (peek() == '[') {
+					readList(null, 0, listener);
+				} else {
+					listener.onItem(readValue(null, 0, null));
+				}
+			} else {
+				obj.put(name, readValue(onPath ? itemPath : null, depth + 1, listener));
+			}
+
+			skipWhitespace();
+			int c = next();
+			if (c == '}') {
+				return obj;
+			} else if (c != ',') {
+				throw error("Expected ',' or '}'");
+			}
+		}
+	}
+
+	private BasicDBList readList(String[] itemPath, int depth, ItemListener listener) throws IOException {
+		next(); // '['
+		BasicDBList list = new BasicDBList();
+		skipWhitespace();
+		if (peek() == ']') {
+			next();
+			return list;
+		}
+		while (true) {
+			Object value = readValue(itemPath, depth, null);
+			if (listener != null) {
+				listener.onItem(value);
+			} else {
+				list.add(value);
+			}
+			skipWhitespace();
+			int c = next();
+			if (c == ']') {
+				return list;
+			} else if (c != ',') {
+				throw error("Expected ',' or ']'");
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		int quote = next();
+		if (quote != '"' && quote != '\'') {
+			throw error("Expected string");
+		}
+		StringBuilder value = new StringBuilder();
+		while (true) {
+			// copy unescaped chunks directly from the buffer
+			int start = bufferPos;
+			while (bufferPos < bufferEnd && buffer[bufferPos] != quote && buffer[bufferPos] != '\\') {
+				bufferPos++;
+			}
+			value.append(buffer, start, bufferPos - start);
+			position += bufferPos - start;
+
+			int c = next();
+			if (c < 0) {
+				throw error("Unterminated string");
+			} else if (c == quote) {
+				return value.toString();
+			} else if (c == '\\') {
+				c = next();
+				switch (c) {
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(next(), 16);
+						if (digit < 0) {
+							throw error("Illegal unicode escape sequence");
+						}
+						code = code * 16 + digit;
+					}
+					value.append((char) code);
+					break;
+				default:
+					if (c < 0) {
+						throw error("Unterminated string");
+					}
+					value.append((char) c);
+				}
+			} else {
+				value.append((char) c);
+			}
+		}
+	}
+
+	private Number readNumber() throws IOException {
+		StringBuilder number = new StringBuilder();
+		boolean decimal = false;
+		int c = peek();
+		while (c >= 0 && "+-0123456789.eE".indexOf(c) >= 0) {
+			decimal |= c == '.' || c == 'e' || c == 'E';
+			number.append((char) next());
+			c = peek();
+		}
+		try {
+			if (decimal) {
+				return Double.valueOf(number.toString());
+			}
+			long value = Long.parseLong(number.toString());
+			if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+				return (int) value;
+			}
+			return value;
+		} catch (NumberFormatException e) {
+			throw error("Illegal number " + number);
+		}
+	}
+
+	private void expect(String literal) throws IOException {
+		for (int i = 0; i < literal.length(); i++) {
+			if (next() != literal.charAt(i)) {
+				throw error("Expected " + literal);
+			}
+		}
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (Character.isWhitespace(peek())) {
+			next();
+		}
+	}
+
+	private int peek() throws IOException {
+		if (bufferPos >= bufferEnd && !fill()) {
+			return -1;
+		}
+		return buffer[bufferPos];
+	}
+
+	private int next() throws IOException {
+		if (bufferPos >= bufferEnd && !fill()) {
+			return -1;
+		}
+		position++;
+		return buffer[bufferPos++];
+	}
+
+	private boolean fill() throws IOException {
+		int read = in.read(buffer, 0, buffer.length);
+		if (read <= 0) {
+			return false;
+		}
+		bufferPos = 0;
+		bufferEnd = read;
+		return true;
+	}
+
+	private JSONParseException error(String message) {
+		return new JSONParseException(message, position);
+	}
+}
@@ -0,0 +1,196 @@
+package de.hpi.fgis.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * normalizes urls (lower case scheme and host, no default ports, no fragments,
+ * no tracking parameters) and computes 64-bit fingerprints of the normalized
+ * urls, such that variants of the same url can be handled as one entry
+ *
+ * @author tongr
+ *
+ */
+public class URLNormalizer {
+	/**
+	 * tracking parameters removed by default (entries ending with '*' are
+	 * prefixes)
+	 */
+	public static final List<String> DEFAULT_TRACKING_PARAMETERS = Arrays.asList("utm_*", "fbclid", "gclid", "dclid", "yclid", "mc_cid", "mc_eid", "_hsenc", "_hsmi", "igshid");
+	private static final URLNormalizer INSTANCE = new URLNormalizer(DEFAULT_TRACKING_PARAMETERS);
+
+	private final Set<String> trackingParameters = new HashSet<>();
+	private final List<String> trackingParameterPrefixes = new ArrayList<>();
+
+	/**
+	 * gets the {@link URLNormalizer} instance removing the
+	 * {@link URLNormalizer#DEFAULT_TRACKING_PARAMETERS}
+	 *
+	 * @return the default {@link URLNormalizer} instance
+	 */
+	public static URLNormalizer getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * creates a new normalizer
+	 *
+	 * @param trackingParameters
+	 *            the names of the query parameters to be removed (entries
+	 *            ending with '*' are handled as prefixes, i.e. "utm_*")
+	 */
+	public URLNormalizer(Collection<String> trackingParameters) {
+		for (String parameter : trackingParameters) {
+			if (parameter.endsWith("*")) {
+				trackingParameterPrefixes.add(parameter.substring(0, parameter.length() - 1).toLowerCase());
+			} else {
+				this.trackingParameters.add(parameter.toLowerCase());
+			}
+		}
+	}
+
+	/**
+	 * normalizes the specified url, urls w/o scheme are returned unchanged
+	 * (except of surrounding whitespaces)
+	 *
+	 * @param url
+	 *            the url to be normalized
+	 * @return the normalized url
+	 */
+	public String normalize(String url) {
+		if (url == null) {
+			return null;
+		}
+		url = url.trim();
+		int schemeEnd = url.indexOf("://");
+		if (schemeEnd <= 0) {
+			return url;
+		}
+		String scheme = url.substring(0, schemeEnd).toLowerCase();
+
+		// strip fragment
+		int end = url.indexOf('#', schemeEnd + 3);
+		if (end < 0) {
+			end = url.length();
+		}
+
+		// split authority
+		int authorityEnd = schemeEnd + 3;
+		while (authorityEnd < end && "/?".indexOf(url.charAt(authorityEnd)) < 0) {
+			authorityEnd++;
+		}
+		String authority = url.substring(schemeEnd + 3, authorityEnd);
+		String userInfo = "";
+		int at = authority.lastIndexOf('@');
+		if (at >= 0) {
+			userInfo = authority.substring(0, at + 1);
+			authority = authority.substring(at + 1);
+		}
+		String host = authority;
+		String port = "";
+		int colon = authority.lastIndexOf(':');
+		if (colon >= 0 && colon > authority.lastIndexOf(']')) {
+			host = authority.substring(0, colon);
+			port = authority.substring(colon + 1);
+		}
+		host = host.toLowerCase();
+		if (host.endsWith(".")) {
+			host = host.substring(0, host.length() - 1);
+		}
+		if (port.isEmpty() || ("http".equals(scheme) && "80".equals(port)) || ("https".equals(scheme) && "443".equals(port))) {
+			port = "";
+		} else {
+			port = ":" + port;
+		}
+
+		// split path & query
+		int queryStart = url.indexOf('?', authorityEnd);
+		if (queryStart < 0 || queryStart > end) {
+			queryStart = end;
+		}
+		String path = url.substring(authorityEnd, queryStart);
+		if (path.isEmpty()) {
+			path = "/";
+		}
+		String query = queryStart < end ? removeTrackingParameters(url.substring(queryStart + 1, end)) : "";
+
+		StringBuilder normalized = new StringBuilder(url.length());
+		normalized.append(scheme).append("://").append(userInfo).append(host).append(port).append(path);
+		if (!query.isEmpty()) {
+			normalized.append('?').append(query);
+		}
+		return normalized.toString();
+	}
+
+	/**
+	 * computes the 64-bit fingerprint of the normalized url
+	 *
+	 * @param url
+	 *            the url
+	 * @return the fingerprint of the normalized url
+	 */
+	public long fingerprint(String url) {
+		return hash64(normalize(url));
+	}
+
+	/**
+	 * computes a 64-bit hash value (FNV-1a w/ final avalanche step) of the
+	 * specified character sequence
+	 *
+	 * @param value
+	 *            the value to be hashed
+	 * @return the hash value
+	 */
+	public static long hash64(CharSequence value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash ^= c & 0xff;
+			hash *= 0x100000001b3L;
+			hash ^= c >>> 8;
+			hash *= 0x100000001b3L;
+		}
+		// murmur3 finalizer
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private String removeTrackingParameters(String query) {
+		StringBuilder result = new StringBuilder(query.length());
+		for (String parameter : query.split("&")) {
+			if (parameter.isEmpty()) {
+				continue;
+			}
+			int eq = parameter.indexOf('=');
+			String name = (eq < 0 ? parameter : parameter.substring(0, eq)).toLowerCase();
+			if (isTrackingParameter(name)) {
+				continue;
+			}
+			if (result.length() > 0) {
+				result.append('&');
+			}
+			result.append(parameter);
+		}
+		return result.toString();
+	}
+
+	private boolean isTrackingParameter(String name) {
+		if (trackingParameters.contains(name)) {
+			return true;
+		}
+		for (String prefix : trackingParameterPrefixes) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
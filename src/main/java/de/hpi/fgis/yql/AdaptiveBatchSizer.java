@@ -0,0 +1,200 @@
+package de.hpi.fgis.yql;
+
+import java.util.logging.Logger;
+
+/**
+ * controls the number of urls packed into a single YQL query (AIMD): the batch
+ * size grows additively as long as responses are fast and (mostly) complete,
+ * and shrinks multiplicatively on timeouts, broken responses, or incomplete
+ * results. Additionally, it keeps track of the achieved number of urls per
+ * request.
+ *
+ * @author tongr
+ *
+ */
+public class AdaptiveBatchSizer {
+	private static final Logger LOG = Logger.getLogger(AdaptiveBatchSizer.class.getName());
+
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private double batchSize;
+	private int increment = 5;
+	private double decreaseFactor = 0.5;
+	private long targetLatency = 10000;
+	private double minCompleteness = 0.5;
+
+	private long requests = 0;
+	private long failedRequests = 0;
+	private long requestedUrls = 0;
+	private long resolvedUrls = 0;
+
+	/**
+	 * creates a new batch size controller
+	 *
+	 * @param initialBatchSize
+	 *            the batch size to start with
+	 * @param minBatchSize
+	 *            the minimal batch size
+	 * @param maxBatchSize
+	 *            the maximal batch size
+	 */
+	public AdaptiveBatchSizer(int initialBatchSize, int minBatchSize, int maxBatchSize) {
+		if (minBatchSize <= 0 || maxBatchSize < minBatchSize) {
+			throw new IllegalArgumentException("Illegal batch size interval [" + minBatchSize + "," + maxBatchSize + "]");
+		}
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.batchSize = Math.max(minBatchSize, Math.min(maxBatchSize, initialBatchSize));
+	}
+
+	/**
+	 * set the number of urls added to the batch size after a fast and complete
+	 * response
+	 *
+	 * @param increment
+	 *            the additive increase
+	 * @return this {@link AdaptiveBatchSizer} instance
+	 */
+	public synchronized AdaptiveBatchSizer increment(int increment) {
+		this.increment = increment;
+		return this;
+	}
+
+	/**
+	 * set the factor the batch size is multiplied with after a failed,
+	 * incomplete, or slow response
+	 *
+	 * @param decreaseFactor
+	 *            the multiplicative decrease (between 0 and 1)
+	 * @return this {@link AdaptiveBatchSizer} instance
+	 */
+	public synchronized AdaptiveBatchSizer decreaseFactor(double decreaseFactor) {
+		if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+			throw new IllegalArgumentException("The decrease factor has to be in (0,1): " + decreaseFactor);
+		}
+		this.decreaseFactor = decreaseFactor;
+		return this;
+	}
+
+	/**
+	 * set the latency (in ms) up to which responses are considered to be fast
+	 *
+	 * @param targetLatency
+	 *            the maximal latency of fast responses (in ms)
+	 * @return this {@link AdaptiveBatchSizer} instance
+	 */
+	public synchronized AdaptiveBatchSizer targetLatency(long targetLatency) {
+		this.targetLatency = targetLatency;
+		return this;
+	}
+
+	/**
+	 * set the minimal fraction of resolved urls for complete responses
+	 * (unavailable resources are not part of YQL responses, so this should be
+	 * considerably lower than 1)
+	 *
+	 * @param minCompleteness
+	 *            the minimal fraction of resolved urls
+	 * @return this {@link AdaptiveBatchSizer} instance
+	 */
+	public synchronized AdaptiveBatchSizer minCompleteness(double minCompleteness) {
+		this.minCompleteness = minCompleteness;
+		return this;
+	}
+
+	/**
+	 * gets the number of urls to be packed into the next request
+	 *
+	 * @return the current batch size
+	 */
+	public synchronized int batchSize() {
+		return (int) batchSize;
+	}
+
+	/**
+	 * informs the controller about a successful request
+	 *
+	 * @param requested
+	 *            the number of requested urls
+	 * @param resolved
+	 *            the number of urls contained in the response
+	 * @param latency
+	 *            the time between sending the request and processing the
+	 *            response (in ms)
+	 */
+	public synchronized void onSuccess(int requested, int resolved, long latency) {
+		requests++;
+		requestedUrls += requested;
+		resolvedUrls += resolved;
+
+		if (resolved < requested * minCompleteness) {
+			// truncated responses
+			decrease();
+		} else if (latency > targetLatency) {
+			// complete, but close to the timeouts: slow down carefully
+			batchSize = Math.max(minBatchSize, batchSize - increment);
+		} else if (requested >= (int) batchSize) {
+			// only grow if the current batch size was actually used
+			batchSize = Math.min(maxBatchSize, batchSize + increment);
+		}
+	}
+
+	/**
+	 * informs the controller about a failed request (i.e., a timeout or a
+	 * {@link DeserializationException})
+	 *
+	 * @param requested
+	 *            the number of requested urls
+	 * @param t
+	 *            the reason of the failure
+	 */
+	public synchronized void onFailure(int requested, Throwable t) {
+		requests++;
+		failedRequests++;
+		requestedUrls += requested;
+		decrease();
+	}
+
+	private void decrease() {
+		batchSize = Math.max(minBatchSize, batchSize * decreaseFactor);
+		LOG.fine("Decreasing YQL batch size to " + (int) batchSize);
+	}
+
+	/**
+	 * gets the number of requests reported so far
+	 *
+	 * @return the number of requests
+	 */
+	public synchronized long requests() {
+		return requests;
+	}
+
+	/**
+	 * gets the number of failed requests reported so far
+	 *
+	 * @return the number of failed requests
+	 */
+	public synchronized long failedRequests() {
+		return failedRequests;
+	}
+
+	/**
+	 * gets the average number of resolved urls per request (including failed
+	 * requests), i.e., the yield of each rate-limited request
+	 *
+	 * @return the average number of urls per request
+	 */
+	public synchronized double urlsPerRequest() {
+		return requests == 0 ? 0 : resolvedUrls / (double) requests;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("batch size %d, %d requests (%d failed), %.1f of %.1f requested urls resolved per request",
+				(int) batchSize, requests, failedRequests, urlsPerRequest(), requests == 0 ? 0 : requestedUrls / (double) requests);
+	}
+}
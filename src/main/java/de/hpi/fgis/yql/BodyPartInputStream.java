@@ -0,0 +1,155 @@
+package de.hpi.fgis.yql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+
+/**
+ * an input stream of a response body that is still being received: the http
+ * i/o thread appends the body parts (see {@link #add(byte[])}) and never
+ * blocks, the parsing thread blocks until the next part arrives, thus, the
+ * received parts are released as soon as they are parsed<br/>
+ * a failed transfer (see {@link #fail(Throwable)}) aborts the reading thread
+ * w/ an {@link IOException}
+ *
+ * @author tongr
+ *
+ */
+class BodyPartInputStream extends InputStream {
+	private final LinkedList<byte[]> parts = new LinkedList<>();
+	private byte[] current = null;
+	private int position = 0;
+	private boolean completed = false;
+	private boolean closed = false;
+	private Throwable failure = null;
+
+	/**
+	 * appends a received body part (ignored after the reader closed this
+	 * stream)
+	 *
+	 * @param part
+	 *            the bytes of the body part
+	 */
+	synchronized void add(byte[] part) {
+		if (!closed && part != null && part.length > 0) {
+			parts.add(part);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * the body has been received completely
+	 */
+	synchronized void complete() {
+		completed = true;
+		notifyAll();
+	}
+
+	/**
+	 * the transfer failed, the reader gets an {@link IOException}
+	 *
+	 * @param t
+	 *            the reason of the failure
+	 */
+	synchronized void fail(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * gets the reason of a failed transfer
+	 *
+	 * @return the failure (or <code>null</code>)
+	 */
+	synchronized Throwable failure() {
+		return failure;
+	}
+
+	private boolean next() throws IOException {
+		while (current == null || position >= current.length) {
+			if (failure != null) {
+				throw new IOException("The transfer of the response failed", failure);
+			}
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			if (!parts.isEmpty()) {
+				current = parts.poll();
+				position = 0;
+			} else if (completed) {
+				return false;
+			} else {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the response");
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public synchronized int read() throws IOException {
+		if (!next()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!next()) {
+			return -1;
+		}
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public synchronized int available() {
+		int available = current == null ? 0 : current.length - position;
+		for (byte[] part : parts) {
+			available += part.length;
+		}
+		return available;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public synchronized void close() {
+		// the remaining parts are dropped
+		closed = true;
+		parts.clear();
+		current = null;
+		notifyAll();
+	}
+}
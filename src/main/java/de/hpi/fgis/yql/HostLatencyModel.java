@@ -0,0 +1,309 @@
+package de.hpi.fgis.yql;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * learns the fetch latency of the crawled hosts (exponentially weighted
+ * moving average of the observed latencies, unresolved urls count as
+ * timeouts, see {@link #completedWithin(String, long)} for request times
+ * shared by several hosts) and derives the YQL fetch timeouts from it: urls
+ * w/ similar expected latency are grouped into the same request (see
+ * {@link #group(Collection, long)}) and every request gets a timeout that
+ * fits its slowest host (see {@link #timeout(Collection, long)}), thus, slow
+ * hosts do not hold up the requests of the fast majority<br/>
+ * only the most recently used hosts are kept (see {@link #maxHosts(int)})
+ *
+ * @author tongr
+ *
+ */
+public class HostLatencyModel {
+	private int maxHosts = 10000;
+	private double smoothing = 0.3;
+	private double headroom = 2;
+	private long minTimeout = 1000;
+	private int minGroupSize = 10;
+	private int maxGroups = 3;
+
+	// host -> expected latency (in ms), access ordered
+	private final Map<String, Double> hosts = new LinkedHashMap<String, Double>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+			return size() > maxHosts;
+		}
+	};
+	private long samples = 0;
+	private long timeouts = 0;
+	private long groupedRequests = 0;
+	private long groups = 0;
+
+	/**
+	 * set the maximal number of hosts kept in the model (default: 10000)
+	 *
+	 * @param maxHosts
+	 *            the maximal number of hosts
+	 * @return this {@link HostLatencyModel} instance
+	 */
+	public synchronized HostLatencyModel maxHosts(int maxHosts) {
+		if (maxHosts <= 0) {
+			throw new IllegalArgumentException("The number of hosts has to be positive: " + maxHosts);
+		}
+		this.maxHosts = maxHosts;
+		return this;
+	}
+
+	/**
+	 * set the weight of a new observation (default: 0.3)
+	 *
+	 * @param smoothing
+	 *            the weight of a new sample (between 0 and 1)
+	 * @return this {@link HostLatencyModel} instance
+	 */
+	public synchronized HostLatencyModel smoothing(double smoothing) {
+		if (smoothing <= 0 || smoothing > 1) {
+			throw new IllegalArgumentException("The smoothing has to be in (0,1]: " + smoothing);
+		}
+		this.smoothing = smoothing;
+		return this;
+	}
+
+	/**
+	 * set the fetch timeouts relative to the expected latency (default: twice
+	 * the expected latency, at least 1s)
+	 *
+	 * @param headroom
+	 *            the factor applied to the expected latency
+	 * @param minTimeout
+	 *            the minimal timeout (in ms)
+	 * @return this {@link HostLatencyModel} instance
+	 */
+	public synchronized HostLatencyModel timeouts(double headroom, long minTimeout) {
+		if (headroom < 1 || minTimeout <= 0) {
+			throw new IllegalArgumentException("Illegal timeouts (headroom=" + headroom + ", min=" + minTimeout + ")");
+		}
+		this.headroom = headroom;
+		this.minTimeout = minTimeout;
+		return this;
+	}
+
+	/**
+	 * set how the urls of a batch are split into requests (default: at most 3
+	 * requests of at least 10 urls), every additional request consumes the
+	 * request quota
+	 *
+	 * @param minGroupSize
+	 *            the minimal number of urls per request
+	 * @param maxGroups
+	 *            the maximal number of requests per batch
+	 * @return this {@link HostLatencyModel} instance
+	 */
+	public synchronized HostLatencyModel grouping(int minGroupSize, int maxGroups) {
+		if (minGroupSize <= 0 || maxGroups <= 0) {
+			throw new IllegalArgumentException("Illegal grouping (min. size=" + minGroupSize + ", max. groups=" + maxGroups + ")");
+		}
+		this.minGroupSize = minGroupSize;
+		this.maxGroups = maxGroups;
+		return this;
+	}
+
+	/**
+	 * extracts the host of the specified url
+	 *
+	 * @param url
+	 *            the url
+	 * @return the (lower case) host or the url itself if it cannot be parsed
+	 */
+	public static String host(String url) {
+		try {
+			String host = URI.create(url.trim()).getHost();
+			if (host != null) {
+				return host.toLowerCase();
+			}
+		} catch (IllegalArgumentException e) {
+			// ignore
+		}
+		return url;
+	}
+
+	/**
+	 * gets the expected fetch latency of the host of the specified url
+	 *
+	 * @param url
+	 *            the url
+	 * @return the expected latency (in ms) or -1 if the host is unknown
+	 */
+	public synchronized long expected(String url) {
+		Double latency = hosts.get(host(url));
+		return latency == null ? -1 : Math.round(latency);
+	}
+
+	/**
+	 * informs the model about a fetched url
+	 *
+	 * @param url
+	 *            the requested url
+	 * @param latency
+	 *            the time of the request (in ms)
+	 */
+	public synchronized void observe(String url, long latency) {
+		samples++;
+		update(host(url), latency);
+	}
+
+	/**
+	 * informs the model about an url fetched by a request of the specified
+	 * time: the request time is only an upper bound of the latency of each of
+	 * its hosts (the slowest one determines it), thus, it only lowers the
+	 * expectation of a known host, slow hosts are identified by their timeouts
+	 * (see {@link #timedOut(String, long)})
+	 *
+	 * @param url
+	 *            the requested url
+	 * @param latency
+	 *            the time of the whole request (in ms)
+	 */
+	public synchronized void completedWithin(String url, long latency) {
+		samples++;
+		String host = host(url);
+		Double expected = hosts.get(host);
+		if (expected == null || latency < expected) {
+			update(host, latency);
+		}
+	}
+
+	/**
+	 * informs the model about an url that could not be fetched within the
+	 * timeout
+	 *
+	 * @param url
+	 *            the requested url
+	 * @param timeout
+	 *            the applied timeout (in ms)
+	 */
+	public synchronized void timedOut(String url, long timeout) {
+		samples++;
+		timeouts++;
+		update(host(url), timeout);
+	}
+
+	private void update(String host, long latency) {
+		Double expected = hosts.get(host);
+		hosts.put(host, expected == null ? latency : expected + smoothing * (latency - expected));
+	}
+
+	/**
+	 * gets the fetch timeout of a single url
+	 *
+	 * @param url
+	 *            the url
+	 * @param maxTimeout
+	 *            the maximal timeout (in ms), i.e., the timeout of unknown
+	 *            hosts
+	 * @return the timeout (in ms)
+	 */
+	public synchronized long timeout(String url, long maxTimeout) {
+		long expected = expected(url);
+		if (expected < 0) {
+			return maxTimeout;
+		}
+		return Math.min(maxTimeout, Math.max(minTimeout, (long) Math.ceil(expected * headroom)));
+	}
+
+	/**
+	 * gets the fetch timeout of a request, i.e., the timeout of its slowest
+	 * host
+	 *
+	 * @param urls
+	 *            the urls of the request
+	 * @param maxTimeout
+	 *            the maximal timeout (in ms), i.e., the timeout of unknown
+	 *            hosts
+	 * @return the timeout (in ms)
+	 */
+	public synchronized long timeout(Collection<String> urls, long maxTimeout) {
+		long timeout = Math.min(minTimeout, maxTimeout);
+		for (String url : urls) {
+			timeout = Math.max(timeout, timeout(url, maxTimeout));
+		}
+		return timeout;
+	}
+
+	/**
+	 * splits the specified urls into groups of similar expected latency (the
+	 * timeouts within a group differ by less than a factor of two), small
+	 * groups are merged into the next slower one
+	 *
+	 * @param urls
+	 *            the urls of a batch
+	 * @param maxTimeout
+	 *            the maximal timeout (in ms), i.e., the timeout of unknown
+	 *            hosts
+	 * @return the groups, ordered from fast to slow
+	 */
+	public synchronized List<List<String>> group(Collection<String> urls, long maxTimeout) {
+		final Map<String, Long> timeouts = new LinkedHashMap<>(urls.size() * 2);
+		for (String url : urls) {
+			timeouts.put(url, timeout(url, maxTimeout));
+		}
+		List<String> sorted = new ArrayList<>(timeouts.keySet());
+		Collections.sort(sorted, new Comparator<String>() {
+			@Override
+			public int compare(String url1, String url2) {
+				return Long.compare(timeouts.get(url1), timeouts.get(url2));
+			}
+		});
+
+		List<List<String>> result = new ArrayList<>(maxGroups);
+		int start = 0;
+		for (int i = 0; i < sorted.size() && result.size() < maxGroups - 1; i++) {
+			boolean slower = timeouts.get(sorted.get(i)) >= 2 * timeouts.get(sorted.get(start));
+			if (slower && i - start >= minGroupSize && sorted.size() - i >= minGroupSize) {
+				result.add(sorted.subList(start, i));
+				start = i;
+			}
+		}
+		if (start < sorted.size()) {
+			result.add(sorted.subList(start, sorted.size()));
+		}
+		groupedRequests++;
+		groups += result.size();
+		return result;
+	}
+
+	/**
+	 * gets the number of hosts in the model
+	 *
+	 * @return the number of known hosts
+	 */
+	public synchronized int hosts() {
+		return hosts.size();
+	}
+
+	/**
+	 * gets the number of unresolved urls reported so far
+	 *
+	 * @return the number of timeouts
+	 */
+	public synchronized long timeouts() {
+		return timeouts;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d hosts, %d samples (%d timeouts), %.2f requests per batch", hosts.size(), samples, timeouts,
+				groupedRequests == 0 ? 0 : groups / (double) groupedRequests);
+	}
+}
@@ -1,10 +1,21 @@
 package de.hpi.fgis.yql;
 
+import java.io.File;
+import java.io.IOException;
+
+import de.hpi.fgis.concurrency.AIMDThrottle;
 import de.hpi.fgis.concurrency.APIAccessRateLimitGuard;
+import de.hpi.fgis.concurrency.ConcurrencyLimiter;
+import de.hpi.fgis.concurrency.MappedRateLimiter;
+import de.hpi.fgis.concurrency.RateLimiter;
 
 /**
  * this singleton enables the execution of several public YQL API that underlies
- * a rate limits (i.e., 2,000 requests/hour per IP),
+ * a rate limits (i.e., 2,000 requests/hour per IP), unused requests are banked
+ * up to the hourly quota (see {@link RateLimiter}), the request rate adapts to
+ * throttling responses (see {@link AIMDThrottle} and {@link YQLException}) and
+ * the number of outstanding requests to the latency (see
+ * {@link ConcurrencyLimiter})
  * 
  * @see <a href='http://developer.yahoo.com/yql/guide/usage_info_limits.html'>
  *      http://developer.yahoo.com/yql/guide/usage_info_limits.html </a>
@@ -12,20 +23,84 @@ import de.hpi.fgis.concurrency.APIAccessRateLimitGuard;
  * 
  */
 public class YQLAccessRateLimitGuard extends APIAccessRateLimitGuard {
-	private static YQLAccessRateLimitGuard INSTANCE = new YQLAccessRateLimitGuard();
+	/**
+	 * the number of requests of one IP per window: 2000 requests per hour,
+	 * 50 requests as buffer
+	 */
+	public static final int QUOTA = 1950;
+	/**
+	 * the window of the quota (1h)
+	 */
+	public static final long WINDOW = 3600000;
+	/**
+	 * the maximal rate of requests (in requests per second), i.e., after an
+	 * idle period
+	 */
+	public static final double MAX_RATE = 5;
+	/**
+	 * the minimal rate of requests if the endpoint signals throttling (a
+	 * quarter of the average rate of the quota, in requests per second)
+	 */
+	public static final double MIN_RATE = QUOTA / (WINDOW / 1000D) / 4;
+	/**
+	 * the maximal number of outstanding requests of one endpoint
+	 */
+	public static final int MAX_IN_FLIGHT = 64;
+	// created on demand (i.e., the endpoint factories do not start a dispatcher)
+	private static YQLAccessRateLimitGuard INSTANCE = null;
 
 	/**
 	 * gets the {@link YQLAccessRateLimitGuard} singleton instance
 	 * 
 	 * @return the {@link YQLAccessRateLimitGuard} singleton instance
 	 */
-	public static YQLAccessRateLimitGuard getInstance() {
+	public static synchronized YQLAccessRateLimitGuard getInstance() {
+		if (INSTANCE == null) {
+			INSTANCE = new YQLAccessRateLimitGuard();
+		}
 		return INSTANCE;
 	}
 
+	/**
+	 * creates an endpoint w/ the budget of one IP (i.e., for a pool of
+	 * endpoints, see {@link APIAccessRateLimitGuard#addEndpoint(Endpoint)})
+	 * 
+	 * @param baseURI
+	 *            the base uri of the YQL endpoint
+	 * @param client
+	 *            the client accessing the endpoint
+	 * @return the endpoint
+	 */
+	public static <C> Endpoint<C> endpoint(String baseURI, C client) {
+		return new Endpoint<>(baseURI, new RateLimiter(QUOTA, WINDOW), client).throttle(new AIMDThrottle(MAX_RATE, MIN_RATE))
+				.concurrency(new ConcurrencyLimiter(8, 1, MAX_IN_FLIGHT));
+	}
+
+	/**
+	 * creates an endpoint w/ the budget of one IP that is shared by all
+	 * processes on this host using the same ledger folder (see
+	 * {@link MappedRateLimiter}), the budget consumed by previous runs is
+	 * respected
+	 * 
+	 * @param baseURI
+	 *            the base uri of the YQL endpoint
+	 * @param client
+	 *            the client accessing the endpoint
+	 * @param ledgerFolder
+	 *            the folder containing the ledger files (one per endpoint)
+	 * @return the endpoint
+	 * @throws IOException
+	 *             if the ledger cannot be opened
+	 */
+	public static <C> Endpoint<C> endpoint(String baseURI, C client, String ledgerFolder) throws IOException {
+		String name = baseURI == null ? "default" : baseURI.replaceAll("\\W+", "_");
+		return new Endpoint<>(baseURI, MappedRateLimiter.getInstance(new File(ledgerFolder, "yql_" + name + ".ledger").getPath(), QUOTA, WINDOW), client)
+				.throttle(new AIMDThrottle(MAX_RATE, MIN_RATE))
+				.concurrency(new ConcurrencyLimiter(8, 1, MAX_IN_FLIGHT));
+	}
+
 	private YQLAccessRateLimitGuard() {
-		// 2000 requests in 3 600 000ms (1h) --> 1800ms delay + 46ms as buffer
-		// (thus max. requests ~1950)
-		super(10, 1846);
+		super(10);
+		addEndpoint(endpoint(null, null));
 	}
 }
@@ -6,20 +6,41 @@ import java.io.InputStream;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import com.mongodb.DBObject;
 import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.FluentStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.Response;
 
+import de.hpi.fgis.concurrency.AsyncResultFuture;
 import de.hpi.fgis.concurrency.AsyncResultHandler;
+import de.hpi.fgis.concurrency.AsyncStreamHandler;
 
 /**
  * this abstract class provides different possibilities to access the <a
@@ -33,6 +54,23 @@ public abstract class YQLApi implements Closeable {
 	private final String yqlBaseURI;
 	private final AsyncHttpClient asyncClient;
 	protected static final Logger LOG = Logger.getLogger(YQLApi.class.getName());
+	// http status codes signaling an exceeded rate limit (999 is used by Yahoo!)
+	private static final Set<Integer> THROTTLING_STATUS = new HashSet<>(Arrays.asList(429, 503, 999));
+	private static final Pattern THROTTLING_DESCRIPTION = Pattern.compile("rate limit|too many requests|throttl", Pattern.CASE_INSENSITIVE);
+	// informs the handlers of asynchronous requests (null --> the http i/o or parser threads)
+	private volatile Executor executor = null;
+	// parse the responses while they are received, every parser blocks until the body parts of its response arrive
+	private final ThreadPoolExecutor parsers = new ThreadPoolExecutor(0, YQLAccessRateLimitGuard.MAX_IN_FLIGHT, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "YQLApi-parser-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 
 	protected YQLApi() {
 		this("http://query.yahooapis.com/v1/public/yql?");
@@ -40,8 +78,8 @@ public abstract class YQLApi implements Closeable {
 
 	protected YQLApi(String baseURI) {
 		this.yqlBaseURI = baseURI;
-		asyncClient = new AsyncHttpClient();
-		
+		// the (large) results are transferred gzip compressed if possible
+		asyncClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setCompressionEnabled(true).build());
 	}
 
 	/**
@@ -56,6 +94,45 @@ public abstract class YQLApi implements Closeable {
 	 */
 	protected abstract DBObject parse(InputStream is) throws DeserializationException;
 
+	/**
+	 * parse the returned result stream provided by the YQL REST API, all items
+	 * at the specified path are handed to the item handler (and are not part of
+	 * the returned data object)<br/>
+	 * this default implementation parses the complete data and detaches the
+	 * items afterwards, streaming implementations should override it
+	 * 
+	 * @param is
+	 *            the data stream to be parsed
+	 * @param itemPath
+	 *            the attribute names leading to the items (i.e. "query",
+	 *            "results", "resources")
+	 * @param itemHandler
+	 *            the handler to be informed about each item
+	 * @return the actual data object (w/o the items)
+	 * 
+	 * @throws DeserializationException
+	 *             if the deserialization did not working properly
+	 */
+	protected DBObject parse(InputStream is, String[] itemPath, AsyncStreamHandler<?> itemHandler) throws DeserializationException {
+		DBObject data = parse(is);
+		DBObject parent = data;
+		for (int i = 0; parent != null && i < itemPath.length - 1; i++) {
+			Object child = parent.get(itemPath[i]);
+			parent = child instanceof DBObject ? (DBObject) child : null;
+		}
+		if (parent != null && parent.containsField(itemPath[itemPath.length - 1])) {
+			Object items = parent.removeField(itemPath[itemPath.length - 1]);
+			if (items instanceof List) {
+				for (Object item : (List<?>) items) {
+					itemHandler.onItem(item);
+				}
+			} else {
+				itemHandler.onItem(items);
+			}
+		}
+		return data;
+	}
+
 	/**
 	 * gets the format string used/provided by the YQL endpoint
 	 * 
@@ -63,6 +140,60 @@ public abstract class YQLApi implements Closeable {
 	 */
 	protected abstract String format();
 
+	/**
+	 * set the executor that handles the results of asynchronous requests and
+	 * parses the responses that have not been streamed (see
+	 * {@link #parsers(int)}), (default: <code>null</code>, the http i/o or
+	 * parser threads), thus, the i/o threads only receive the responses while
+	 * slow result handling (i.e., database writes) is done by the workers
+	 * (see {@link de.hpi.fgis.concurrency.MeteredExecutor}), rejected tasks
+	 * are executed by the calling thread<br/>
+	 * the workers never wait for a response that is still being received
+	 * 
+	 * @param executor
+	 *            the worker executor
+	 * @return this {@link YQLApi} instance
+	 */
+	public YQLApi executor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * get the executor that handles the results of asynchronous requests
+	 * 
+	 * @return the worker executor (or <code>null</code>)
+	 */
+	public Executor executor() {
+		return executor;
+	}
+
+	/**
+	 * set the maximal number of streamed responses that are parsed while they
+	 * are received (default: the maximal number of outstanding requests of a
+	 * YQL endpoint, see {@link YQLAccessRateLimitGuard#MAX_IN_FLIGHT}), each
+	 * one has its own parser thread, further responses are parsed after their
+	 * completion (by the {@link #executor(Executor)})
+	 * 
+	 * @param maxParsers
+	 *            the maximal number of parser threads
+	 * @return this {@link YQLApi} instance
+	 */
+	public YQLApi parsers(int maxParsers) {
+		parsers.setMaximumPoolSize(maxParsers);
+		return this;
+	}
+
+	/**
+	 * get the maximal number of streamed responses that are parsed while they
+	 * are received
+	 * 
+	 * @return the maximal number of parser threads
+	 */
+	public int parsers() {
+		return parsers.getMaximumPoolSize();
+	}
+
 	/**
 	 * perform the specified query
 	 * 
@@ -98,6 +229,20 @@ public abstract class YQLApi implements Closeable {
 		queryAsync(query, (Collection<Entry<String, String>>) null, false, asyncResultHandler);
 	}
 
+	/**
+	 * perform the specified query asynchronously
+	 * 
+	 * @param query
+	 *            the query to be executed (for instance
+	 *            "select * from weather.forecast where woeid=638242" gets the
+	 *            weather forecast for Berlin, Germany)
+	 * @return the pending results, cancelling the future aborts the request,
+	 *         network errors complete it exceptionally
+	 */
+	public CompletableFuture<DBObject> queryAsync(String query) {
+		return queryFuture(query, (Collection<Entry<String, String>>) null);
+	}
+
 	/**
 	 * perform the specified query
 	 * 
@@ -156,6 +301,60 @@ public abstract class YQLApi implements Closeable {
 						tableName, tableDefURI)), false, asyncResultHandler);
 	}
 
+	/**
+	 * perform the specified query asynchronously
+	 * 
+	 * @param query
+	 *            the query to be executed
+	 * @param tableName
+	 *            name of the custom datatable used in the query (i.e.
+	 *            "weather")
+	 * @param tableDefURI
+	 *            url of the table definition file
+	 * @return the pending results, cancelling the future aborts the request,
+	 *         network errors complete it exceptionally
+	 */
+	public CompletableFuture<DBObject> queryAsync(String query, String tableName, String tableDefURI) {
+		return queryFuture(query,
+				Arrays.asList((Entry<String, String>) new SimpleEntry<>(
+						tableName, tableDefURI)));
+	}
+
+	/**
+	 * perform the specified query asynchronously via asyncStreamHandler, every
+	 * result item (i.e., each element of "results/resources") is handed to the
+	 * handler as soon as it is parsed<br/>
+	 * the response is parsed by a parser thread while it is received, i.e.,
+	 * the body parts are released as soon as they are parsed (if all parsers
+	 * are busy, see {@link #parsers(int)}, it is parsed after its completion),
+	 * the remaining results are handled by the worker executor (see
+	 * {@link #executor(Executor)})
+	 * 
+	 * @param query
+	 *            the query to be executed
+	 * @param tableName
+	 *            name of the custom datatable used in the query (i.e.
+	 *            "weather")
+	 * @param tableDefURI
+	 *            url of the table definition file
+	 * @param itemName
+	 *            the name of the result items (i.e. "resources")
+	 * @param asyncStreamHandler
+	 *            an asynchronous result processor that gets informed about
+	 *            every result item and finally about the remaining results
+	 * @return the pending request (cancelling it aborts the request, the
+	 *         handler is informed via
+	 *         {@link AsyncStreamHandler#onThrowable(Throwable)})
+	 * @throws IOException
+	 *             if some network errors occur
+	 */
+	public Future<DBObject> queryAsync(String query, String tableName, String tableDefURI, String itemName, AsyncStreamHandler<DBObject> asyncStreamHandler)
+			throws IOException {
+		return queryAsync(query,
+				Arrays.asList((Entry<String, String>) new SimpleEntry<>(
+						tableName, tableDefURI)), false, itemName, asyncStreamHandler);
+	}
+
 	/**
 	 * perform the specified query
 	 * 
@@ -209,6 +408,22 @@ public abstract class YQLApi implements Closeable {
 		queryAsync(query, tables.entrySet(), false, asyncResultHandler);
 	}
 
+	/**
+	 * perform the specified query asynchronously
+	 * 
+	 * @param query
+	 *            the query to be executed
+	 * @param tables
+	 *            a map containing all custom datatable definitions -- keys:
+	 *            name of the table used in the query (i.e. "weather"), values:
+	 *            url of the table definition file
+	 * @return the pending results, cancelling the future aborts the request,
+	 *         network errors complete it exceptionally
+	 */
+	public CompletableFuture<DBObject> queryAsync(String query, Map<String, String> tables) {
+		return queryFuture(query, tables.entrySet());
+	}
+
 	/**
 	 * perform the specified query and return additional meta information
 	 * 
@@ -260,39 +475,189 @@ public abstract class YQLApi implements Closeable {
 		return extractResults(queryMeta(query, tableDefs, false));
 	}
 	
-	private void queryAsync(final String query,
+	private CompletableFuture<DBObject> queryFuture(String query, Collection<Entry<String, String>> tableDefs) {
+		AsyncResultFuture<DBObject> future = new AsyncResultFuture<>();
+		try {
+			future.attach(queryAsync(query, tableDefs, false, future.handler()));
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private Future<DBObject> queryAsync(final String query,
 			final Collection<Entry<String, String>> tableDefs, boolean debug, final AsyncResultHandler<DBObject> asyncResultHandler)
 			throws IOException {
 		// asyncClient.prepareGet(yqlBaseURI) does not work with parameter definitions
-		asyncClient.preparePost(yqlBaseURI).setParameters(toParameterMap(query, tableDefs, debug)).execute(new AsyncCompletionHandler<DBObject>(){
+		return asyncClient.preparePost(yqlBaseURI).setParameters(toParameterMap(query, tableDefs, debug)).execute(new AsyncCompletionHandler<DBObject>(){
 
 		    @Override
-		    public DBObject onCompleted(Response response) {
-		    	DBObject data;
-		    	try {
-					data = extractResults(parse(response.getResponseBodyAsStream()));
-			    	asyncResultHandler.onCompleted(data);
-				} catch (IOException  e) {
-					// forward exception w/o event
-			    	asyncResultHandler.onThrowable(e);
-				} catch (DeserializationException e) {
-					// forward exception w/o event
-			    	asyncResultHandler.onThrowable(e);
-				}
-		    	
+		    public DBObject onCompleted(final Response response) {
+		    	handOver(new Runnable() {
+		    		@Override
+		    		public void run() {
+		    			DBObject data;
+		    			try {
+		    				checkStatus(response);
+		    				data = parse(response.getResponseBodyAsStream());
+		    				checkEnvelope(data, response.getStatusCode());
+		    				asyncResultHandler.onCompleted(extractResults(data));
+		    			} catch (IOException  e) {
+		    				// forward exception w/o event
+		    				asyncResultHandler.onThrowable(e);
+		    			} catch (DeserializationException e) {
+		    				// forward exception w/o event
+		    				asyncResultHandler.onThrowable(e);
+		    			}
+		    		}
+		    	});
 		        return null;
 		    }
 
 		    @Override
-		    public void onThrowable(Throwable t){
+		    public void onThrowable(final Throwable t){
 		    	//asyncHttpClient.close();
-		    	asyncResultHandler.onThrowable(t);
+		    	handOver(new Runnable() {
+		    		@Override
+		    		public void run() {
+		    			asyncResultHandler.onThrowable(t);
+		    		}
+		    	});
 		    }
 		    
 		    
 		});
 	}
 
+	private Future<DBObject> queryAsync(final String query,
+			final Collection<Entry<String, String>> tableDefs, boolean debug, String itemName, final AsyncStreamHandler<DBObject> asyncStreamHandler)
+			throws IOException {
+		final String[] itemPath = new String[] {"query", "results", itemName};
+		// asyncClient.prepareGet(yqlBaseURI) does not work with parameter definitions
+		return asyncClient.preparePost(yqlBaseURI).setParameters(toParameterMap(query, tableDefs, debug)).execute(new AsyncHandler<DBObject>(){
+			private final BodyPartInputStream body = new BodyPartInputStream();
+			// the response is parsed exactly once: while it is received (by a parser thread) or after its completion
+			private final AtomicBoolean parsing = new AtomicBoolean();
+			// a parser thread parses the body while it is received
+			private volatile boolean streaming = false;
+			private volatile int status = 0;
+
+			@Override
+			public STATE onStatusReceived(HttpResponseStatus responseStatus) {
+				status = responseStatus.getStatusCode();
+				try {
+					// the parser blocks until the body parts arrive --> its own thread, not a worker of the executor
+					parsers.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (parsing.compareAndSet(false, true)) {
+								process();
+							}
+						}
+					});
+					streaming = true;
+				} catch (RejectedExecutionException e) {
+					// i.e., all parsers are busy --> parsed after the completion
+				}
+				return STATE.CONTINUE;
+			}
+
+			@Override
+			public STATE onHeadersReceived(HttpResponseHeaders headers) {
+				return STATE.CONTINUE;
+			}
+
+			@Override
+			public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) {
+				body.add(bodyPart.getBodyPartBytes());
+				return STATE.CONTINUE;
+			}
+
+			@Override
+			public DBObject onCompleted() {
+				body.complete();
+				if (!streaming && parsing.compareAndSet(false, true)) {
+					handOver(new Runnable() {
+						@Override
+						public void run() {
+							process();
+						}
+					});
+				}
+				return null;
+			}
+
+			@Override
+			public void onThrowable(final Throwable t) {
+				body.fail(t);
+				if (parsing.compareAndSet(false, true)) {
+					handOver(new Runnable() {
+						@Override
+						public void run() {
+							asyncStreamHandler.onThrowable(t);
+						}
+					});
+				}
+			}
+
+			private void process() {
+				try {
+					checkStatus(status, body);
+					// the items are handed over while parsing
+					DBObject remaining = parse(body, itemPath, asyncStreamHandler);
+					checkEnvelope(remaining, status);
+					final DBObject results = extractResults(remaining);
+					finish(new Runnable() {
+						@Override
+						public void run() {
+							asyncStreamHandler.onCompleted(results);
+						}
+					});
+				} catch (IOException | DeserializationException e) {
+					// forward the transfer failure (if any) w/o event
+					final Throwable t = body.failure() != null ? body.failure() : e;
+					finish(new Runnable() {
+						@Override
+						public void run() {
+							asyncStreamHandler.onThrowable(t);
+						}
+					});
+				} finally {
+					body.close();
+				}
+			}
+
+			/**
+			 * the result handling of a streamed response is done by the
+			 * executor (i.e., the parser thread is released right away)
+			 */
+			private void finish(Runnable handling) {
+				if (streaming) {
+					handOver(handling);
+				} else {
+					handling.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * executes the response processing by the worker executor (if any)
+	 */
+	private void handOver(Runnable processing) {
+		Executor executor = this.executor;
+		if (executor == null) {
+			processing.run();
+			return;
+		}
+		try {
+			executor.execute(processing);
+		} catch (RejectedExecutionException e) {
+			// i.e., the executor has been shut down
+			processing.run();
+		}
+	}
+
 	private DBObject queryMeta(String query,
 			Collection<Entry<String, String>> tableDefs, boolean debug)
 			throws IOException, DeserializationException {
@@ -301,8 +666,11 @@ public abstract class YQLApi implements Closeable {
 		
 		InputStream in = null;
 		try {
+			checkStatus(response.get());
 			in = response.get().getResponseBodyAsStream();
-			return parse(in);
+			DBObject data = parse(in);
+			checkEnvelope(data, response.get().getStatusCode());
+			return data;
 		} catch (InterruptedException | ExecutionException e) {
 			throw new IOException("Unable to fetch date from YQL endpoint!" ,e);
 		} finally {
@@ -312,6 +680,63 @@ public abstract class YQLApi implements Closeable {
 		}
 	}
 	
+	/**
+	 * checks the http status of the response
+	 * 
+	 * @throws YQLException
+	 *             if the status signals an error (or throttling)
+	 */
+	private void checkStatus(Response response) throws IOException {
+		checkStatus(response.getStatusCode(), response.getResponseBodyAsStream());
+	}
+
+	/**
+	 * checks the http status of the response, the body is only read in case
+	 * of an error
+	 * 
+	 * @throws YQLException
+	 *             if the status signals an error (or throttling)
+	 */
+	private void checkStatus(int status, InputStream body) throws IOException {
+		if (status >= 200 && status < 300) {
+			return;
+		}
+		String description = null;
+		try {
+			description = errorDescription(parse(body));
+		} catch (DeserializationException | RuntimeException e) {
+			// no error envelope
+		}
+		throw error(status, description);
+	}
+
+	/**
+	 * checks whether the (successfully parsed) response is an error envelope
+	 * (i.e., {"error":{"description":"..."}})
+	 * 
+	 * @throws YQLException
+	 *             if the data describes an error
+	 */
+	private void checkEnvelope(DBObject data, int status) throws YQLException {
+		String description = errorDescription(data);
+		if (description != null) {
+			throw error(status, description);
+		}
+	}
+
+	private static String errorDescription(DBObject data) {
+		if (data != null && data.get("error") instanceof DBObject) {
+			Object description = ((DBObject) data.get("error")).get("description");
+			return description == null ? "unknown error" : description.toString();
+		}
+		return null;
+	}
+
+	private static YQLException error(int status, String description) {
+		boolean throttled = THROTTLING_STATUS.contains(status) || (description != null && THROTTLING_DESCRIPTION.matcher(description).find());
+		return new YQLException("YQL query failed (status " + status + ")" + (description == null ? "" : ": " + description), status, throttled);
+	}
+
 	private DBObject extractResults(DBObject completeResult) {
 		if(completeResult==null || !completeResult.containsField("query") || !((DBObject) completeResult.get("query")).containsField("results")) {
 			return null;
@@ -353,5 +778,6 @@ public abstract class YQLApi implements Closeable {
 	@Override
 	public void close() {
 		asyncClient.close();
+		parsers.shutdown();
 	}
 }
\ No newline at end of file
@@ -1,12 +1,18 @@
 package de.hpi.fgis.yql;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.util.logging.Level;
 
 import com.mongodb.DBObject;
-import com.mongodb.util.JSON;
 import com.mongodb.util.JSONParseException;
 
+import de.hpi.fgis.concurrency.AsyncStreamHandler;
+import de.hpi.fgis.json.JSONStreamReader;
+import de.hpi.fgis.json.JSONStreamReader.ItemListener;
+
 /**
  * this class provides the possibility to access the <a
  * href="http://developer.yahoo.com/yql/">Yahoo! Query Language (YQL)</a>
@@ -16,6 +22,10 @@ import com.mongodb.util.JSONParseException;
  * 
  */
 public class YQLApiJSON extends YQLApi {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// max. number of characters of erroneous responses to be logged
+	private static final int MAX_LOGGED_CHARS = 1024;
+
 	/**
 	 * create a new YQL API access instance that uses JSON serialization and the public YQL endpoint
 	 */
@@ -23,6 +33,14 @@ public class YQLApiJSON extends YQLApi {
 		super();
 	}
 
+	/**
+	 * create a new YQL API access instance that uses JSON serialization and the specified endpoint
+	 * @param baseURI the base uri of the YQL endpoint (i.e., the one of a local stand-in server for load tests)
+	 */
+	public YQLApiJSON(String baseURI) {
+		super(baseURI);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see de.hpi.fgis.yql.YQLApi#format()
@@ -38,20 +56,40 @@ public class YQLApiJSON extends YQLApi {
 	 */
 	@Override
 	protected DBObject parse(InputStream jsonIn) throws DeserializationException {
-		String data = convertStreamToString(jsonIn, "UTF-8");
+		return parse(jsonIn, null, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see de.hpi.fgis.yql.YQLApi#parse(java.io.InputStream, java.lang.String[], de.hpi.fgis.concurrency.AsyncStreamHandler)
+	 */
+	@Override
+	protected DBObject parse(InputStream jsonIn, String[] itemPath, final AsyncStreamHandler<?> itemHandler) throws DeserializationException {
+		// parse the stream incrementally (w/o creating a string representation of the whole response)
+		JSONStreamReader reader = new JSONStreamReader(new InputStreamReader(jsonIn, UTF8));
 		try {
-			if(data==null || !data.matches("(?s)(?m)^[\\s]*\\{.*")) {
+			// only validate the leading bytes
+			if(reader.peekFirst()!='{') {
+				String prefix = reader.readPrefix(MAX_LOGGED_CHARS);
 				// log the erroneous data
-				LOG.info("Ignoring illegal serialization format (expecting proper JSON): " + data);
+				LOG.info("Ignoring illegal serialization format (expecting proper JSON): " + prefix);
 				
-				throw new DeserializationException("Unable to parse serialization format (expecting proper JSON): \n" + data);
+				throw new DeserializationException("Unable to parse serialization format (expecting proper JSON): \n" + prefix);
+			}
+			if(itemHandler==null) {
+				return (DBObject) reader.read();
 			}
-			return (DBObject) JSON.parse(data);
+			return (DBObject) reader.read(itemPath, new ItemListener() {
+				@Override
+				public void onItem(Object item) {
+					itemHandler.onItem(item);
+				}
+			});
 		} catch (JSONParseException e) {
-			LOG.log(Level.INFO, "Unable to parse JSON string: " + data, e);
-			throw new DeserializationException("Unable to parse serialization format (expecting proper JSON): \n" + data, e);
-			
+			LOG.log(Level.INFO, "Unable to parse JSON data", e);
+			throw new DeserializationException("Unable to parse serialization format (expecting proper JSON)", e);
+		} catch (IOException e) {
+			throw new DeserializationException("Unable to read JSON data", e);
 		}
-		
 	}
 }
@@ -1,10 +1,18 @@
 package de.hpi.fgis.yql;
 
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.TreeMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -16,6 +24,8 @@ import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 
+import de.hpi.fgis.concurrency.AsyncStreamHandler;
+
 /**
  * this class provides the possibility to access the <a
  * href="http://developer.yahoo.com/yql/">Yahoo! Query Language (YQL)</a>
@@ -25,11 +35,37 @@ import com.mongodb.DBObject;
  * 
  */
 public class YQLApiXML extends YQLApi {
+	private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+	private final XMLInputFactory staxFactory;
+	private final DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
+
 	/**
 	 * create a new YQL API access instance that uses XML serialization and the public YQL endpoint
 	 */
 	public YQLApiXML() {
 		super();
+		staxFactory = createStAXFactory();
+	}
+
+	/**
+	 * create a new YQL API access instance that uses XML serialization and the specified endpoint
+	 * @param baseURI the base uri of the YQL endpoint (i.e., the one of a local stand-in server for load tests)
+	 */
+	public YQLApiXML(String baseURI) {
+		super(baseURI);
+		staxFactory = createStAXFactory();
+	}
+
+	private static XMLInputFactory createStAXFactory() {
+		XMLInputFactory staxFactory = XMLInputFactory.newInstance();
+		// behave like the (default) DOM parser
+		staxFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		staxFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		if (staxFactory.isPropertySupported(REPORT_CDATA)) {
+			// CDATA sections are separate nodes in the DOM
+			staxFactory.setProperty(REPORT_CDATA, true);
+		}
+		return staxFactory;
 	}
 
 	/*
@@ -49,16 +85,139 @@ public class YQLApiXML extends YQLApi {
 	 */
 	@Override
 	protected DBObject parse(InputStream xmlIn) {
+		try {
+			return parseStAX(xmlIn, null, null);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Unable to parse XML!", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see de.hpi.fgis.yql.YQLApi#parse(java.io.InputStream, java.lang.String[], de.hpi.fgis.concurrency.AsyncStreamHandler)
+	 */
+	@Override
+	protected DBObject parse(InputStream xmlIn, String[] itemPath, AsyncStreamHandler<?> itemHandler) throws DeserializationException {
+		try {
+			return parseStAX(xmlIn, itemPath, itemHandler);
+		} catch (XMLStreamException e) {
+			throw new DeserializationException("Unable to parse serialization format (expecting proper XML)", e);
+		}
+	}
+
+	/**
+	 * converts the XML data into its {@link DBObject} representation in a
+	 * single pass (w/o building a DOM), the result equals the one of
+	 * {@link YQLApiXML#parseDOM(InputStream)}
+	 *
+	 * @param xmlIn
+	 *            the data stream to be parsed
+	 * @param itemPath
+	 *            the element names leading to the items that are handed to the
+	 *            item handler instead of being part of the result (or
+	 *            <code>null</code>)
+	 * @param itemHandler
+	 *            the item handler (or <code>null</code>)
+	 * @return the actual data object
+	 * @throws XMLStreamException
+	 *             if the data is not well-formed
+	 */
+	protected DBObject parseStAX(InputStream xmlIn, String[] itemPath, AsyncStreamHandler<?> itemHandler) throws XMLStreamException {
+		XMLStreamReader reader;
+		synchronized (staxFactory) {
+			reader = staxFactory.createXMLStreamReader(xmlIn);
+		}
+
+		DBObject data = new BasicDBObject();
+		Deque<Frame> stack = new ArrayDeque<>();
+		StringBuilder text = new StringBuilder();
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (stack.isEmpty() && event != XMLStreamConstants.START_ELEMENT) {
+					// ignore everything outside of the document element
+					continue;
+				}
+				switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (!stack.isEmpty()) {
+						flushText(stack.peek().content, text);
+					}
+					Frame frame = new Frame(reader.getLocalName());
+					// the DOM lists attributes ordered by name
+					TreeMap<String, String> attributes = new TreeMap<>();
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						attributes.put(attributeName(reader, i), reader.getAttributeValue(i));
+					}
+					for (String name : attributes.keySet()) {
+						putValue(frame.content, name, attributes.get(name));
+					}
+					stack.push(frame);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					text.append(reader.getText());
+					break;
+				case XMLStreamConstants.CDATA:
+					flushText(stack.peek().content, text);
+					putValue(stack.peek().content, "#cdata-section", reader.getText());
+					break;
+				case XMLStreamConstants.COMMENT:
+					flushText(stack.peek().content, text);
+					putValue(stack.peek().content, "#comment", reader.getText());
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					flushText(stack.peek().content, text);
+					putValue(stack.peek().content, reader.getPITarget(), reader.getPIData());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					Frame done = stack.peek();
+					flushText(done.content, text);
+					boolean isItem = itemHandler != null && isItemPath(stack, itemPath);
+					stack.pop();
+					if (done.content.size() > 0) {
+						Object value = done.content;
+						if (done.content.size() == 1 && done.content.containsField("content")) {
+							value = done.content.get("content");
+						}
+						if (isItem) {
+							itemHandler.onItem(value);
+						} else {
+							put(stack.isEmpty() ? data : stack.peek().content, done.name, value);
+						}
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return data;
+	}
+
+	/**
+	 * converts the XML data into its {@link DBObject} representation via DOM
+	 *
+	 * @param xmlIn
+	 *            the data stream to be parsed
+	 * @return the actual data object
+	 */
+	protected DBObject parseDOM(InputStream xmlIn) {
 		// inspired by Costis Aivalis and Nathan Hughes:
 		// http://stackoverflow.com/a/7373596/2047219
 
 		Document dom;
-		// Make an instance of the DocumentBuilderFactory
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 
 		try {
 			// use the factory to take an instance of the document builder
-			DocumentBuilder db = dbf.newDocumentBuilder();
+			DocumentBuilder db;
+			synchronized (domFactory) {
+				db = domFactory.newDocumentBuilder();
+			}
 
 			// parse using the builder to get the DOM mapping of the XML file
 			dom = db.parse(xmlIn);
@@ -76,6 +235,45 @@ public class YQLApiXML extends YQLApi {
 		}
 	}
 
+	private static String attributeName(XMLStreamReader reader, int i) {
+		String prefix = reader.getAttributePrefix(i);
+		if (prefix == null || prefix.isEmpty()) {
+			return reader.getAttributeLocalName(i);
+		}
+		return prefix + ":" + reader.getAttributeLocalName(i);
+	}
+
+	private static boolean isItemPath(Deque<Frame> stack, String[] itemPath) {
+		if (itemPath == null || stack.size() != itemPath.length) {
+			return false;
+		}
+		// the stack iterates from the innermost element to the document element
+		Iterator<Frame> it = stack.iterator();
+		for (int i = itemPath.length - 1; i >= 0; i--) {
+			if (!itemPath[i].equals(it.next().name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void flushText(DBObject sink, StringBuilder text) {
+		if (text.length() > 0) {
+			putValue(sink, "#text", text.toString());
+			text.setLength(0);
+		}
+	}
+
+	/**
+	 * adds a node value the same way {@link YQLApiXML#fill(DBObject, Node)}
+	 * does (i.e., ignoring blank values)
+	 */
+	private void putValue(DBObject sink, String field, String value) {
+		if (value != null && !value.trim().isEmpty()) {
+			put(sink, field, value);
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private void put(DBObject sink, String field, Object value) {
 		if ("#text".equals(field)) {
@@ -130,4 +328,16 @@ public class YQLApiXML extends YQLApi {
 			fill(sink, l.item(i));
 		}
 	}
+
+	/**
+	 * an element that is currently converted
+	 */
+	private static class Frame {
+		private final String name;
+		private final BasicDBObject content = new BasicDBObject();
+
+		Frame(String name) {
+			this.name = name;
+		}
+	}
 }
@@ -1,29 +1,57 @@
 package de.hpi.fgis.yql;
 
-import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import com.mongodb.DBObject;
 
 import de.hpi.fgis.concurrency.APIAccessRateLimitGuard.RateLimitedTask;
+import de.hpi.fgis.concurrency.AsyncResultFuture;
 import de.hpi.fgis.concurrency.AsyncResultHandler;
+import de.hpi.fgis.concurrency.AsyncStreamHandler;
+import de.hpi.fgis.concurrency.CircuitBreaker;
+import de.hpi.fgis.concurrency.CircuitOpenException;
+import de.hpi.fgis.concurrency.InFlightRegistry;
+import de.hpi.fgis.concurrency.LatencyWindow;
+import de.hpi.fgis.concurrency.Quota;
+import de.hpi.fgis.crawler.Crawler;
 import de.hpi.fgis.html.ContentExtractor;
 
 /**
  * this class utilizes the YQL API (JSON) to crawl the contents of a specified list of urls<br/>
- * additionally it resolves the redirects of specified url and keeps tract of the redirect chain
+ * additionally it resolves the redirects of specified url and keeps tract of the redirect chain<br/>
+ * optionally, slow requests are hedged (see {@link #hedging(double, double)})<br/>
+ * every table definition is guarded by a circuit breaker, if a table fails repeatedly its failover is used (see
+ * {@link #tables(String...)}), if all tables fail the requests are refused until the next probe (see {@link #unavailable()})<br/>
+ * optionally, the fetch timeouts are derived from the learned latency of the crawled hosts (see {@link #latencyModel(HostLatencyModel)})
  * @author tongr
  *
  */
-public class YQLCrawler implements Closeable {
+public class YQLCrawler implements Crawler {
 	
 	/**
 	 * this class represents the results of a {@link YQLCrawler} run
@@ -35,19 +63,58 @@ public class YQLCrawler implements Closeable {
 		private final Map<String, Map<String,String>> headers;
 		private final Map<String, String> contents;
 		private final Map<String, String> redirects;
+		private final Set<String> truncated;
+		private final Set<String> deadUrls;
+		private final long bytes;
 		
 		public CrawlingResults() {
 			this(new HashMap<String, Map<String,String>>(), new HashMap<String, String>(), new HashMap<String, String>());
 		}
 
 		public CrawlingResults(Map<String, Map<String,String>> headers, Map<String, String> contents, Map<String, String> redirects) {
+			this(headers, contents, redirects, new HashSet<String>(), length(contents));
+		}
+
+		/**
+		 * creates new results
+		 * @param headers the http header information (url -> header)
+		 * @param contents the contents (url -> content)
+		 * @param redirects the redirect information (original_url -> actual_url)
+		 * @param truncated the urls whose contents have been truncated
+		 * @param bytes the number of content bytes received for this batch
+		 */
+		public CrawlingResults(Map<String, Map<String,String>> headers, Map<String, String> contents, Map<String, String> redirects, Set<String> truncated, long bytes) {
+			this(headers, contents, redirects, truncated, new HashSet<String>(), bytes);
+		}
+
+		/**
+		 * creates new results
+		 * @param headers the http header information (url -> header)
+		 * @param contents the contents (url -> content)
+		 * @param redirects the redirect information (original_url -> actual_url)
+		 * @param truncated the urls whose contents have been truncated
+		 * @param deadUrls the (original) urls that could not be crawled since they break the requests
+		 * @param bytes the number of content bytes received for this batch
+		 */
+		public CrawlingResults(Map<String, Map<String,String>> headers, Map<String, String> contents, Map<String, String> redirects, Set<String> truncated, Set<String> deadUrls, long bytes) {
 			this.headers = headers;
+			this.deadUrls = deadUrls;
 			this.contents = contents;
 			this.redirects = redirects;
+			this.truncated = truncated;
+			this.bytes = bytes;
 			urls.addAll(this.headers.keySet());
 			urls.addAll(this.contents.keySet());
 		}
 
+		private static long length(Map<String, String> contents) {
+			long length = 0;
+			for(String content : contents.values()) {
+				length += content==null?0:content.length();
+			}
+			return length;
+		}
+
 		/**
 		 * the urls crawled resources
 		 * @return a set of crawled urls
@@ -78,9 +145,96 @@ public class YQLCrawler implements Closeable {
 		public Map<String, String> redirects() {
 			return redirects;
 		}
+		/**
+		 * checks whether the content of the specified url has been truncated (see {@link Crawler#maxContentLength(int)})
+		 * @param url the url
+		 * @return <code>true</code> if only a prefix of the content is available
+		 */
+		public boolean isTruncated(String url) {
+			return truncated.contains(url);
+		}
+		/**
+		 * the number of content bytes received for this batch (or characters if only decoded contents were available)
+		 * @return the number of received bytes
+		 */
+		public long bytes() {
+			return bytes;
+		}
+		/**
+		 * the requested urls that have been isolated as the cause of failing requests (see {@link YQLCrawler#bisectionBudget(int)}),
+		 * these urls should not be requested again
+		 * @return the dead urls
+		 */
+		public Set<String> deadUrls() {
+			return deadUrls;
+		}
 	}
-	private final YQLApiJSON api = new YQLApiJSON();
+	private static final Logger LOG = Logger.getLogger(YQLCrawler.class.getName());
+	// hedges of smaller batches are not split
+	private static final int MIN_SPLIT_SIZE = 10;
+	/**
+	 * the default data table definitions (the first one is preferred, the others are failovers):
+	 * store://wPdxHE6ILC1Ti4oCGOIs0v (faster) and the resources of
+	 * <a href='https://raw.github.com/tongr/yql-tables/master/data/data.headers.xml'>https://raw.github.com/tongr/yql-tables/master/data/data.headers.xml</a>
+	 */
+	public static final String[] TABLES = {"store://wPdxHE6ILC1Ti4oCGOIs0v", "https://raw.github.com/tongr/yql-tables/master/data/data.headers.xml"};
+	private final YQLApiJSON api;
+	// table definitions w/ circuit breakers
+	private final List<Table> tables = new CopyOnWriteArrayList<>();
+	private int circuitThreshold = 5;
+	private long circuitTimeout = 10000;
+	private long maxCircuitTimeout = 300000;
 	private long requestTimeout = 5000;
+	// per-host fetch latency (disabled by default --> one request w/ the request timeout per batch)
+	private volatile HostLatencyModel latencyModel = null;
+	// resource states of fetches aborted by the timeout
+	private static final Set<String> TIMEOUT_STATUS = new HashSet<>(Arrays.asList("408", "504"));
+	// error envelopes caused by the requested urls (i.e., a malformed url breaks the query), not by the table definition
+	private static final Set<Integer> ENVELOPE_STATUS = new HashSet<>(Arrays.asList(200, 400));
+	private static final Pattern URL_ERROR = Pattern.compile("(?i)\\b(invalid|malformed|illegal|bad)\\b[^:]*\\burls?\\b");
+	// outstanding batches and their overall deadline (incl. hedges and bisections)
+	private final InFlightRegistry inFlight = new InFlightRegistry();
+	private volatile long deadline = 60000;
+	private int maxContentLength = 1024*1024;
+	// hedging of slow requests (disabled by default)
+	private double hedgePercentile = -1;
+	private double hedgeBudget = 0;
+	private int hedgeMinSamples = 20;
+	private final LatencyWindow latencies = new LatencyWindow(200);
+	private ScheduledExecutorService hedgeTimer = null;
+	private long requests = 0;
+	private long hedges = 0;
+	private long hedgeWins = 0;
+	// isolation of urls breaking the requests
+	private int bisectionBudget = 16;
+	private long bisections = 0;
+	private long deadUrls = 0;
+	// the quota charged for additional requests of a batch (the guard only grants the first one)
+	private volatile Quota quota = null;
+
+	/**
+	 * creates a new crawler using the public YQL endpoint
+	 */
+	public YQLCrawler() {
+		this(new YQLApiJSON());
+	}
+
+	/**
+	 * creates a new crawler using the specified YQL endpoint
+	 * @param yqlBaseURI the base uri of the YQL endpoint (i.e., the one of a local stand-in server for load tests)
+	 */
+	public YQLCrawler(String yqlBaseURI) {
+		this(new YQLApiJSON(yqlBaseURI));
+	}
+
+	/**
+	 * creates a new crawler using the specified YQL api access (the api is closed with this crawler)
+	 * @param api the YQL api access
+	 */
+	public YQLCrawler(YQLApiJSON api) {
+		this.api = api;
+		tables(TABLES);
+	}
 
 	/**
 	 * crawls the specified urls and returns a map (actual_url -> content)
@@ -105,15 +259,24 @@ public class YQLCrawler implements Closeable {
 		Map<String, Map<String,String>> headerMap = new HashMap<>();
 		Map<String, String> contentMap = new HashMap<>();
 		Map<String, String> redirectSink = new HashMap<>();
+		Set<String> truncated = new HashSet<>();
+		long[] bytes = new long[1];
 		
-		// resources for the data table definition:
-		// https://raw.github.com/tongr/yql-tables/master/data/data.headers.xml
-		// alernatives:
+		// resources for the data table definition (see TABLES), alernatives:
 		// http://www.hpi.uni-potsdam.de/fileadmin/hpi/FG_Naumann/projekte/TwitCrawl/data.headers.small.xml
-		// store://wPdxHE6ILC1Ti4oCGOIs0v (faster)
-		DBObject results = api.query(createQuery(urls),
+		Table table = table();
+		final long timeout = timeout(urls);
+		final long start = System.currentTimeMillis();
+		DBObject results;
+		try {
+			results = api.query(createQuery(urls, timeout),
 								"DATA",
-								"store://wPdxHE6ILC1Ti4oCGOIs0v");
+								table.uri);
+		} catch (IOException | DeserializationException e) {
+			table.failed(e);
+			throw e;
+		}
+		table.breaker.succeeded();
 		
 		if(results!=null && results.containsField("resources") && results.get("resources") instanceof DBObject) {
 			results = (DBObject) results.get("resources");
@@ -133,7 +296,7 @@ public class YQLCrawler implements Closeable {
 			for(int i=0;i<resultList.size();i++) {
 				if(resultList.get(i)!=null && resultList.get(i) instanceof DBObject) {
 					DBObject resultItem = (DBObject) resultList.get(i);
-					if(extractContent(resultItem, contentMap)) {
+					if(extractContent(resultItem, contentMap, truncated, bytes)) {
 						extractHeader(resultItem, headerMap);
 						extractRedirects(resultItem, redirectSink);
 					}
@@ -142,7 +305,9 @@ public class YQLCrawler implements Closeable {
 			
 		}
 
-		return new CrawlingResults(headerMap, contentMap, redirectSink);
+		CrawlingResults crawlingResults = new CrawlingResults(headerMap, contentMap, redirectSink, truncated, bytes[0]);
+		observe(urls, crawlingResults, System.currentTimeMillis()-start, timeout);
+		return crawlingResults;
 	}
 	
 	/**
@@ -152,60 +317,328 @@ public class YQLCrawler implements Closeable {
 	 *            the urls to be crawled
 	 * @param asyncResultHandler
 	 *         an asynchronous result processor that gets informed if the results are available, whereas the crawling results include a mapping from an actual url (destination of one or more
-	 *         redirects from a source url) to the content of the actual page as well as redirect information (original_url -> actual_url)
+	 *         redirects from a source url) to the content of the actual page as well as redirect information (original_url -> actual_url),
+	 *         failing requests are bisected to isolate the urls breaking them (see {@link #bisectionBudget(int)})
 	 * @throws IOException in case of network problems
 	 */
+	@Override
 	public void crawlAsync(final Collection<String> urls, final AsyncResultHandler<CrawlingResults> asyncResultHandler) throws IOException {
+		crawlAsync(urls).whenComplete(new BiConsumer<CrawlingResults, Throwable>() {
+			@Override
+			public void accept(CrawlingResults data, Throwable t) {
+				if(t==null) {
+					asyncResultHandler.onCompleted(data);
+				} else {
+					asyncResultHandler.onThrowable(t);
+				}
+			}
+		});
+	}
+
+	/**
+	 * crawls the specified urls asynchronously (see {@link #crawlAsync(Collection, AsyncResultHandler)})
+	 * 
+	 * @param urls
+	 *            the urls to be crawled
+	 * @return the pending crawling results, cancelling the future aborts all pending requests of the
+	 *         batch (including hedges and bisections), network problems complete the future exceptionally,
+	 *         so does a {@link TimeoutException} after the deadline (see {@link #deadline(long)})
+	 */
+	@Override
+	public CompletableFuture<CrawlingResults> crawlAsync(Collection<String> urls) {
+		AsyncResultFuture<CrawlingResults> future = new AsyncResultFuture<>();
 		if(urls==null || urls.size()<=0) {
-			asyncResultHandler.onCompleted(new CrawlingResults());
-		}
-
-		api.queryAsync(createQuery(urls),
-				"DATA",
-				"store://wPdxHE6ILC1Ti4oCGOIs0v",
-				new AsyncResultHandler<DBObject>() {
-					@Override
-					public void onCompleted(DBObject results) {
-						Map<String, Map<String,String>> headerMap = new HashMap<>();
-						Map<String, String> contentMap = new HashMap<>();
-						Map<String, String> redirectSink = new HashMap<>();
-						
-						if(results!=null && results.containsField("resources") && results.get("resources") instanceof DBObject) {
-							results = (DBObject) results.get("resources");
-						} else {
-							results = null;
-						}
-						
-						if( results!=null ) {
-							List<?> resultList;
-							if (results  instanceof List) {
-								resultList = (List<?>) results;
-							} else {
-								// in case of only one value:
-								resultList = Arrays.asList(results);
-							}
-							
-							for(int i=0;i<resultList.size();i++) {
-								if(resultList.get(i)!=null && resultList.get(i) instanceof DBObject) {
-									DBObject resultItem = (DBObject) resultList.get(i);
-									
-									extractHeader(resultItem, headerMap);
-									extractContent(resultItem, contentMap);
-									extractRedirects(resultItem, redirectSink);
-								}
-							}
-							
-						}
-						
-						asyncResultHandler.onCompleted(new CrawlingResults(headerMap, contentMap, redirectSink));
-					}
+			future.complete(new CrawlingResults());
+			return future;
+		}
+		final BisectingBatch batch = new BisectingBatch(future.handler());
+		future.onCancel(new Runnable() {
+			@Override
+			public void run() {
+				batch.cancel();
+			}
+		});
+		inFlight.register(future, deadline());
+		try {
+			batch.start(new ArrayList<>(urls));
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
 
-					@Override
-					public void onThrowable(Throwable t) {
-						asyncResultHandler.onThrowable(t);
-					}
-			
-				});
+	/**
+	 * set the data table definitions, the first available one is used (the others are failovers):
+	 * a table is skipped while its circuit is open, i.e., after repeated failures
+	 * (see {@link #circuit(int, long, long)})
+	 * @param tableURIs the uris of the table definitions (see {@link #TABLES})
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public synchronized YQLCrawler tables(String... tableURIs) {
+		if(tableURIs==null || tableURIs.length==0) {
+			throw new IllegalArgumentException("At least one table definition is required");
+		}
+		List<Table> tables = new ArrayList<>(tableURIs.length);
+		for(String uri : tableURIs) {
+			tables.add(new Table(uri, new CircuitBreaker("YQL table " + uri).failureThreshold(circuitThreshold).openTimeout(circuitTimeout, maxCircuitTimeout)));
+		}
+		this.tables.clear();
+		this.tables.addAll(tables);
+		return this;
+	}
+	/**
+	 * get the data table definitions
+	 * @return the uris of the table definitions (in order of preference)
+	 */
+	public List<String> tables() {
+		List<String> uris = new ArrayList<>(tables.size());
+		for(Table table : tables) {
+			uris.add(table.uri);
+		}
+		return uris;
+	}
+	/**
+	 * set the circuit breakers of the table definitions (see {@link CircuitBreaker})
+	 * @param failureThreshold the number of consecutive failures that opens the circuit (default: 5)
+	 * @param openTimeout the time the circuit stays open before it is probed (default: 10s, doubled after every failing probe)
+	 * @param maxOpenTimeout the maximal time the circuit stays open (default: 5min)
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public synchronized YQLCrawler circuit(int failureThreshold, long openTimeout, long maxOpenTimeout) {
+		for(Table table : tables) {
+			table.breaker.failureThreshold(failureThreshold).openTimeout(openTimeout, maxOpenTimeout);
+		}
+		this.circuitThreshold = failureThreshold;
+		this.circuitTimeout = openTimeout;
+		this.maxCircuitTimeout = maxOpenTimeout;
+		return this;
+	}
+	/**
+	 * gets the time until the next request may be sent, i.e., the producer should pause while all
+	 * table definitions (or the endpoint) are unavailable
+	 * @return the delay (in ms), 0 if at least one table definition is available
+	 */
+	public long unavailable() {
+		long delay = Long.MAX_VALUE;
+		for(Table table : tables) {
+			delay = Math.min(delay, table.breaker.delay());
+		}
+		return delay;
+	}
+	/**
+	 * the states of the circuit breakers of all table definitions
+	 * @return the circuit statistics
+	 */
+	public String circuitStats() {
+		List<CircuitBreaker> breakers = new ArrayList<>(tables.size());
+		for(Table table : tables) {
+			breakers.add(table.breaker);
+		}
+		return breakers.toString();
+	}
+	/**
+	 * selects the first table definition w/ a closed circuit (or the one to be probed)
+	 */
+	private Table table() throws CircuitOpenException {
+		for(Table table : tables) {
+			if(table.breaker.allowRequest()) {
+				return table;
+			}
+		}
+		throw new CircuitOpenException("All YQL table definitions are unavailable " + circuitStats(), unavailable());
+	}
+
+	/**
+	 * set the maximal number of additional requests per batch used to isolate
+	 * the urls breaking a request: batches failing due to their urls (i.e., an
+	 * unparsable response or an error envelope describing an url) are split in halves until the
+	 * offending urls are identified (see {@link CrawlingResults#deadUrls()}),
+	 * other failures and an exhausted budget fail the batch (i.e., it is
+	 * retried), 0 disables the bisection
+	 * @param bisectionBudget the maximal number of additional requests per batch
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public synchronized YQLCrawler bisectionBudget(int bisectionBudget) {
+		this.bisectionBudget = bisectionBudget;
+		return this;
+	}
+	/**
+	 * get the maximal number of additional requests per batch used to isolate the urls breaking a request
+	 * @return the maximal number of additional requests per batch
+	 */
+	public synchronized int bisectionBudget() {
+		return bisectionBudget;
+	}
+	/**
+	 * the number of additional requests sent to isolate broken urls
+	 * @return the number of bisection requests
+	 */
+	public synchronized long bisections() {
+		return bisections;
+	}
+	/**
+	 * the number of urls isolated as the cause of failing requests
+	 * @return the number of dead urls
+	 */
+	public synchronized long deadUrls() {
+		return deadUrls;
+	}
+	/**
+	 * set the request quota charged for the additional requests of a batch (bisections, hedges and the split by
+	 * the {@link #latencyModel(HostLatencyModel)}), an additional request is only sent if it gets a permit (i.e.,
+	 * the limiter of the endpoint, see {@link de.hpi.fgis.concurrency.APIAccessRateLimitGuard.Endpoint#limiter()})
+	 * @param quota the request quota (<code>null</code> --> additional requests are not limited)
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public YQLCrawler quota(Quota quota) {
+		this.quota = quota;
+		return this;
+	}
+	/**
+	 * get the request quota charged for the additional requests of a batch
+	 * @return the request quota (or <code>null</code>)
+	 */
+	public Quota quota() {
+		return quota;
+	}
+	/**
+	 * acquires the permits of additional requests from the quota
+	 * @return <code>true</code> if all permits have been granted, otherwise none is charged
+	 */
+	private boolean charge(int requests) {
+		Quota quota = this.quota;
+		if(quota==null) {
+			return true;
+		}
+		for(int granted=0;granted<requests;granted++) {
+			if(!quota.tryAcquire()) {
+				for(;granted>0;granted--) {
+					quota.refund();
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * enables hedged requests: if a request takes longer than the specified
+	 * percentile of the recently observed latencies, the same urls are
+	 * requested again (split into two smaller requests if the budget allows),
+	 * the first complete response is used and the other request is cancelled
+	 * @param percentile the latency percentile triggering a hedge (i.e., 0.95), a negative value disables hedging
+	 * @param budget the maximal number of hedge requests relative to the number of regular requests (i.e., 0.05)
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public synchronized YQLCrawler hedging(double percentile, double budget) {
+		if(percentile>1 || budget<0) {
+			throw new IllegalArgumentException("Illegal hedging configuration (percentile=" + percentile + ", budget=" + budget + ")");
+		}
+		this.hedgePercentile = percentile;
+		this.hedgeBudget = budget;
+		if(percentile>=0 && hedgeTimer==null) {
+			hedgeTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "YQLCrawler-hedging");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return this;
+	}
+	/**
+	 * set the number of observed latencies required before the first hedge is sent
+	 * @param hedgeMinSamples the minimal number of observed latencies
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public synchronized YQLCrawler hedgeMinSamples(int hedgeMinSamples) {
+		this.hedgeMinSamples = hedgeMinSamples;
+		return this;
+	}
+	/**
+	 * the number of regular requests sent by {@link #crawlAsync(Collection, AsyncResultHandler)}
+	 * @return the number of regular requests
+	 */
+	public synchronized long requests() {
+		return requests;
+	}
+	/**
+	 * the number of additional (hedge) requests
+	 * @return the number of hedge requests
+	 */
+	public synchronized long hedges() {
+		return hedges;
+	}
+	/**
+	 * the number of batches completed by their hedge requests
+	 * @return the number of won hedges
+	 */
+	public synchronized long hedgeWins() {
+		return hedgeWins;
+	}
+	/**
+	 * a short summary of the hedging statistics
+	 * @return the hedging statistics
+	 */
+	public synchronized String hedgingStats() {
+		return String.format("%d requests, %d hedges (%.1f%%), %d won by hedges, p%.0f latency %d ms",
+				requests, hedges, requests==0?0:100D*hedges/requests, hedgeWins, hedgePercentile*100, latencies.percentile(Math.max(0, hedgePercentile)));
+	}
+
+	private synchronized ScheduledFuture<?> scheduleHedge(Runnable hedge) {
+		requests++;
+		if(hedgePercentile<0 || hedgeTimer==null || latencies.size()<hedgeMinSamples) {
+			return null;
+		}
+		return hedgeTimer.schedule(hedge, latencies.percentile(hedgePercentile), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * reserves up to maxRequests hedge requests from the budget
+	 * @return the number of granted hedge requests
+	 */
+	private synchronized int reserveHedges(int maxRequests) {
+		for(int n=maxRequests;n>0;n--) {
+			if(hedges+n <= hedgeBudget*requests) {
+				hedges += n;
+				return n;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * checks whether the failure is caused by the requested urls (i.e., a response that cannot be parsed or an
+	 * error envelope describing an url, see {@link #ENVELOPE_STATUS}), not by the endpoint or the table
+	 */
+	private static boolean isPoisoned(Throwable t) {
+		if(t instanceof DeserializationException) {
+			return true;
+		}
+		if(t instanceof YQLException) {
+			YQLException e = (YQLException) t;
+			return !e.isThrottled() && ENVELOPE_STATUS.contains(e.status()) && e.getMessage()!=null && URL_ERROR.matcher(e.getMessage()).find();
+		}
+		return false;
+	}
+
+	private synchronized void unreserveHedges(int requests) {
+		hedges -= requests;
+	}
+
+	private synchronized void bisected(int requests, int dead) {
+		bisections += requests;
+		deadUrls += dead;
+	}
+
+	private synchronized void completed(long latency, boolean byHedge) {
+		// a won hedge cuts off the latency of the regular request (i.e., the percentile is slightly underestimated)
+		latencies.add(latency);
+		if(byHedge) {
+			hedgeWins++;
+		}
 	}
 
 	/**
@@ -213,6 +646,7 @@ public class YQLCrawler implements Closeable {
 	 * @param requestTimeout maximal allowed request time for a single http resource (in ms)
 	 * @return this {@link YQLCrawler} instalce
 	 */
+	@Override
 	public YQLCrawler requestTimeout(long requestTimeout) {
 		this.requestTimeout = requestTimeout;
 		return this;
@@ -221,11 +655,557 @@ public class YQLCrawler implements Closeable {
 	 * get the maximal allowed request time for a single http resource (in ms)
 	 * @return
 	 */
+	@Override
 	public long requestTimeout() {
 		return requestTimeout;
 	}
+	/**
+	 * set the model of the per-host fetch latency: the urls of a batch are split into requests of similar
+	 * expected latency and every request gets a fetch timeout that fits its slowest host (at most the
+	 * {@link #requestTimeout()}, unknown hosts get the request timeout), the model learns from the completed requests
+	 * @param latencyModel the latency model (may be shared by several crawlers, <code>null</code> --> one request w/
+	 *        the request timeout per batch)
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public YQLCrawler latencyModel(HostLatencyModel latencyModel) {
+		this.latencyModel = latencyModel;
+		return this;
+	}
+	/**
+	 * get the model of the per-host fetch latency
+	 * @return the latency model (or <code>null</code>)
+	 */
+	public HostLatencyModel latencyModel() {
+		return latencyModel;
+	}
+	/**
+	 * gets the fetch timeout of a request
+	 */
+	private long timeout(Collection<String> urls) {
+		HostLatencyModel model = latencyModel;
+		return model==null ? requestTimeout() : model.timeout(urls, requestTimeout());
+	}
+	/**
+	 * reports the outcome of a completed request to the latency model: resolved urls were fetched within the
+	 * request time (an upper bound of their own latency), the other ones count as timeouts
+	 */
+	private void observe(Collection<String> urls, CrawlingResults results, long latency, long timeout) {
+		HostLatencyModel model = latencyModel;
+		if(model==null) {
+			return;
+		}
+		for(String url : urls) {
+			String actual = results.redirects().containsKey(url) ? results.redirects().get(url) : url;
+			Map<String,String> header = results.header(actual);
+			if(header==null || TIMEOUT_STATUS.contains(header.get("status"))) {
+				model.timedOut(url, timeout);
+			} else {
+				model.completedWithin(url, latency);
+			}
+		}
+	}
+	/**
+	 * set the maximal number of content characters stored per resource (YQL
+	 * transfers complete contents, longer contents are truncated afterwards to
+	 * bound the heap and document sizes)
+	 * @param maxContentLength the maximal number of characters per resource
+	 * @return this {@link YQLCrawler} instance
+	 */
+	@Override
+	public YQLCrawler maxContentLength(int maxContentLength) {
+		this.maxContentLength = maxContentLength;
+		return this;
+	}
+	/**
+	 * get the maximal number of content characters stored per resource
+	 * @return the maximal number of characters per resource
+	 */
+	@Override
+	public int maxContentLength() {
+		return maxContentLength;
+	}
+	/**
+	 * set the overall deadline of a batch (including hedges and bisections), pending requests are aborted
+	 * afterwards and the batch fails w/ a {@link TimeoutException}
+	 * @param deadline the deadline (in ms, 0 --> no deadline, default: 60s)
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public YQLCrawler deadline(long deadline) {
+		this.deadline = deadline;
+		return this;
+	}
+	/**
+	 * get the overall deadline of a batch
+	 * @return the deadline (in ms, 0 --> no deadline)
+	 */
+	public long deadline() {
+		return deadline;
+	}
+	/**
+	 * get the outstanding batches
+	 * @return the registry of the pending batches
+	 */
+	public InFlightRegistry inFlight() {
+		return inFlight;
+	}
+	/**
+	 * waits until all outstanding batches are completed, the remaining batches are cancelled afterwards
+	 * @param timeout the maximal time to wait (in ms)
+	 * @return <code>true</code> if all batches completed, <code>false</code> if some have been cancelled
+	 * @throws InterruptedException if the waiting thread has been interrupted
+	 */
+	public boolean drain(long timeout) throws InterruptedException {
+		if(inFlight.drain(timeout)) {
+			return true;
+		}
+		LOG.warning("Cancelling " + inFlight.cancelAll() + " outstanding batches after " + timeout + "ms (" + inFlight + ")");
+		return false;
+	}
+	/**
+	 * set the executor that informs the result handlers, i.e., the persistence of the results does not block the
+	 * http i/o or parser threads (see {@link YQLApi#executor(Executor)})
+	 * @param executor the worker executor (<code>null</code> --> the http i/o or parser threads)
+	 * @return this {@link YQLCrawler} instance
+	 */
+	public YQLCrawler executor(Executor executor) {
+		api.executor(executor);
+		return this;
+	}
+	/**
+	 * get the executor that informs the result handlers
+	 * @return the worker executor (or <code>null</code>)
+	 */
+	public Executor executor() {
+		return api.executor();
+	}
 	
-	private String createQuery(Collection<String> urls) throws IOException {
+	/**
+	 * the state of one {@link YQLCrawler#crawlAsync(Collection, AsyncResultHandler)} call: failing (sub-)batches are
+	 * split in halves until the urls breaking the requests are isolated, the results of all successful
+	 * sub-batches are merged
+	 */
+	private class BisectingBatch {
+		private final AsyncResultHandler<CrawlingResults> handler;
+		private final Map<String, Map<String,String>> headerMap = new HashMap<>();
+		private final Map<String, String> contentMap = new HashMap<>();
+		private final Map<String, String> redirectSink = new HashMap<>();
+		private final Set<String> truncated = new HashSet<>();
+		private final Set<String> dead = new HashSet<>();
+		private long bytes = 0;
+		private int pending = 0;
+		private final int initialBudget = bisectionBudget();
+		private int budget = initialBudget;
+		// the failure of a part that has not been isolated (i.e., the batch has to be retried)
+		private Throwable retry = null;
+		// the (sub-)batches sent so far
+		private final List<HedgedBatch> parts = new ArrayList<>();
+		private boolean cancelled = false;
+
+		BisectingBatch(AsyncResultHandler<CrawlingResults> handler) {
+			this.handler = handler;
+		}
+
+		void start(List<String> urls) throws IOException {
+			HostLatencyModel model = latencyModel;
+			// slow hosts get their own request (and timeout) instead of holding up the fast ones
+			List<List<String>> groups = model==null ? Collections.singletonList(urls) : model.group(urls, requestTimeout());
+			if(groups.size()>1 && !charge(groups.size()-1)) {
+				// the guard only granted one request
+				groups = Collections.singletonList(urls);
+			}
+			synchronized (this) {
+				pending += groups.size();
+			}
+			for(List<String> group : groups) {
+				send(group);
+			}
+		}
+
+		private void send(List<String> urls) throws IOException {
+			HedgedBatch part = new HedgedBatch(urls, partHandler(urls));
+			synchronized (this) {
+				if(cancelled) {
+					return;
+				}
+				parts.add(part);
+			}
+			part.start();
+		}
+
+		/**
+		 * aborts all pending requests, the handler is not informed anymore
+		 */
+		void cancel() {
+			List<HedgedBatch> pendingParts;
+			synchronized (this) {
+				cancelled = true;
+				pendingParts = new ArrayList<>(parts);
+			}
+			for(HedgedBatch part : pendingParts) {
+				part.cancel();
+			}
+		}
+
+		private AsyncResultHandler<CrawlingResults> partHandler(final List<String> urls) {
+			return new AsyncResultHandler<CrawlingResults>() {
+				@Override
+				public void onCompleted(CrawlingResults data) {
+					merge(data);
+				}
+
+				@Override
+				public void onThrowable(Throwable t) {
+					failed(urls, t);
+				}
+			};
+		}
+
+		private void merge(CrawlingResults data) {
+			synchronized (this) {
+				headerMap.putAll(data.headers);
+				contentMap.putAll(data.contents);
+				redirectSink.putAll(data.redirects);
+				truncated.addAll(data.truncated);
+				bytes += data.bytes;
+			}
+			finish();
+		}
+
+		private void failed(List<String> urls, Throwable t) {
+			// only failures caused by the requested urls are bisected, the others (unreachable or throttling endpoint,
+			// server errors, timeouts, etc.) fail the batch (i.e., its urls are retried later)
+			boolean bisect = isPoisoned(t);
+			List<List<String>> halves = null;
+			synchronized (this) {
+				if(cancelled) {
+					return;
+				}
+				if(!bisect) {
+					retry = t;
+				} else if(urls.size()==1) {
+					dead.add(urls.get(0));
+				} else if(budget>=2 && charge(2)) {
+					budget -= 2;
+					pending += 2;
+					halves = Arrays.asList(urls.subList(0, urls.size()/2), urls.subList(urls.size()/2, urls.size()));
+				} else {
+					retry = t;
+				}
+			}
+			if(halves!=null) {
+				LOG.log(Level.FINE, "Request for " + urls.size() + " urls failed, bisecting", t);
+				for(List<String> half : halves) {
+					try {
+						send(half);
+					} catch (IOException e) {
+						synchronized (this) {
+							retry = e;
+						}
+						finish();
+					}
+				}
+			}
+			finish();
+		}
+
+		private void finish() {
+			CrawlingResults results = null;
+			Throwable error = null;
+			synchronized (this) {
+				if(--pending>0) {
+					return;
+				}
+				if(retry!=null) {
+					error = retry;
+				} else {
+					results = new CrawlingResults(headerMap, contentMap, redirectSink, truncated, dead, bytes);
+				}
+			}
+			bisected(initialBudget-budget, dead.size());
+			if(results!=null) {
+				handler.onCompleted(results);
+			} else {
+				handler.onThrowable(error);
+			}
+		}
+	}
+
+	/**
+	 * the state of one hedged (sub-)batch, the first complete attempt
+	 * (the regular request or its hedge) wins
+	 */
+	private class HedgedBatch {
+		private final List<String> urls;
+		private final AsyncResultHandler<CrawlingResults> handler;
+		private final long start = System.currentTimeMillis();
+		// the fetch timeout of the (slowest) urls
+		private final long timeout;
+		private final Attempt primary = new Attempt(this);
+		private Attempt hedge = null;
+		private ScheduledFuture<?> hedgeTask = null;
+		private boolean done = false;
+
+		HedgedBatch(List<String> urls, AsyncResultHandler<CrawlingResults> handler) {
+			this.urls = urls;
+			this.handler = handler;
+			this.timeout = timeout(urls);
+		}
+
+		void start() throws IOException {
+			primary.send(Collections.singletonList(urls));
+			synchronized (this) {
+				if(!done) {
+					hedgeTask = scheduleHedge(new Runnable() {
+						@Override
+						public void run() {
+							hedge();
+						}
+					});
+				}
+			}
+		}
+
+		private void hedge() {
+			int parts;
+			synchronized (this) {
+				if(done) {
+					return;
+				}
+				// smaller requests are answered faster, if the budget allows two of them
+				parts = reserveHedges(urls.size()>=2*MIN_SPLIT_SIZE ? 2 : 1);
+				if(parts==0) {
+					return;
+				}
+				if(!charge(parts)) {
+					unreserveHedges(parts);
+					return;
+				}
+				hedge = new Attempt(this);
+			}
+			List<List<String>> split = parts==1 ? Collections.singletonList(urls)
+					: Arrays.asList(urls.subList(0, urls.size()/2), urls.subList(urls.size()/2, urls.size()));
+			try {
+				hedge.send(split);
+			} catch (IOException e) {
+				failed(hedge, e);
+			}
+		}
+
+		/**
+		 * aborts the pending attempts, the handler is not informed anymore
+		 */
+		void cancel() {
+			Attempt other;
+			synchronized (this) {
+				if(done) {
+					return;
+				}
+				done = true;
+				if(hedgeTask!=null) {
+					hedgeTask.cancel(false);
+				}
+				other = hedge;
+			}
+			primary.cancel();
+			if(other!=null) {
+				other.cancel();
+			}
+		}
+
+		void completed(Attempt attempt) {
+			Attempt other;
+			synchronized (this) {
+				if(done || attempt.failed) {
+					return;
+				}
+				done = true;
+				other = attempt==primary ? hedge : primary;
+				if(hedgeTask!=null) {
+					hedgeTask.cancel(false);
+				}
+			}
+			final long latency = System.currentTimeMillis()-start;
+			YQLCrawler.this.completed(latency, attempt==hedge);
+			if(other!=null) {
+				other.cancel();
+			}
+			CrawlingResults results = attempt.results();
+			observe(urls, results, latency, timeout);
+			handler.onCompleted(results);
+		}
+
+		void failed(Attempt attempt, Throwable t) {
+			synchronized (this) {
+				if(done || attempt.failed) {
+					return;
+				}
+				attempt.failed = true;
+				Attempt other = attempt==primary ? hedge : primary;
+				if(other==null || other.failed) {
+					done = true;
+					if(hedgeTask!=null) {
+						hedgeTask.cancel(false);
+					}
+				}
+			}
+			// abort the remaining requests of a split attempt
+			attempt.cancel();
+			synchronized (this) {
+				if(!done) {
+					// the other attempt may still succeed
+					LOG.log(Level.FINE, "Request failed, waiting for the pending " + (attempt==primary ? "hedge" : "regular") + " request", t);
+					return;
+				}
+			}
+			handler.onThrowable(t);
+		}
+	}
+
+	/**
+	 * one attempt to crawl the urls of a {@link HedgedBatch} (one or more YQL requests)
+	 */
+	private class Attempt {
+		private final HedgedBatch batch;
+		private final Map<String, Map<String,String>> headerMap = new HashMap<>();
+		private final Map<String, String> contentMap = new HashMap<>();
+		private final Map<String, String> redirectSink = new HashMap<>();
+		private final Set<String> truncated = new HashSet<>();
+		private final long[] bytes = new long[1];
+		private List<Future<DBObject>> requests = Collections.emptyList();
+		// parts that already reported their outcome (they must not be cancelled from within their callbacks)
+		private boolean[] finished = new boolean[0];
+		private int pending = 0;
+		private boolean cancelled = false;
+		// guarded by the batch
+		private boolean failed = false;
+
+		Attempt(HedgedBatch batch) {
+			this.batch = batch;
+		}
+
+		void send(List<List<String>> parts) throws IOException {
+			synchronized (this) {
+				pending = parts.size();
+				requests = new ArrayList<>(Collections.<Future<DBObject>>nCopies(parts.size(), null));
+				finished = new boolean[parts.size()];
+			}
+			for(int i=0;i<parts.size();i++) {
+				final int part = i;
+				final Table table;
+				try {
+					table = table();
+				} catch (CircuitOpenException e) {
+					// refused w/o request
+					synchronized (this) {
+						finished[part] = true;
+					}
+					batch.failed(this, e);
+					return;
+				}
+				// every resource is extracted as soon as it is parsed (no string or object tree of the complete response is built)
+				Future<DBObject> request = api.queryAsync(createQuery(parts.get(part), batch.timeout),
+						"DATA",
+						table.uri,
+						"resources",
+						new AsyncStreamHandler<DBObject>() {
+							@Override
+							public void onItem(Object item) {
+								if(item!=null && item instanceof DBObject) {
+									DBObject resultItem = (DBObject) item;
+									synchronized (Attempt.this) {
+										extractHeader(resultItem, headerMap);
+										extractContent(resultItem, contentMap, truncated, bytes);
+										extractRedirects(resultItem, redirectSink);
+									}
+								}
+							}
+
+							@Override
+							public void onCompleted(DBObject results) {
+								table.breaker.succeeded();
+								boolean complete;
+								synchronized (Attempt.this) {
+									finished[part] = true;
+									complete = --pending==0;
+								}
+								if(complete) {
+									batch.completed(Attempt.this);
+								}
+							}
+
+							@Override
+							public void onThrowable(Throwable t) {
+								boolean aborted;
+								synchronized (Attempt.this) {
+									finished[part] = true;
+									aborted = cancelled;
+								}
+								if(aborted) {
+									// i.e., the hedge won
+									table.breaker.ignored();
+								} else {
+									table.failed(t);
+								}
+								batch.failed(Attempt.this, t);
+							}
+						});
+				boolean cancel;
+				synchronized (this) {
+					requests.set(part, request);
+					cancel = cancelled && !finished[part];
+				}
+				if(cancel) {
+					request.cancel(true);
+				}
+			}
+		}
+
+		void cancel() {
+			List<Future<DBObject>> pendingRequests = new ArrayList<>();
+			synchronized (this) {
+				cancelled = true;
+				for(int i=0;i<requests.size();i++) {
+					if(requests.get(i)!=null && !finished[i]) {
+						pendingRequests.add(requests.get(i));
+					}
+				}
+			}
+			for(Future<DBObject> request : pendingRequests) {
+				request.cancel(true);
+			}
+		}
+
+		synchronized CrawlingResults results() {
+			return new CrawlingResults(headerMap, contentMap, redirectSink, truncated, bytes[0]);
+		}
+	}
+
+	/**
+	 * a data table definition and its circuit breaker
+	 */
+	private static class Table {
+		private final String uri;
+		private final CircuitBreaker breaker;
+
+		Table(String uri, CircuitBreaker breaker) {
+			this.uri = uri;
+			this.breaker = breaker;
+		}
+
+		void failed(Throwable t) {
+			if(t instanceof YQLException && ((YQLException) t).isThrottled()) {
+				// the quota is handled by the rate limits
+				breaker.ignored();
+			} else if(isPoisoned(t)) {
+				// the requested urls break the request (i.e., they are isolated by bisection), not the table
+				breaker.ignored();
+			} else {
+				breaker.failed();
+			}
+		}
+	}
+
+	private String createQuery(Collection<String> urls, long timeout) throws IOException {
 		StringBuilder q = new StringBuilder("select * from DATA where url in (");
 		boolean first = true;
 		for (String url : urls) {
@@ -237,13 +1217,13 @@ public class YQLCrawler implements Closeable {
 			q.append('\'').append(url).append('\'');
 		}
 		q.append(") and contenttype='text/html' and asstring='true' and timeout='")
-			.append(requestTimeout())
+			.append(timeout)
 			.append("' and ua='Mozilla/5.0 (compatible; MSIE 6.0; Windows NT 5.1)'");
 		
 		return q.toString();
 	}
 
-	private boolean extractContent(DBObject resultItem, Map<String, String> contentSink) {
+	private boolean extractContent(DBObject resultItem, Map<String, String> contentSink, Set<String> truncated, long[] bytes) {
 		// typical format of the api:
 		// {
 		// "url": "http://kbstroy.ru/img/mim.php?p=kdw36dfsi1",
@@ -266,7 +1246,14 @@ public class YQLCrawler implements Closeable {
 			return false;
 		}
 
-		contentSink.put((String) resultItem.get("url"), (String) resultItem.get("content"));
+		final String url = (String) resultItem.get("url");
+		String content = (String) resultItem.get("content");
+		bytes[0] += content.length();
+		if(content.length()>maxContentLength) {
+			content = content.substring(0, maxContentLength);
+			truncated.add(url);
+		}
+		contentSink.put(url, content);
 		
 		return true;
 	}
@@ -385,9 +1372,11 @@ public class YQLCrawler implements Closeable {
 		return header;
 	}
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws InterruptedException {
 		final YQLAccessRateLimitGuard guard = YQLAccessRateLimitGuard.getInstance();
 		final YQLCrawler crawler = new YQLCrawler();
+		// the dispatcher of the guard is a daemon thread
+		final CountDownLatch done = new CountDownLatch(1);
 		
 		RateLimitedTask task = new RateLimitedTask() {
 			
@@ -428,16 +1417,23 @@ public class YQLCrawler implements Closeable {
 				if(0>=--i) {
 					guard.close();
 					crawler.close();
+					done.countDown();
 					return false;
 				}
 				return true;
 			}
 		};
 		guard.add(task);
+		done.await();
 	}
 	
 	@Override
 	public void close() {
+		synchronized (this) {
+			if(hedgeTimer!=null) {
+				hedgeTimer.shutdownNow();
+			}
+		}
 		api.close();
 	}
 }
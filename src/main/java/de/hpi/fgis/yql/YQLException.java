@@ -0,0 +1,41 @@
+package de.hpi.fgis.yql;
+
+import java.io.IOException;
+
+/**
+ * Signals that the YQL endpoint rejected a query (i.e., an error status or an
+ * error envelope instead of results), throttling responses (the rate limit
+ * has been exceeded) are flagged.
+ * 
+ * @author tongr
+ * 
+ */
+public class YQLException extends IOException {
+	private static final long serialVersionUID = 2873465188047721935L;
+	private final int status;
+	private final boolean throttled;
+
+	public YQLException(String message, int status, boolean throttled) {
+		super(message);
+		this.status = status;
+		this.throttled = throttled;
+	}
+
+	/**
+	 * gets the http status of the response
+	 * 
+	 * @return the http status
+	 */
+	public int status() {
+		return status;
+	}
+
+	/**
+	 * checks whether the endpoint signaled an exceeded rate limit
+	 * 
+	 * @return <code>true</code> if the query has been throttled
+	 */
+	public boolean isThrottled() {
+		return throttled;
+	}
+}
@@ -0,0 +1,73 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AIMDThrottleTest {
+
+	@Test
+	public void testAIMD() {
+		AIMDThrottle throttle = new AIMDThrottle(10, 1).increase(0.5).cooldown(0);
+		assertEquals(10, throttle.rate(), 1e-9);
+
+		// multiplicative decrease down to the minimal rate
+		throttle.throttled();
+		assertEquals(5, throttle.rate(), 1e-9);
+		throttle.throttled();
+		throttle.throttled();
+		throttle.throttled();
+		assertEquals(1, throttle.rate(), 1e-9);
+		assertEquals(4, throttle.throttles());
+
+		// additive increase up to the maximal rate
+		throttle.succeeded();
+		throttle.succeeded();
+		assertEquals(2, throttle.rate(), 1e-9);
+		for (int i = 0; i < 100; i++) {
+			throttle.succeeded();
+		}
+		assertEquals(10, throttle.rate(), 1e-9);
+	}
+
+	@Test
+	public void testCooldown() {
+		AIMDThrottle throttle = new AIMDThrottle(8, 1).cooldown(60000);
+		// the responses of requests sent before the first decrease signal the same overload
+		throttle.throttled();
+		throttle.throttled();
+		throttle.throttled();
+		assertEquals(4, throttle.rate(), 1e-9);
+		assertEquals(1, throttle.decreases());
+	}
+
+	@Test
+	public void testFailureRate() {
+		AIMDThrottle throttle = new AIMDThrottle(8, 1).cooldown(0);
+		// single failures do not decrease the rate
+		for (int i = 0; i < 10; i++) {
+			throttle.succeeded();
+			throttle.failed();
+		}
+		assertEquals(8, throttle.rate(), 1e-9);
+		for (int i = 0; i < 5; i++) {
+			throttle.failed();
+		}
+		assertTrue(throttle.failureRate() > 0.5);
+		assertTrue(throttle.rate() < 8);
+	}
+
+	@Test
+	public void testPacing() {
+		AIMDThrottle throttle = new AIMDThrottle(10, 1);
+		assertEquals(0, throttle.delay());
+		long now = System.currentTimeMillis();
+		throttle.dispatched(now);
+		assertTrue(throttle.delay() > 50 && throttle.delay() <= 100);
+
+		// an unused request does not delay the next one
+		throttle.refund(now);
+		assertEquals(0, throttle.delay());
+	}
+}
@@ -0,0 +1,275 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.hpi.fgis.concurrency.APIAccessRateLimitGuard.Endpoint;
+import de.hpi.fgis.concurrency.APIAccessRateLimitGuard.EndpointTask;
+import de.hpi.fgis.concurrency.APIAccessRateLimitGuard.RateLimitedTask;
+
+public class APIAccessRateLimitGuardTest {
+
+	@Test
+	public void testEndpointPool() throws InterruptedException {
+		final long period = 100;
+		final AtomicInteger a = new AtomicInteger();
+		final AtomicInteger b = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(10);
+		APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(0) {};
+		guard.addEndpoint(new Endpoint<>("http://a.example/", period, a));
+		guard.addEndpoint(new Endpoint<>("http://b.example/", period, b));
+
+		long start = System.currentTimeMillis();
+		guard.add(new EndpointTask<AtomicInteger>() {
+			@Override
+			public boolean run(Endpoint<AtomicInteger> endpoint) {
+				endpoint.client().incrementAndGet();
+				done.countDown();
+				return true;
+			}
+
+			@Override
+			public boolean repeat() {
+				return done.getCount() > 0;
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		long duration = System.currentTimeMillis() - start;
+		guard.close();
+
+		// both endpoints spend their budget --> twice the throughput of a single one
+		assertEquals(10, a.get() + b.get());
+		assertTrue(Math.abs(a.get() - b.get()) <= 1);
+		assertTrue(duration < 9 * period);
+		assertEquals(2, guard.endpoints().size());
+		assertEquals(a.get(), guard.endpoints().get(0).executions());
+	}
+
+	@Test
+	public void testDefaultEndpoint() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(3);
+		APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(0, 10) {};
+		guard.add(new RateLimitedTask() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+
+			@Override
+			public boolean repeat() {
+				return done.getCount() > 0;
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		guard.close();
+		assertEquals(1, guard.endpoints().size());
+		assertEquals(3, guard.endpoints().get(0).executions());
+	}
+
+	@Test
+	public void testUnusedPermits() throws InterruptedException {
+		final AtomicInteger idle = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(3);
+		APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(0) {};
+		guard.idleDelay(10).addEndpoint(new Endpoint<>(null, new RateLimiter(3, 60000), null));
+		guard.add(new EndpointTask<Void>() {
+			@Override
+			public boolean run(Endpoint<Void> endpoint) {
+				if (idle.incrementAndGet() <= 5) {
+					// nothing to do
+					return false;
+				}
+				done.countDown();
+				return true;
+			}
+
+			@Override
+			public boolean repeat() {
+				return done.getCount() > 0;
+			}
+		});
+
+		// the idle executions do not waste the quota
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		guard.close();
+		assertEquals(3, guard.endpoints().get(0).executions());
+		assertEquals(0, guard.remaining());
+	}
+
+	@Test
+	public void testExecutor() throws InterruptedException {
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		final CountDownLatch fastDone = new CountDownLatch(5);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(0) {};
+		guard.executor(executor).addEndpoint(new Endpoint<>(null, new RateLimiter(10, 60000), null));
+
+		RateLimitedTask slow = new RateLimitedTask() {
+			@Override
+			public void run() {
+				slowStarted.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					// finish
+				}
+			}
+
+			@Override
+			public boolean repeat() {
+				return false;
+			}
+		};
+		guard.add(slow);
+		assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+		guard.add(new RateLimitedTask() {
+			@Override
+			public void run() {
+				fastDone.countDown();
+			}
+
+			@Override
+			public boolean repeat() {
+				return fastDone.getCount() > 0;
+			}
+		});
+
+		// the blocked task does not delay the dispatching of the other one
+		assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+		assertEquals(6, guard.endpoints().get(0).executions());
+		assertEquals(0, guard.latency(slow).size());
+		release.countDown();
+		guard.close();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(6, guard.dispatchDelays().size());
+	}
+
+	@Test
+	public void testWeightedFairQueuing() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(30);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(50) {};
+		guard.addEndpoint(new Endpoint<>(null, 10, null));
+		RateLimitedTask a = new RecordingTask("a", order, done, false);
+		RateLimitedTask b = new RecordingTask("b", order, done, false);
+		guard.add(a, 0, 1, null);
+		guard.add(b, 0, 2, null);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		guard.close();
+		// b gets twice the slots of a (the other task might have been dispatched already)
+		assertTrue(guard.slots(a) + guard.slots(b) <= 31);
+		assertTrue(Math.abs(guard.slots(b) - 2 * guard.slots(a)) <= 3);
+	}
+
+	@Test
+	public void testPriorityAndQuota() throws InterruptedException {
+		final CountDownLatch bulkStarted = new CountDownLatch(3);
+		final CountDownLatch urgentDone = new CountDownLatch(5);
+		final CountDownLatch limitedDone = new CountDownLatch(2);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(0) {};
+		guard.addEndpoint(new Endpoint<>(null, 20, null));
+		RateLimitedTask bulk = new RecordingTask("bulk", order, bulkStarted, true);
+		guard.add(bulk);
+		assertTrue(bulkStarted.await(5, TimeUnit.SECONDS));
+
+		// the limited task gets 2 slots only (despite of its priority)
+		RateLimitedTask limited = new RecordingTask("limited", order, limitedDone, false);
+		guard.add(limited, 2, 1, new RateLimiter(2, 60000));
+		RateLimitedTask urgent = new RecordingTask("urgent", order, urgentDone, false);
+		guard.add(urgent, 1, 1, null);
+
+		assertTrue(urgentDone.await(5, TimeUnit.SECONDS));
+		assertTrue(limitedDone.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		guard.close();
+
+		List<String> executions;
+		synchronized (order) {
+			executions = new ArrayList<>(order);
+		}
+		int first = executions.indexOf("limited");
+		assertEquals(Arrays.asList("limited", "limited", "urgent", "urgent", "urgent", "urgent", "urgent"), executions.subList(first, first + 7));
+		assertEquals(2, guard.slots(limited));
+		assertEquals(5, guard.slots(urgent));
+		assertTrue(guard.slots(bulk) > 3);
+	}
+
+	@Test
+	public void testSpentQuota() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(2);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger refused = new AtomicInteger();
+		// the first permit is taken by another process right before it is acquired
+		RateLimiter quota = new RateLimiter(3, 60000) {
+			@Override
+			public synchronized boolean tryAcquire() {
+				if (refused.getAndIncrement() == 0) {
+					return false;
+				}
+				return super.tryAcquire();
+			}
+		};
+		RateLimiter endpointLimiter = new RateLimiter(10, 60000);
+		APIAccessRateLimitGuard guard = new APIAccessRateLimitGuard(0) {};
+		guard.idleDelay(10).addEndpoint(new Endpoint<>(null, endpointLimiter, null));
+		RateLimitedTask limited = new RecordingTask("limited", order, done, false);
+		guard.add(limited, 1, 1, quota);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		guard.close();
+
+		// every execution has been charged to both quotas, the refused permit of the endpoint has been returned
+		assertEquals(2, guard.slots(limited));
+		assertEquals(2, quota.acquired());
+		assertEquals(2, endpointLimiter.acquired());
+		assertTrue(refused.get() > 2);
+	}
+
+	/**
+	 * records its name on every execution and is repeated until the latch
+	 * is zero (or forever)
+	 */
+	private static class RecordingTask implements RateLimitedTask {
+		private final String name;
+		private final List<String> order;
+		private final CountDownLatch latch;
+		private final boolean endless;
+
+		RecordingTask(String name, List<String> order, CountDownLatch latch, boolean endless) {
+			this.name = name;
+			this.order = order;
+			this.latch = latch;
+			this.endless = endless;
+		}
+
+		@Override
+		public void run() {
+			order.add(name);
+			latch.countDown();
+		}
+
+		@Override
+		public boolean repeat() {
+			return endless || latch.getCount() > 0;
+		}
+	}
+}
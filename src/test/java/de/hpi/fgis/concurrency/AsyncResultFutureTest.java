@@ -0,0 +1,80 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class AsyncResultFutureTest {
+	private static FutureTask<Void> request() {
+		return new FutureTask<>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+	}
+
+	@Test
+	public void testHandler() throws Exception {
+		AsyncResultFuture<String> future = new AsyncResultFuture<>();
+		future.handler().onCompleted("done");
+		assertEquals("done", future.get());
+
+		future = new AsyncResultFuture<>();
+		future.handler().onThrowable(new IllegalStateException());
+		try {
+			future.get();
+			fail("The failure has not been forwarded");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testCancel() {
+		FutureTask<Void> request = request();
+		AsyncResultFuture<String> future = new AsyncResultFuture<String>().attach(request);
+		assertTrue(future.cancel(true));
+		assertTrue(request.isCancelled());
+
+		// requests attached later are cancelled right away
+		FutureTask<Void> late = request();
+		future.attach(late);
+		assertTrue(late.isCancelled());
+
+		// completed futures do not cancel their requests
+		request = request();
+		future = new AsyncResultFuture<String>().attach(request);
+		future.complete("done");
+		assertFalse(future.cancel(true));
+		assertFalse(request.isCancelled());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		FutureTask<Void> request = request();
+		AsyncResultFuture<String> future = new AsyncResultFuture<String>().attach(request).timeout(50);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("The future did not time out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		// the request is aborted right after the completion
+		for (int i = 0; i < 100 && !request.isCancelled(); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(request.isCancelled());
+
+		future = new AsyncResultFuture<String>().timeout(5000);
+		future.complete("done");
+		assertEquals("done", future.get(1, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,71 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.hpi.fgis.concurrency.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+	@Test
+	public void testOpen() {
+		CircuitBreaker breaker = new CircuitBreaker("test").failureThreshold(3);
+		breaker.failed();
+		breaker.failed();
+		breaker.succeeded();
+		// only consecutive failures open the circuit
+		breaker.failed();
+		breaker.failed();
+		assertEquals(State.CLOSED, breaker.state());
+		assertTrue(breaker.allowRequest());
+
+		breaker.failed();
+		assertEquals(State.OPEN, breaker.state());
+		assertFalse(breaker.allowRequest());
+		assertTrue(breaker.delay() > 0);
+		assertEquals(1, breaker.opens());
+		assertEquals(1, breaker.refused());
+	}
+
+	@Test
+	public void testProbe() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker("test").failureThreshold(1).openTimeout(50, 1000);
+		breaker.failed();
+		Thread.sleep(breaker.delay() + 10);
+		assertEquals(0, breaker.delay());
+
+		// only one probe
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.state());
+		assertFalse(breaker.allowRequest());
+
+		// a failing probe doubles the timeout
+		breaker.failed();
+		assertEquals(State.OPEN, breaker.state());
+		assertTrue(breaker.delay() > 50);
+		Thread.sleep(breaker.delay() + 10);
+
+		assertTrue(breaker.allowRequest());
+		breaker.succeeded();
+		assertEquals(State.CLOSED, breaker.state());
+		assertTrue(breaker.allowRequest());
+		assertEquals(2, breaker.opens());
+	}
+
+	@Test
+	public void testIgnoredProbe() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker("test").failureThreshold(1).openTimeout(50, 1000);
+		breaker.failed();
+		Thread.sleep(breaker.delay() + 10);
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+
+		// i.e., the probe has been cancelled --> another one may be sent
+		breaker.ignored();
+		assertEquals(0, breaker.delay());
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.state());
+	}
+}
@@ -0,0 +1,70 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+	@Test
+	public void testLimit() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		assertEquals(2, limiter.inFlight());
+		assertEquals(1, limiter.rejected());
+
+		limiter.release();
+		assertEquals(1, limiter.inFlight());
+		assertTrue(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testGrowWhileLatencyIsStable() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+		for (int i = 0; i < 100; i++) {
+			while (limiter.tryAcquire()) {
+				// fill the limit
+			}
+			limiter.release(100);
+		}
+		assertEquals(10, limiter.limit());
+		assertEquals(100, limiter.minLatency());
+	}
+
+	@Test
+	public void testNoGrowthIfUnused() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(100);
+		}
+		assertEquals(4, limiter.limit());
+	}
+
+	@Test
+	public void testShrinkOnRisingLatency() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 10);
+		assertTrue(limiter.tryAcquire());
+		limiter.release(100);
+		for (int i = 0; i < 50; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(1000);
+		}
+		assertEquals(1, limiter.limit());
+	}
+
+	@Test
+	public void testDropped() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 10);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.drop();
+		}
+		assertEquals(2, limiter.limit());
+		assertEquals(0, limiter.inFlight());
+		assertEquals(20, limiter.dropped());
+	}
+}
@@ -0,0 +1,63 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class InFlightRegistryTest {
+	@Test
+	public void testDrain() throws Exception {
+		InFlightRegistry registry = new InFlightRegistry();
+		assertTrue(registry.drain(0));
+		assertEquals(-1, registry.oldest());
+
+		final AsyncResultFuture<String> request = registry.register(new AsyncResultFuture<String>(), 0);
+		assertEquals(1, registry.size());
+		assertFalse(registry.drain(50));
+		assertTrue(registry.oldest() >= 0);
+
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				request.complete("done");
+			}
+		}.start();
+		assertTrue(registry.drain(5000));
+		assertEquals(0, registry.size());
+		assertEquals(0, registry.expired());
+		assertEquals(0, registry.cancelled());
+	}
+
+	@Test
+	public void testCancelAll() throws Exception {
+		InFlightRegistry registry = new InFlightRegistry();
+		AsyncResultFuture<String> first = registry.register(new AsyncResultFuture<String>(), 0);
+		AsyncResultFuture<String> second = registry.register(new AsyncResultFuture<String>(), 0);
+		registry.register(new AsyncResultFuture<String>(), 0).complete("done");
+		assertEquals(2, registry.size());
+
+		assertEquals(2, registry.cancelAll());
+		assertTrue(first.isCancelled());
+		assertTrue(second.isCancelled());
+		assertEquals(0, registry.size());
+		assertEquals(2, registry.cancelled());
+		assertTrue(registry.drain(0));
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		InFlightRegistry registry = new InFlightRegistry();
+		AsyncResultFuture<String> request = registry.register(new AsyncResultFuture<String>(), 50);
+		assertTrue(registry.drain(5000));
+		assertTrue(request.isCompletedExceptionally());
+		assertEquals(1, registry.expired());
+		assertEquals(0, registry.cancelled());
+	}
+}
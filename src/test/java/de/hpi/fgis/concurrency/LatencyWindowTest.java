@@ -0,0 +1,33 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyWindowTest {
+
+	@Test
+	public void testPercentile() {
+		LatencyWindow window = new LatencyWindow(100);
+		assertEquals(-1, window.percentile(0.5));
+		for (int i = 100; i >= 1; i--) {
+			window.add(i);
+		}
+		assertEquals(100, window.size());
+		assertEquals(1, window.percentile(0));
+		assertEquals(50, window.percentile(0.5));
+		assertEquals(95, window.percentile(0.95));
+		assertEquals(100, window.percentile(1));
+	}
+
+	@Test
+	public void testSliding() {
+		LatencyWindow window = new LatencyWindow(3);
+		window.add(1000);
+		window.add(1);
+		window.add(2);
+		window.add(3);
+		assertEquals(3, window.size());
+		assertEquals(3, window.percentile(1));
+	}
+}
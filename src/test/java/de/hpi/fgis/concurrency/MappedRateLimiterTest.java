@@ -0,0 +1,106 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRateLimiterTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testSharedBudget() throws IOException {
+		File file = new File(tmp.getRoot(), "test.ledger");
+		// two accessors simulate two processes sharing the ledger
+		MappedRateLimiter a = new MappedRateLimiter(file, 5, 60000);
+		MappedRateLimiter b = new MappedRateLimiter(file, 5, 60000);
+		try {
+			assertTrue(a.tryAcquire());
+			assertTrue(a.tryAcquire());
+			assertEquals(3, b.remaining());
+			for (int i = 0; i < 3; i++) {
+				assertTrue(b.tryAcquire());
+			}
+			assertFalse(a.tryAcquire());
+			assertFalse(b.tryAcquire());
+			assertTrue(a.delay() > 0);
+
+			b.refund();
+			assertEquals(1, a.remaining());
+			assertTrue(a.tryAcquire());
+			assertEquals(3, a.acquired());
+			assertEquals(2, b.acquired());
+			assertEquals(5, b.acquiredTotal());
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+	@Test
+	public void testRestart() throws IOException, InterruptedException {
+		File file = new File(tmp.getRoot(), "test.ledger");
+		MappedRateLimiter limiter = new MappedRateLimiter(file, 3, 300);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		limiter.close();
+
+		// the consumed budget survives the restart
+		limiter = new MappedRateLimiter(file, 3, 300);
+		try {
+			assertEquals(1, limiter.remaining());
+			assertTrue(limiter.tryAcquire());
+			assertFalse(limiter.tryAcquire());
+
+			Thread.sleep(limiter.delay() + 10);
+			assertEquals(3, limiter.remaining());
+		} finally {
+			limiter.close();
+		}
+	}
+
+	@Test
+	public void testRingWrapAround() throws IOException, InterruptedException {
+		File file = new File(tmp.getRoot(), "test.ledger");
+		MappedRateLimiter limiter = new MappedRateLimiter(file, 3, 200);
+		try {
+			assertTrue(limiter.tryAcquire());
+			assertTrue(limiter.tryAcquire());
+			Thread.sleep(limiter.delay() + 210);
+
+			// the expired permits are dropped from the head, the new ones wrap around
+			assertTrue(limiter.tryAcquire());
+			long between = System.currentTimeMillis();
+			Thread.sleep(20);
+			assertTrue(limiter.tryAcquire());
+			assertTrue(limiter.tryAcquire());
+			assertFalse(limiter.tryAcquire());
+			assertEquals(0, limiter.remaining());
+
+			// refunding an older permit keeps the later ones in order
+			limiter.refund(between);
+			assertEquals(1, limiter.remaining());
+			assertTrue(limiter.tryAcquire());
+			assertFalse(limiter.tryAcquire());
+			long delay = limiter.delay();
+			assertTrue(delay > 0 && delay <= 200);
+			assertEquals(5, limiter.acquiredTotal());
+		} finally {
+			limiter.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testIncompatibleLedger() throws IOException {
+		File file = new File(tmp.getRoot(), "test.ledger");
+		new MappedRateLimiter(file, 3, 300).close();
+		new MappedRateLimiter(file, 4, 300);
+	}
+}
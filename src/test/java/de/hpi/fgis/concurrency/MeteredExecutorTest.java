@@ -0,0 +1,62 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MeteredExecutorTest {
+	@Test
+	public void testQueueDepth() throws InterruptedException {
+		MeteredExecutor executor = new MeteredExecutor("test", 1);
+		try {
+			final CountDownLatch blocker = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(4);
+			final Thread caller = Thread.currentThread();
+			final boolean[] runByCaller = new boolean[1];
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						blocker.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					done.countDown();
+				}
+			};
+			executor.execute(task);
+			// wait until the worker is busy
+			while (executor.getActiveCount() == 0) {
+				Thread.sleep(1);
+			}
+			executor.execute(task);
+			executor.execute(task);
+			// the submitting thread never executes a task itself
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					runByCaller[0] = Thread.currentThread() == caller;
+					done.countDown();
+				}
+			});
+			assertEquals(3, executor.queueDepth());
+			assertEquals(3, executor.maxQueueDepth());
+
+			blocker.countDown();
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertFalse(runByCaller[0]);
+			assertEquals(0, executor.queueDepth());
+			assertEquals(3, executor.maxQueueDepth());
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertEquals(4, executor.waits().size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
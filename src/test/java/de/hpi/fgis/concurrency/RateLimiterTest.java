@@ -0,0 +1,53 @@
+package de.hpi.fgis.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	@Test
+	public void testWindow() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(3, 200);
+		assertEquals(3, limiter.remaining());
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		assertFalse(limiter.tryAcquire());
+		assertEquals(0, limiter.remaining());
+		long delay = limiter.delay();
+		assertTrue(delay > 0 && delay <= 200);
+
+		Thread.sleep(delay + 10);
+		assertTrue(limiter.tryAcquire());
+		assertEquals(4, limiter.acquired());
+	}
+
+	@Test
+	public void testRefund() {
+		RateLimiter limiter = new RateLimiter(1, 60000);
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		limiter.refund();
+		assertEquals(1, limiter.remaining());
+		assertTrue(limiter.tryAcquire());
+		assertEquals(1, limiter.acquired());
+	}
+
+	@Test
+	public void testBurst() throws InterruptedException {
+		// 10 permits per second, at most 2 at once
+		RateLimiter limiter = new RateLimiter(10, 1000).burst(2);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		long delay = limiter.delay();
+		assertTrue(delay > 0 && delay <= 100);
+
+		Thread.sleep(delay + 10);
+		assertTrue(limiter.tryAcquire());
+		assertEquals(3, limiter.acquired());
+	}
+}
@@ -0,0 +1,175 @@
+package de.hpi.fgis.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.hpi.fgis.yql.YQLCrawler.CrawlingResults;
+
+public class DirectCrawlerTest {
+	private HttpServer server;
+	private String base;
+	private DirectCrawler crawler;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		base = "http://localhost:" + server.getAddress().getPort();
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				switch (path) {
+				case "/start":
+					exchange.getResponseHeaders().set("Location", "/middle");
+					respond(exchange, 301, "text/html", "");
+					break;
+				case "/middle":
+					exchange.getResponseHeaders().set("Location", base + "/page");
+					respond(exchange, 302, "text/html", "");
+					break;
+				case "/page":
+					respond(exchange, 200, "text/html; charset=ISO-8859-1", "<html><body>Grüße</body></html>");
+					break;
+				case "/image":
+					respond(exchange, 200, "image/png", "not really a png");
+					break;
+				case "/robots.txt":
+					respond(exchange, 200, "text/plain", "User-agent: *\nDisallow: /private\n");
+					break;
+				case "/private":
+					respond(exchange, 200, "text/html", "<html>private</html>");
+					break;
+				case "/large":
+					respond(exchange, 200, "text/html", "<html>" + repeat('x', 100000) + "</html>");
+					break;
+				case "/gzip":
+					String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+					if (encoding == null || !encoding.contains("gzip")) {
+						respond(exchange, 406, "text/html", "");
+						break;
+					}
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+					exchange.getResponseHeaders().set("Content-Type", "text/html");
+					exchange.sendResponseHeaders(200, 0);
+					try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+						out.write("<html>compressed</html>".getBytes("UTF-8"));
+					}
+					break;
+				case "/loop":
+					exchange.getResponseHeaders().set("Location", "/loop");
+					respond(exchange, 302, "text/html", "");
+					break;
+				default:
+					respond(exchange, 404, "text/html", "<html>not found</html>");
+				}
+			}
+		});
+		server.start();
+		AsyncHttpClient client = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setFollowRedirects(false).setCompressionEnabled(true).build());
+		crawler = new DirectCrawler(client, 10, 2, true).requestTimeout(2000);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] data = body.getBytes(contentType.contains("ISO-8859-1") ? "ISO-8859-1" : "UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, data.length == 0 ? -1 : data.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(data);
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	@After
+	public void shutDown() throws Exception {
+		crawler.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void testRedirects() throws IOException {
+		CrawlingResults results = crawler.crawl(Arrays.asList(base + "/start"));
+		String page = base + "/page";
+		assertEquals(page, results.redirects().get(base + "/start"));
+		assertEquals(page, results.redirects().get(base + "/middle"));
+		assertEquals(page, results.redirects().get(page));
+		assertEquals("<html><body>Grüße</body></html>", results.content(page));
+		assertEquals("200", results.header(page).get("status"));
+		assertEquals("text/html; charset=ISO-8859-1", results.header(page).get("content-type"));
+	}
+
+	@Test
+	public void testContentType() throws IOException {
+		CrawlingResults results = crawler.crawl(Arrays.asList(base + "/image", base + "/missing", base + "/loop"));
+		assertNull(results.content(base + "/image"));
+		assertEquals("image/png", results.header(base + "/image").get("content-type"));
+		assertEquals("404", results.header(base + "/missing").get("status"));
+		assertEquals("302", results.header(base + "/loop").get("status"));
+		assertFalse(results.redirects().containsKey(base + "/image"));
+	}
+
+	@Test
+	public void testRobotsTxt() throws IOException {
+		CrawlingResults results = crawler.crawl(Arrays.asList(base + "/private", base + "/page"));
+		assertNull(results.header(base + "/private"));
+		assertEquals("200", results.header(base + "/page").get("status"));
+	}
+
+	@Test
+	public void testTruncation() throws IOException {
+		crawler.maxContentLength(1000);
+		CrawlingResults results = crawler.crawl(Arrays.asList(base + "/large", base + "/page"));
+		assertEquals(1000, results.content(base + "/large").length());
+		assertTrue(results.isTruncated(base + "/large"));
+		assertFalse(results.isTruncated(base + "/page"));
+		assertTrue(results.bytes() >= 1000);
+	}
+
+	@Test
+	public void testBatchBudget() throws IOException {
+		crawler.maxBatchBytes(10);
+		CrawlingResults results = crawler.crawl(Arrays.asList(base + "/large"));
+		assertTrue(results.isTruncated(base + "/large"));
+		assertTrue(results.content(base + "/large").length() < 100000);
+	}
+
+	@Test
+	public void testCompression() throws IOException {
+		CrawlingResults results = crawler.crawl(Arrays.asList(base + "/gzip"));
+		assertEquals("200", results.header(base + "/gzip").get("status"));
+		assertEquals("<html>compressed</html>", results.content(base + "/gzip"));
+	}
+
+	@Test
+	public void testUnreachable() {
+		try {
+			crawler.crawl(Arrays.asList("http://localhost:1/"));
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package de.hpi.fgis.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PolitenessFrontierTest {
+
+	@Test
+	public void testPoliteness() throws InterruptedException {
+		final long delay = 100;
+		final CountDownLatch done = new CountDownLatch(8);
+		final Map<String, List<Long>> dispatched = Collections.synchronizedMap(new HashMap<String, List<Long>>());
+		final List<String> rejected = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicReference<PolitenessFrontier<String>> frontier = new AtomicReference<>();
+		// the time the frontier decided to dispatch the current url
+		final AtomicLong decided = new AtomicLong();
+		frontier.set(new PolitenessFrontier<String>(new PolitenessFrontier.Dispatcher<String>() {
+			@Override
+			public void dispatch(String url, String host) {
+				synchronized (dispatched) {
+					if (!dispatched.containsKey(host)) {
+						dispatched.put(host, new ArrayList<Long>());
+					}
+					dispatched.get(host).add(decided.get());
+				}
+				frontier.get().release(url);
+				done.countDown();
+			}
+
+			@Override
+			public void reject(String url, String host) {
+				rejected.add(url);
+				done.countDown();
+			}
+		}, delay, 1, null) {
+			@Override
+			long now() {
+				long now = super.now();
+				decided.set(now);
+				return now;
+			}
+		});
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			frontier.get().add("http://a.example/" + i, "a");
+			frontier.get().add("http://b.example/" + i, "b");
+		}
+		frontier.get().add("http://c.example/", "c");
+		frontier.get().add("no url", null);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		frontier.get().close();
+
+		assertEquals(Collections.singletonList("no url"), rejected);
+		assertEquals(3, dispatched.get("a").size());
+		assertEquals(3, dispatched.get("b").size());
+		assertEquals(1, dispatched.get("c").size());
+		// the hosts are crawled in parallel
+		assertTrue(dispatched.get("c").get(0) < dispatched.get("a").get(1));
+		assertTrue(dispatched.get("a").get(2) - start < 4 * delay);
+		for (String host : new String[] { "a", "b" }) {
+			List<Long> times = dispatched.get(host);
+			for (int i = 1; i < times.size(); i++) {
+				assertTrue(times.get(i) - times.get(i - 1) >= delay);
+			}
+		}
+		assertEquals(0, frontier.get().size());
+	}
+}
@@ -0,0 +1,94 @@
+package de.hpi.fgis.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RetrySchedulerTest {
+
+	@Test
+	public void testBackoff() {
+		final AtomicLong now = new AtomicLong(1000);
+		RetryScheduler<String> scheduler = new RetryScheduler<String>(3, 100, 1000, 100) {
+			@Override
+			long now() {
+				return now.get();
+			}
+		}.jitter(0);
+		scheduler.attempted(1);
+		assertTrue(scheduler.retry(1, "a", "unresolved"));
+		assertEquals(1, scheduler.size());
+		assertEquals(0, scheduler.due());
+		now.addAndGet(99);
+		assertTrue(scheduler.poll(10).isEmpty());
+		now.addAndGet(1);
+		assertEquals(1, scheduler.due());
+		assertEquals(Collections.singletonList("a"), scheduler.poll(10));
+
+		// the second retry waits twice as long
+		scheduler.attempted(1);
+		assertTrue(scheduler.retry(1, "a", "timeout"));
+		now.addAndGet(199);
+		assertTrue(scheduler.poll(10).isEmpty());
+		now.addAndGet(1);
+		assertEquals(Collections.singletonList("a"), scheduler.poll(10));
+		assertEquals(0, scheduler.size());
+	}
+
+	@Test
+	public void testMaxAttempts() {
+		RetryScheduler<String> scheduler = new RetryScheduler<>(2, 0, 0, 100);
+		scheduler.attempted(1);
+		// several items may share a key (attempts are counted per request)
+		assertTrue(scheduler.retry(1, "a", "unresolved"));
+		assertTrue(scheduler.retry(1, "b", "unresolved"));
+		scheduler.attempted(1);
+		assertFalse(scheduler.retry(1, "a", "unresolved"));
+		assertEquals(2, scheduler.attempts(1));
+		assertEquals(1, scheduler.poll(1).size());
+		assertEquals(1, scheduler.poll(10).size());
+		assertEquals(1, scheduler.givenUp());
+		assertEquals(2, scheduler.retries());
+		assertEquals(Long.valueOf(3), scheduler.reasons().get("unresolved"));
+
+		scheduler.succeeded(1);
+		assertEquals(0, scheduler.attempts(1));
+	}
+
+	@Test
+	public void testRestore() {
+		final AtomicLong now = new AtomicLong(1000);
+		RetryScheduler<String> scheduler = new RetryScheduler<String>(3, 100, 1000, 100) {
+			@Override
+			long now() {
+				return now.get();
+			}
+		}.jitter(0);
+		// a previous run requested the key twice, its retry is due at 1200
+		scheduler.restore(1, 2, 1200);
+		assertEquals(2, scheduler.attempts(1));
+		assertTrue(scheduler.defer(1, "a"));
+		assertFalse(scheduler.defer(2, "b"));
+		now.addAndGet(199);
+		assertTrue(scheduler.poll(10).isEmpty());
+		now.addAndGet(1);
+		assertEquals(Collections.singletonList("a"), scheduler.poll(10));
+		assertFalse(scheduler.defer(1, "a"));
+
+		// the attempts are not reset by the restart
+		scheduler.attempted(1);
+		assertFalse(scheduler.retry(1, "a", "unresolved"));
+		assertEquals(0, scheduler.due(1));
+
+		scheduler.attempted(2);
+		assertTrue(scheduler.retry(2, "b", "unresolved"));
+		assertEquals(1300, scheduler.due(2));
+		assertTrue(scheduler.succeeded(2));
+		assertFalse(scheduler.succeeded(2));
+	}
+}
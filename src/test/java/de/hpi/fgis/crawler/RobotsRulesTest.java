@@ -0,0 +1,45 @@
+package de.hpi.fgis.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RobotsRulesTest {
+	private static final String ROBOTS_TXT = "# example\n" +
+			"User-agent: *\n" +
+			"Disallow: /private\n" +
+			"Allow: /private/public\n" +
+			"Disallow: /*.pdf$\n" +
+			"Crawl-delay: 2\n" +
+			"\n" +
+			"User-agent: BadBot\n" +
+			"User-agent: TwitCrawl\n" +
+			"Disallow: /\n";
+
+	@Test
+	public void testDefaultAgent() {
+		RobotsRules rules = RobotsRules.parse(ROBOTS_TXT, "SomeCrawler");
+		assertTrue(rules.isAllowed("/"));
+		assertTrue(rules.isAllowed("/index.html?private"));
+		assertFalse(rules.isAllowed("/private/data"));
+		assertTrue(rules.isAllowed("/private/public/data"));
+		assertFalse(rules.isAllowed("/docs/paper.pdf"));
+		assertTrue(rules.isAllowed("/docs/paper.pdf?download"));
+		assertEquals(2000, rules.crawlDelay());
+	}
+
+	@Test
+	public void testSpecificAgent() {
+		RobotsRules rules = RobotsRules.parse(ROBOTS_TXT, "TwitCrawl");
+		assertFalse(rules.isAllowed("/"));
+		assertEquals(0, rules.crawlDelay());
+	}
+
+	@Test
+	public void testEmpty() {
+		assertTrue(RobotsRules.parse("", "TwitCrawl").isAllowed("/private"));
+		assertTrue(RobotsRules.parse("User-agent: *\nDisallow:\n", "TwitCrawl").isAllowed("/private"));
+	}
+}
@@ -0,0 +1,136 @@
+package de.hpi.fgis.database.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.hpi.fgis.util.URLNormalizer;
+
+public class MappedHashIndexTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+	private File folder;
+	private MappedHashIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = tmp.newFolder("index");
+		index = new MappedHashIndex(folder, 16, 1024);
+	}
+	@After
+	public void tearDown() throws Exception {
+		index.close();
+	}
+
+	@Test
+	public void testPutGet() throws IOException {
+		assertNull(index.get(42L));
+		index.put(42L, "http://example.com/");
+		index.put(0L, "zero");
+		assertEquals("http://example.com/", index.get(42L));
+		assertEquals("zero", index.get(0L));
+		index.put(42L, "http://example.com/other");
+		assertEquals("http://example.com/other", index.get(42L));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void testGrowAndReopen() throws IOException {
+		for (int i = 1; i <= 1000; i++) {
+			index.put(URLNormalizer.hash64("http://t.co/" + i), "http://example.com/" + i);
+		}
+		index.close();
+
+		index = new MappedHashIndex(folder, 16, 1024);
+		assertEquals(1000, index.size());
+		for (int i = 1; i <= 1000; i++) {
+			assertEquals("http://example.com/" + i, index.get(URLNormalizer.hash64("http://t.co/" + i)));
+		}
+	}
+
+	@Test
+	public void testCompact() throws IOException {
+		for (int round = 0; round < 5; round++) {
+			for (int i = 1; i <= 100; i++) {
+				index.put(i, "http://example.com/" + i + "/" + round);
+			}
+		}
+		long before = folder.listFiles().length;
+		index.compact();
+		long after = folder.listFiles().length;
+
+		assertEquals(true, after < before);
+		assertEquals(100, index.size());
+		for (int i = 1; i <= 100; i++) {
+			assertEquals("http://example.com/" + i + "/4", index.get(i));
+		}
+	}
+
+	@Test
+	public void testCompactUnreadable() throws IOException {
+		// 1, 17 and 33 share the same probe sequence (16 slots)
+		index.put(1, String.format("%1000s", "v1"));
+		index.put(17, "v17");
+		index.put(33, "v33");
+		// the segment of the first record is lost
+		try (RandomAccessFile segment = new RandomAccessFile(new File(folder, "segment-00000001.dat"), "rw")) {
+			segment.setLength(0);
+		}
+		index.compact();
+
+		assertEquals(2, index.size());
+		assertNull(index.get(1));
+		assertEquals("v17", index.get(17));
+		assertEquals("v33", index.get(33));
+		assertFalse(new File(folder, "segment-00000001.dat").exists());
+		index.put(1, "v1");
+		assertEquals("v1", index.get(1));
+		assertEquals(3, index.size());
+	}
+
+	@Test
+	public void testSharedAccess() throws IOException, InterruptedException {
+		index.put(1, "old");
+		// a second process grows and compacts the index (a JVM must not open the same folder twice)
+		Process other = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+				System.getProperty("java.class.path"), Writer.class.getName(), folder.getPath(), "100").inheritIO().start();
+		assertTrue(other.waitFor(60, TimeUnit.SECONDS));
+		assertEquals(0, other.exitValue());
+
+		// this accessor has to follow the growth and the compaction of the index
+		assertEquals(100, index.size());
+		assertEquals("v1", index.get(1));
+		assertEquals("v77", index.get(77));
+		index.put(101, "v101");
+		assertEquals("v101", index.get(101));
+	}
+
+	/**
+	 * the second process of {@link MappedHashIndexTest#testSharedAccess()}
+	 */
+	public static class Writer {
+		public static void main(String[] args) throws IOException {
+			MappedHashIndex index = new MappedHashIndex(new File(args[0]), 16, 1024);
+			try {
+				for (int i = 1; i <= Integer.parseInt(args[1]); i++) {
+					index.put(i, "v" + i);
+				}
+				index.compact();
+			} finally {
+				index.close();
+			}
+		}
+	}
+}
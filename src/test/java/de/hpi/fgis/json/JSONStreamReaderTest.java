@@ -0,0 +1,73 @@
+package de.hpi.fgis.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.mongodb.util.JSON;
+import com.mongodb.util.JSONParseException;
+
+import de.hpi.fgis.json.JSONStreamReader.ItemListener;
+
+public class JSONStreamReaderTest {
+	private static final String DATA = "{\"query\":{\"count\":2,\"created\":\"2013-10-30T19:05:45Z\",\"results\":{\"resources\":["
+			+ "{\"url\":\"http://a.com/\",\"status\":\"200\",\"content\":\"<html>\\n\\\"a\\\" \\u00e4</html>\"},"
+			+ "{\"url\":\"http://b.com/\",\"redirect\":[{\"from\":\"http://b.com\",\"to\":\"http://b.com/\"}],\"size\":12345678901,\"ratio\":0.5,\"ok\":true,\"none\":null}"
+			+ "]}}}";
+
+	@Test
+	public void testRead() throws IOException {
+		assertEquals(JSON.parse(DATA), new JSONStreamReader(new StringReader(DATA)).read());
+		assertEquals(JSON.parse("{'a':[1,[2,{}],'x'],'b':{}}"), new JSONStreamReader(new StringReader("{'a':[1,[2,{}],'x'],'b':{}}")).read());
+	}
+
+	@Test
+	public void testReadItems() throws IOException {
+		final List<Object> items = new ArrayList<>();
+		Object remaining = new JSONStreamReader(new StringReader(DATA)).read(new String[] {"query", "results", "resources"}, new ItemListener() {
+			@Override
+			public void onItem(Object item) {
+				items.add(item);
+			}
+		});
+
+		assertEquals(2, items.size());
+		assertEquals(JSON.parse("{\"url\":\"http://a.com/\",\"status\":\"200\",\"content\":\"<html>\\n\\\"a\\\" \\u00e4</html>\"}"), items.get(0));
+		assertEquals(JSON.parse("{\"query\":{\"count\":2,\"created\":\"2013-10-30T19:05:45Z\",\"results\":{}}}"), remaining);
+	}
+
+	@Test
+	public void testReadSingleItem() throws IOException {
+		final List<Object> items = new ArrayList<>();
+		new JSONStreamReader(new StringReader("{\"results\":{\"resources\":{\"url\":\"http://a.com/\"}}}")).read(new String[] {"results", "resources"}, new ItemListener() {
+			@Override
+			public void onItem(Object item) {
+				items.add(item);
+			}
+		});
+		assertEquals(1, items.size());
+		assertEquals(JSON.parse("{\"url\":\"http://a.com/\"}"), items.get(0));
+	}
+
+	@Test
+	public void testIllegalData() throws IOException {
+		try {
+			new JSONStreamReader(new StringReader("{\"a\":[1,2}")).read();
+			fail();
+		} catch (JSONParseException e) {
+			// expected
+		}
+		try {
+			new JSONStreamReader(new StringReader("{\"a\":\"open")).read();
+			fail();
+		} catch (JSONParseException e) {
+			// expected
+		}
+	}
+}
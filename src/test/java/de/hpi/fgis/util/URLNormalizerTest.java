@@ -0,0 +1,35 @@
+package de.hpi.fgis.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class URLNormalizerTest {
+	private final URLNormalizer normalizer = URLNormalizer.getInstance();
+
+	@Test
+	public void testNormalize() {
+		assertEquals("http://example.com/", normalizer.normalize("HTTP://Example.COM"));
+		assertEquals("http://example.com/a/B", normalizer.normalize("http://example.com:80/a/B#top"));
+		assertEquals("https://example.com:8443/", normalizer.normalize("https://example.com:8443"));
+		assertEquals("https://example.com/", normalizer.normalize("https://example.com:443/"));
+		assertEquals("http://user@example.com/?a=1&b=2", normalizer.normalize("http://user@Example.com./?a=1&utm_source=twitter&b=2&fbclid=xyz"));
+		assertEquals("http://example.com/p", normalizer.normalize("http://example.com/p?utm_medium=social&utm_campaign=x"));
+		assertEquals("example.com/p", normalizer.normalize(" example.com/p "));
+	}
+
+	@Test
+	public void testConfiguredParameters() {
+		URLNormalizer custom = new URLNormalizer(Arrays.asList("ref", "s_*"));
+		assertEquals("http://example.com/?utm_source=a", custom.normalize("http://example.com/?ref=b&utm_source=a&s_id=1"));
+	}
+
+	@Test
+	public void testFingerprint() {
+		assertEquals(normalizer.fingerprint("http://bit.ly/13M0qc8"), normalizer.fingerprint("http://BIT.LY:80/13M0qc8#x"));
+		assertFalse(normalizer.fingerprint("http://bit.ly/13M0qc8") == normalizer.fingerprint("http://bit.ly/13M0qc9"));
+	}
+}
@@ -0,0 +1,55 @@
+package de.hpi.fgis.yql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class AdaptiveBatchSizerTest {
+
+	@Test
+	public void testGrowAndShrink() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 120).increment(10).targetLatency(1000);
+		sizer.onSuccess(100, 90, 500);
+		assertEquals(110, sizer.batchSize());
+		sizer.onSuccess(110, 100, 500);
+		sizer.onSuccess(120, 100, 500);
+		// bounded by max
+		assertEquals(120, sizer.batchSize());
+
+		// slow but complete
+		sizer.onSuccess(120, 100, 1500);
+		assertEquals(110, sizer.batchSize());
+
+		// incomplete
+		sizer.onSuccess(110, 20, 500);
+		assertEquals(55, sizer.batchSize());
+
+		// failed
+		sizer.onFailure(55, new IOException("timeout"));
+		sizer.onFailure(27, new DeserializationException("broken"));
+		sizer.onFailure(13, new IOException("timeout"));
+		// bounded by min
+		assertEquals(10, sizer.batchSize());
+	}
+
+	@Test
+	public void testNoGrowthForSmallBatches() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 500);
+		// not enough candidates available
+		sizer.onSuccess(20, 20, 100);
+		assertEquals(100, sizer.batchSize());
+	}
+
+	@Test
+	public void testUrlsPerRequest() {
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 500);
+		sizer.onSuccess(100, 80, 100);
+		sizer.onSuccess(100, 100, 100);
+		sizer.onFailure(100, new IOException());
+		assertEquals(3, sizer.requests());
+		assertEquals(1, sizer.failedRequests());
+		assertEquals(60, sizer.urlsPerRequest(), 0.0001);
+	}
+}
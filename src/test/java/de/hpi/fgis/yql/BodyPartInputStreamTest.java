@@ -0,0 +1,56 @@
+package de.hpi.fgis.yql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+public class BodyPartInputStreamTest {
+	@Test
+	public void testRead() throws Exception {
+		final BodyPartInputStream body = new BodyPartInputStream();
+		body.add("{\"a\":".getBytes(StandardCharsets.UTF_8));
+		assertEquals(5, body.available());
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				body.add("1}".getBytes(StandardCharsets.UTF_8));
+				body.complete();
+			}
+		}.start();
+		// the reader waits for the remaining parts
+		try (Scanner scanner = new Scanner(body, "UTF-8")) {
+			assertEquals("{\"a\":1}", scanner.useDelimiter("\\A").next());
+		}
+		assertEquals(-1, new BodyPartInputStream() {
+			{
+				complete();
+			}
+		}.read());
+	}
+
+	@Test
+	public void testFail() throws Exception {
+		BodyPartInputStream body = new BodyPartInputStream();
+		body.add(new byte[] { 1 });
+		IllegalStateException failure = new IllegalStateException();
+		body.fail(failure);
+		try {
+			body.read();
+			fail("The failure has not been forwarded");
+		} catch (IOException e) {
+			assertSame(failure, e.getCause());
+		}
+		assertSame(failure, body.failure());
+	}
+}
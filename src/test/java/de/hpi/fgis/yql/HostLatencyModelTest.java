@@ -0,0 +1,98 @@
+package de.hpi.fgis.yql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HostLatencyModelTest {
+	@Test
+	public void testHost() {
+		assertEquals("www.example.com", HostLatencyModel.host("http://WWW.Example.com/a?b=c"));
+		assertEquals("example.org", HostLatencyModel.host(" https://example.org:8080 "));
+		assertEquals("not a url", HostLatencyModel.host("not a url"));
+	}
+
+	@Test
+	public void testExpected() {
+		HostLatencyModel model = new HostLatencyModel().smoothing(0.5);
+		assertEquals(-1, model.expected("http://www.example.com/"));
+		model.observe("http://www.example.com/a", 1000);
+		assertEquals(1000, model.expected("http://www.example.com/b"));
+		model.observe("http://www.example.com/c", 2000);
+		assertEquals(1500, model.expected("http://www.example.com/"));
+		model.timedOut("http://www.example.com/", 5500);
+		assertEquals(3500, model.expected("http://www.example.com/"));
+		assertEquals(1, model.hosts());
+		assertEquals(1, model.timeouts());
+	}
+
+	@Test
+	public void testCompletedWithin() {
+		HostLatencyModel model = new HostLatencyModel().smoothing(0.5);
+		for (int i = 0; i < 2; i++) {
+			// the slow host holds up the request of both hosts
+			model.completedWithin("http://fast.example.com/", 2000);
+			model.completedWithin("http://slow.example.com/", 2000);
+			// the fast host alone
+			model.completedWithin("http://fast.example.com/", 200);
+		}
+		assertEquals(650, model.expected("http://fast.example.com/"));
+		assertEquals(2000, model.expected("http://slow.example.com/"));
+	}
+
+	@Test
+	public void testTimeout() {
+		HostLatencyModel model = new HostLatencyModel().timeouts(2, 500);
+		model.observe("http://fast.example.com/", 100);
+		model.observe("http://medium.example.com/", 1000);
+		model.observe("http://slow.example.com/", 10000);
+		assertEquals(500, model.timeout("http://fast.example.com/", 5000));
+		assertEquals(2000, model.timeout("http://medium.example.com/", 5000));
+		assertEquals(5000, model.timeout("http://slow.example.com/", 5000));
+		// unknown hosts get the maximal timeout
+		assertEquals(5000, model.timeout("http://unknown.example.com/", 5000));
+		// the slowest host determines the timeout of a request
+		assertEquals(2000, model.timeout(Arrays.asList("http://fast.example.com/", "http://medium.example.com/"), 5000));
+	}
+
+	@Test
+	public void testGroup() {
+		HostLatencyModel model = new HostLatencyModel().timeouts(1, 100).grouping(2, 3);
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			String url = "http://host" + i + ".example.com/";
+			urls.add(url);
+			model.observe(url, i < 3 ? 100 : 1000);
+		}
+		urls.add("http://unknown.example.com/");
+		List<List<String>> groups = model.group(urls, 10000);
+		assertEquals(2, groups.size());
+		assertEquals(urls.subList(0, 3), groups.get(0));
+		// the single unknown host is merged into the slow group
+		assertEquals(4, groups.get(1).size());
+
+		// at most one request per batch
+		model.grouping(2, 1);
+		assertEquals(1, model.group(urls, 10000).size());
+		// uniform latencies --> one request
+		model.grouping(1, 3);
+		assertEquals(1, model.group(urls.subList(0, 3), 10000).size());
+	}
+
+	@Test
+	public void testMaxHosts() {
+		HostLatencyModel model = new HostLatencyModel().maxHosts(2);
+		model.observe("http://a.example.com/", 100);
+		model.observe("http://b.example.com/", 100);
+		model.expected("http://a.example.com/");
+		model.observe("http://c.example.com/", 100);
+		// the least recently used host is dropped
+		assertEquals(2, model.hosts());
+		assertEquals(100, model.expected("http://a.example.com/"));
+		assertEquals(-1, model.expected("http://b.example.com/"));
+	}
+}
@@ -0,0 +1,723 @@
+package de.hpi.fgis.yql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.hpi.fgis.util.URLNormalizer;
+
+/**
+ * embeddable local stand-in for the YQL endpoint that implements the contract
+ * of the data.headers table (see YQLTables/data.headers.xml), i.e., for every
+ * url of a <code>url in (...)</code> or <code>url='...'</code> query a
+ * "resources" item with optional "redirect" entries, "url", "status",
+ * "headers" and "content" is returned (JSON or XML serialization).<br/>
+ * The resources are synthetic but deterministic per url, latency, error rate,
+ * throttling and the distribution of page sizes are configurable, such that the
+ * crawling pipeline can be load tested w/o the actual service:
+ *
+ * <pre>
+ * LocalYQLServer server = new LocalYQLServer(0).latency(50, 200).throttleRate(0.01);
+ * YQLCrawler crawler = new YQLCrawler(server.baseURI());
+ * </pre>
+ *
+ * @author tongr
+ *
+ */
+public class LocalYQLServer implements Closeable {
+	private static final Logger LOG = Logger.getLogger(LocalYQLServer.class.getName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String PATH = "/v1/public/yql";
+	private static final Pattern USE_PATTERN = Pattern.compile("(?i)(\\s*USE\\s+(['\"]).*?\\2\\s+AS\\s+\\w+\\s*;)*");
+	private static final Pattern URL_PATTERN = Pattern.compile("(?i)\\burl\\s*(in\\s*\\(|=)\\s*");
+	private static final Pattern TIMEOUT_PATTERN = Pattern.compile("timeout\\s*=\\s*'(\\d+)'");
+	private static final String HTML_SUFFIX = "</p></body></html>";
+	private static final String LOREM = "Lorem ipsum dolor sit amet, consetetur sadipscing elitr, sed diam nonumy eirmod tempor invidunt ut labore et dolore magna aliquyam erat. ";
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final Random random;
+	private final long seed;
+
+	private volatile long minLatency = 0;
+	private volatile long maxLatency = 0;
+	private volatile long resourceLatency = 0;
+	private volatile double errorRate = 0;
+	private volatile double throttleRate = 0;
+	private volatile int maxRequestsPerSecond = 0;
+	private volatile int throttleStatus = 429;
+	private volatile int medianPageSize = 16 * 1024;
+	private volatile double pageSizeSigma = 1;
+	private volatile int maxPageSize = 1024 * 1024;
+	private volatile double redirectRate = 0.1;
+	private volatile double deadUrlRate = 0.05;
+	private final Set<String> poisonUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> brokenTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> slowUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private volatile long transferDelay = 0;
+
+	private final Object windowLock = new Object();
+	private long windowStart = 0;
+	private int windowRequests = 0;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong resources = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+
+	/**
+	 * starts a new server listening on the specified local port
+	 *
+	 * @param port
+	 *            the port to listen on (0 chooses a free port)
+	 * @throws IOException
+	 *             if the server cannot be bound to the port
+	 */
+	public LocalYQLServer(int port) throws IOException {
+		this(port, 42);
+	}
+
+	/**
+	 * starts a new server listening on the specified local port
+	 *
+	 * @param port
+	 *            the port to listen on (0 chooses a free port)
+	 * @param seed
+	 *            the seed of the generated resources and request failures
+	 * @throws IOException
+	 *             if the server cannot be bound to the port
+	 */
+	public LocalYQLServer(int port, long seed) throws IOException {
+		this.seed = seed;
+		this.random = new Random(seed);
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					LocalYQLServer.this.handle(exchange);
+				} catch (IOException e) {
+					// i.e., the client cancelled the request (hedging)
+					LOG.log(Level.FINE, "Unable to answer request", e);
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Unable to answer request", e);
+					throw e;
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		// latencies are simulated by sleeping threads
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * gets the base uri to be used with {@link YQLApiJSON#YQLApiJSON(String)},
+	 * {@link YQLApiXML#YQLApiXML(String)}, or
+	 * {@link YQLCrawler#YQLCrawler(String)}
+	 *
+	 * @return the base uri of this server
+	 */
+	public String baseURI() {
+		return "http://localhost:" + port() + PATH + "?";
+	}
+
+	/**
+	 * gets the port the server is listening on
+	 *
+	 * @return the local port
+	 */
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * set the latency of every request (uniformly distributed in the specified
+	 * interval, in ms)
+	 *
+	 * @param minLatency
+	 *            the minimal latency (in ms)
+	 * @param maxLatency
+	 *            the maximal latency (in ms)
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer latency(long minLatency, long maxLatency) {
+		if (minLatency < 0 || maxLatency < minLatency) {
+			throw new IllegalArgumentException("Illegal latency interval [" + minLatency + "," + maxLatency + "]");
+		}
+		this.minLatency = minLatency;
+		this.maxLatency = maxLatency;
+		return this;
+	}
+
+	/**
+	 * set the additional latency per requested url (in ms), the slowest
+	 * resource of a request determines the additional latency of the request
+	 *
+	 * @param resourceLatency
+	 *            the maximal additional latency per url (in ms)
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer resourceLatency(long resourceLatency) {
+		this.resourceLatency = resourceLatency;
+		return this;
+	}
+
+	/**
+	 * set the probability of a request to fail with an internal server error
+	 *
+	 * @param errorRate
+	 *            the probability of a failing request
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer errorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	/**
+	 * set the probability of a request to be rejected with a throttling
+	 * response
+	 *
+	 * @param throttleRate
+	 *            the probability of a throttled request
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer throttleRate(double throttleRate) {
+		this.throttleRate = throttleRate;
+		return this;
+	}
+
+	/**
+	 * set the maximal number of requests per second, every further request
+	 * within the same second is rejected with a throttling response
+	 *
+	 * @param maxRequestsPerSecond
+	 *            the maximal number of requests per second (0 for no limit)
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer maxRequestsPerSecond(int maxRequestsPerSecond) {
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+		return this;
+	}
+
+	/**
+	 * set the http status code of throttling responses (default 429)
+	 *
+	 * @param throttleStatus
+	 *            the http status code
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer throttleStatus(int throttleStatus) {
+		this.throttleStatus = throttleStatus;
+		return this;
+	}
+
+	/**
+	 * set the distribution of the content sizes (log-normal distribution)
+	 *
+	 * @param medianPageSize
+	 *            the median content size (in characters)
+	 * @param sigma
+	 *            the standard deviation of the logarithmic content size (0 for
+	 *            a fixed size)
+	 * @param maxPageSize
+	 *            the maximal content size (in characters)
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer pageSize(int medianPageSize, double sigma, int maxPageSize) {
+		this.medianPageSize = medianPageSize;
+		this.pageSizeSigma = sigma;
+		this.maxPageSize = maxPageSize;
+		return this;
+	}
+
+	/**
+	 * set the probability of an url to be redirected
+	 *
+	 * @param redirectRate
+	 *            the probability of a redirect
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer redirectRate(double redirectRate) {
+		this.redirectRate = redirectRate;
+		return this;
+	}
+
+	/**
+	 * set the probability of an url to be unavailable (status 404 w/o content)
+	 *
+	 * @param deadUrlRate
+	 *            the probability of an unavailable resource
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer deadUrlRate(double deadUrlRate) {
+		this.deadUrlRate = deadUrlRate;
+		return this;
+	}
+
+	/**
+	 * set urls that break every request containing them (the response is cut
+	 * off, like YQL responses broken by undecodable contents)
+	 *
+	 * @param urls
+	 *            the poison urls
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer poisonUrls(String... urls) {
+		poisonUrls.clear();
+		poisonUrls.addAll(Arrays.asList(urls));
+		return this;
+	}
+
+	/**
+	 * set urls whose responses are transferred slowly: the first half of the
+	 * body is sent immediately, the rest after the specified delay
+	 *
+	 * @param transferDelay
+	 *            the stall of the transfer (in ms)
+	 * @param urls
+	 *            the slow urls
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer slowUrls(long transferDelay, String... urls) {
+		this.transferDelay = transferDelay;
+		slowUrls.clear();
+		slowUrls.addAll(Arrays.asList(urls));
+		return this;
+	}
+
+	/**
+	 * set table definitions that cannot be loaded, every request using one of
+	 * them is answered w/ an error
+	 *
+	 * @param tableURIs
+	 *            the uris of the broken table definitions
+	 * @return this {@link LocalYQLServer} instance
+	 */
+	public LocalYQLServer brokenTables(String... tableURIs) {
+		brokenTables.clear();
+		brokenTables.addAll(Arrays.asList(tableURIs));
+		return this;
+	}
+
+	/**
+	 * gets the number of requests received so far
+	 *
+	 * @return the number of requests
+	 */
+	public long requests() {
+		return requests.get();
+	}
+
+	/**
+	 * gets the number of resources returned so far
+	 *
+	 * @return the number of resources
+	 */
+	public long resources() {
+		return resources.get();
+	}
+
+	/**
+	 * gets the number of requests answered with an error
+	 *
+	 * @return the number of failed requests
+	 */
+	public long failed() {
+		return failed.get();
+	}
+
+	/**
+	 * gets the number of requests answered with a throttling response
+	 *
+	 * @return the number of throttled requests
+	 */
+	public long throttled() {
+		return throttled.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		Map<String, String> parameters = new HashMap<>();
+		parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+		if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+			parseParameters(new String(readFully(exchange.getRequestBody()), UTF8), parameters);
+		}
+		boolean xml = !"json".equalsIgnoreCase(parameters.get("format"));
+
+		if (isThrottled()) {
+			throttled.incrementAndGet();
+			respond(exchange, throttleStatus, xml, error("Too many requests"));
+			return;
+		}
+
+		String query = parameters.get("q");
+		for (String table : brokenTables) {
+			if (query != null && query.contains("\"" + table + "\"")) {
+				failed.incrementAndGet();
+				respond(exchange, 400, xml, error("Unable to load the table definition " + table));
+				return;
+			}
+		}
+		List<String> urls = query == null ? null : parseURLs(query);
+		if (urls == null) {
+			failed.incrementAndGet();
+			respond(exchange, 400, xml, error("Query syntax error(s) [line 1:0 unsupported query " + query + "]"));
+			return;
+		}
+		long timeout = 5000;
+		Matcher timeoutMatcher = TIMEOUT_PATTERN.matcher(query);
+		if (timeoutMatcher.find()) {
+			timeout = Long.parseLong(timeoutMatcher.group(1));
+		}
+
+		long latency = minLatency;
+		boolean fail;
+		synchronized (random) {
+			if (maxLatency > minLatency) {
+				latency += (long) (random.nextDouble() * (maxLatency - minLatency));
+			}
+			fail = random.nextDouble() < errorRate;
+		}
+
+		BasicDBList items = new BasicDBList();
+		long slowest = 0;
+		for (String url : urls) {
+			Random urlRandom = new Random(seed ^ URLNormalizer.hash64(url));
+			long fetchTime = (long) (urlRandom.nextDouble() * resourceLatency);
+			items.add(createResource(url, urlRandom, fetchTime > timeout));
+			slowest = Math.max(slowest, Math.min(fetchTime, timeout));
+		}
+		sleep(latency + slowest);
+
+		if (fail) {
+			failed.incrementAndGet();
+			respond(exchange, 500, xml, error("Internal server error"));
+			return;
+		}
+		boolean poisoned = false;
+		boolean slow = false;
+		for (String url : urls) {
+			poisoned |= poisonUrls.contains(url);
+			slow |= slowUrls.contains(url);
+		}
+		resources.addAndGet(items.size());
+
+		BasicDBObject results = null;
+		if (items.size() > 0) {
+			results = new BasicDBObject("resources", items.size() == 1 ? items.get(0) : items);
+		}
+		BasicDBObject meta = new BasicDBObject("count", items.size());
+		meta.put("created", timestamp());
+		meta.put("lang", "en-US");
+		meta.put("results", results);
+		if (poisoned) {
+			failed.incrementAndGet();
+		}
+		respond(exchange, 200, xml, new BasicDBObject("query", meta), poisoned, slow ? transferDelay : 0);
+	}
+
+	private DBObject createResource(String url, Random urlRandom, boolean timedOut) {
+		BasicDBObject resource = new BasicDBObject();
+		String contentURL = url;
+		if (urlRandom.nextDouble() < redirectRate) {
+			contentURL = url + (url.endsWith("/") ? "" : "/") + "r" + Long.toHexString(urlRandom.nextLong() >>> 16) + "/";
+			resource.put("redirect", new BasicDBObject("from", url).append("to", contentURL));
+		}
+		boolean dead = timedOut || urlRandom.nextDouble() < deadUrlRate;
+		int size = (int) Math.min(maxPageSize, Math.max(0, Math.round(medianPageSize * Math.exp(pageSizeSigma * urlRandom.nextGaussian()))));
+
+		BasicDBObject headers = new BasicDBObject("date", timestamp());
+		headers.put("server", "LocalYQLServer");
+		resource.put("url", contentURL);
+		if (timedOut) {
+			resource.put("status", "504");
+		} else if (dead) {
+			resource.put("status", "404");
+			headers.put("content-type", "text/html");
+		} else {
+			resource.put("status", "200");
+			headers.put("content-type", "text/html; charset=utf-8");
+			headers.put("content-length", Integer.toString(size));
+		}
+		resource.put("headers", new BasicDBObject("result", headers));
+		resource.put("content", dead ? "" : createContent(contentURL, size));
+		return resource;
+	}
+
+	private String createContent(String url, int size) {
+		StringBuilder content = new StringBuilder(size + 64);
+		content.append("<html><head><title>").append(url.replace("&", "&amp;").replace("<", "&lt;")).append("</title></head><body><p>");
+		int prefixLength = content.length();
+		while (content.length() < size) {
+			content.append(LOREM);
+		}
+		content.setLength(Math.max(size - HTML_SUFFIX.length(), prefixLength));
+		content.append(HTML_SUFFIX);
+		return content.toString();
+	}
+
+	private boolean isThrottled() {
+		if (maxRequestsPerSecond > 0) {
+			synchronized (windowLock) {
+				long now = System.currentTimeMillis();
+				if (now - windowStart >= 1000) {
+					windowStart = now;
+					windowRequests = 0;
+				}
+				if (++windowRequests > maxRequestsPerSecond) {
+					return true;
+				}
+			}
+		}
+		synchronized (random) {
+			return random.nextDouble() < throttleRate;
+		}
+	}
+
+	/**
+	 * extracts the urls of the <code>url in ('...', '...')</code> or
+	 * <code>url='...'</code> condition
+	 *
+	 * @param query
+	 *            the query (including optional USE statements)
+	 * @return the urls or <code>null</code> if the query does not contain a
+	 *         proper url condition
+	 */
+	static List<String> parseURLs(String query) {
+		// skip table definitions
+		Matcher useMatcher = USE_PATTERN.matcher(query);
+		int start = useMatcher.lookingAt() ? useMatcher.end() : 0;
+		Matcher matcher = URL_PATTERN.matcher(query);
+		if (!matcher.find(start)) {
+			return null;
+		}
+		boolean list = matcher.group(1).length() > 1;
+		List<String> urls = new ArrayList<>();
+		int pos = matcher.end();
+		while (pos < query.length()) {
+			char quote = query.charAt(pos);
+			if (quote != '\'' && quote != '"') {
+				return null;
+			}
+			int end = query.indexOf(quote, pos + 1);
+			if (end < 0) {
+				return null;
+			}
+			urls.add(query.substring(pos + 1, end));
+			pos = end + 1;
+			if (!list) {
+				return urls;
+			}
+			while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+				pos++;
+			}
+			if (pos < query.length() && query.charAt(pos) == ')') {
+				return urls;
+			}
+			if (pos >= query.length() || query.charAt(pos) != ',') {
+				return null;
+			}
+			pos++;
+			while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+				pos++;
+			}
+		}
+		return null;
+	}
+
+	private DBObject error(String description) {
+		return new BasicDBObject("error", new BasicDBObject("lang", "en-US").append("description", description));
+	}
+
+	private void respond(HttpExchange exchange, int status, boolean xml, DBObject data) throws IOException {
+		respond(exchange, status, xml, data, false, 0);
+	}
+
+	private void respond(HttpExchange exchange, int status, boolean xml, DBObject data, boolean broken, long stall) throws IOException {
+		byte[] body;
+		if (xml) {
+			body = toXML(data);
+			exchange.getResponseHeaders().set("Content-Type", "text/xml;charset=utf-8");
+		} else {
+			body = JSON.serialize(data).getBytes(UTF8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+		}
+		if (broken) {
+			body = Arrays.copyOf(body, body.length / 2);
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		if (stall > 0) {
+			out.write(body, 0, body.length / 2);
+			out.flush();
+			sleep(stall);
+			out.write(body, body.length / 2, body.length - body.length / 2);
+		} else {
+			out.write(body);
+		}
+		out.flush();
+	}
+
+	private byte[] toXML(DBObject data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			String rootName = data.keySet().iterator().next();
+			DBObject root = (DBObject) data.get(rootName);
+			writer.writeStartElement(rootName);
+			writer.writeNamespace("yahoo", "http://www.yahooapis.com/v1/base.rng");
+			// meta data is serialized as attributes of the root element
+			for (String key : root.keySet()) {
+				Object value = root.get(key);
+				if (value != null && !(value instanceof DBObject)) {
+					writer.writeAttribute("yahoo:" + key, value.toString());
+				}
+			}
+			for (String key : root.keySet()) {
+				Object value = root.get(key);
+				if (value == null || value instanceof DBObject) {
+					writeXML(writer, key, value);
+				}
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to serialize XML response", e);
+		}
+		return out.toByteArray();
+	}
+
+	private void writeXML(XMLStreamWriter writer, String name, Object value) throws XMLStreamException {
+		if (value instanceof List) {
+			for (Object item : (List<?>) value) {
+				writeXML(writer, name, item);
+			}
+			return;
+		}
+		writer.writeStartElement(name);
+		if (value instanceof DBObject) {
+			DBObject obj = (DBObject) value;
+			for (String key : obj.keySet()) {
+				writeXML(writer, key, obj.get(key));
+			}
+		} else if (value != null) {
+			writer.writeCharacters(value.toString());
+		}
+		writer.writeEndElement();
+	}
+
+	private static void parseParameters(String encoded, Map<String, String> sink) throws UnsupportedEncodingException {
+		if (encoded == null || encoded.isEmpty()) {
+			return;
+		}
+		for (String parameter : encoded.split("&")) {
+			int eq = parameter.indexOf('=');
+			if (eq > 0) {
+				sink.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"), URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+			}
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static String timestamp() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date());
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * starts a stand-alone server (i.e., for crawling via
+	 * <code>-Dyql.endpoint=http://localhost:&lt;port&gt;/v1/public/yql?</code>),
+	 * the server is part of the test sources:
+	 * <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=de.hpi.fgis.yql.LocalYQLServer</code>
+	 *
+	 * @param args
+	 *            optional: the port (default 8080), the minimal and maximal
+	 *            latency (in ms), and the throttle rate
+	 * @throws IOException
+	 *             if the server cannot be started
+	 */
+	public static void main(String[] args) throws IOException {
+		LocalYQLServer server = new LocalYQLServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+		if (args.length > 2) {
+			server.latency(Long.parseLong(args[1]), Long.parseLong(args[2]));
+		}
+		if (args.length > 3) {
+			server.throttleRate(Double.parseDouble(args[3]));
+		}
+		System.out.println("YQL stand-in listening at " + server.baseURI());
+	}
+}
@@ -0,0 +1,453 @@
+package de.hpi.fgis.yql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.DBObject;
+
+import de.hpi.fgis.concurrency.AsyncResultHandler;
+import de.hpi.fgis.concurrency.MeteredExecutor;
+import de.hpi.fgis.concurrency.RateLimiter;
+import de.hpi.fgis.yql.YQLCrawler.CrawlingResults;
+
+public class LocalYQLServerTest {
+	private static final List<String> URLS = Arrays.asList("http://www.example.com/", "http://www.example.org/a?b=c", "http://www.example.net/");
+	private LocalYQLServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalYQLServer(0).redirectRate(0).deadUrlRate(0).pageSize(1000, 0, 1000);
+	}
+
+	@After
+	public void shutDown() throws Exception {
+		server.close();
+	}
+
+	@Test
+	public void testParseURLs() {
+		assertEquals(URLS, LocalYQLServer.parseURLs("USE \"store://abc\" AS DATA;select * from DATA where url in ('" + URLS.get(0) + "', '" + URLS.get(1) + "','" + URLS.get(2) + "') and timeout='5000' and ua='Mozilla/5.0 (compatible; MSIE 6.0; Windows NT 5.1)'"));
+		assertEquals(Arrays.asList("http://www.yahoo.com/"), LocalYQLServer.parseURLs("select * from DATA where url='http://www.yahoo.com/'"));
+		assertNull(LocalYQLServer.parseURLs("select name from geo.places where woeid = '638242'"));
+	}
+
+	@Test
+	public void testQueryJSON() throws Exception {
+		try (YQLApiJSON api = new YQLApiJSON(server.baseURI())) {
+			DBObject results = api.query("select * from DATA where url='http://www.example.com/'", "DATA", "store://wPdxHE6ILC1Ti4oCGOIs0v");
+			DBObject resource = (DBObject) results.get("resources");
+			assertEquals("http://www.example.com/", resource.get("url"));
+			assertEquals("200", resource.get("status"));
+			assertEquals(1000, ((String) resource.get("content")).length());
+		}
+	}
+
+	@Test
+	public void testQueryXML() throws Exception {
+		try (YQLApiXML api = new YQLApiXML(server.baseURI())) {
+			DBObject results = api.query("select * from DATA where url in ('http://www.example.com/','http://www.example.org/')", "DATA", "store://wPdxHE6ILC1Ti4oCGOIs0v");
+			List<?> resources = (List<?>) results.get("resources");
+			assertEquals(2, resources.size());
+			assertEquals("http://www.example.org/", ((DBObject) resources.get(1)).get("url"));
+			assertNotNull(((DBObject) ((DBObject) resources.get(1)).get("headers")).get("result"));
+		}
+	}
+
+	@Test
+	public void testCrawl() throws Exception {
+		server.redirectRate(1);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI())) {
+			CrawlingResults results = crawler.crawl(URLS);
+			assertEquals(3, results.urls().size());
+			for (String url : URLS) {
+				String target = results.redirects().get(url);
+				assertNotNull(target);
+				assertTrue(results.content(target).length() > 0);
+			}
+		}
+		assertEquals(1, server.requests());
+		assertEquals(3, server.resources());
+	}
+
+	@Test
+	public void testCrawlTruncated() throws Exception {
+		server.redirectRate(0).deadUrlRate(0).pageSize(5000, 0, 5000);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).maxContentLength(1000)) {
+			CrawlingResults results = crawler.crawl(URLS);
+			for (String url : URLS) {
+				assertEquals(1000, results.content(url).length());
+				assertTrue(results.isTruncated(url));
+			}
+			assertTrue(results.bytes() >= 3 * 5000);
+		}
+	}
+
+	@Test
+	public void testCrawlHedged() throws Exception {
+		server.latency(0, 600);
+		final AtomicInteger complete = new AtomicInteger();
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).hedging(0.5, 0.5).hedgeMinSamples(5)) {
+			for (int wave = 0; wave < 4; wave++) {
+				final CountDownLatch done = new CountDownLatch(10);
+				for (int i = 0; i < 10; i++) {
+					crawler.crawlAsync(URLS, new AsyncResultHandler<CrawlingResults>() {
+						@Override
+						public void onCompleted(CrawlingResults data) {
+							if (data.urls().containsAll(URLS)) {
+								complete.incrementAndGet();
+							}
+							done.countDown();
+						}
+
+						@Override
+						public void onThrowable(Throwable t) {
+							done.countDown();
+						}
+					});
+				}
+				assertTrue(done.await(5, TimeUnit.SECONDS));
+			}
+			assertEquals(40, complete.get());
+			assertEquals(40, crawler.requests());
+			assertTrue(crawler.hedges() > 0);
+			assertTrue(crawler.hedges() <= 0.5 * crawler.requests());
+			assertTrue(crawler.hedgeWins() > 0);
+			assertTrue(crawler.hedgeWins() <= crawler.hedges());
+		}
+	}
+
+		@Test
+	public void testCrawlBisection() throws Exception {
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			urls.add("http://www.example.com/" + i);
+		}
+		server.poisonUrls(urls.get(5), urls.get(11));
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI())) {
+			CrawlingResults results = crawlAsync(crawler, urls);
+			assertEquals(new HashSet<>(Arrays.asList(urls.get(5), urls.get(11))), results.deadUrls());
+			assertEquals(14, results.urls().size());
+			assertTrue(crawler.bisections() <= crawler.bisectionBudget());
+			assertEquals(2, crawler.deadUrls());
+		}
+
+		// the batch is retried if the budget is exhausted
+		server.poisonUrls(urls.get(5));
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).bisectionBudget(2)) {
+			assertTrue(crawlFailure(crawler, urls) instanceof DeserializationException);
+			assertEquals(2, crawler.bisections());
+		}
+
+		// every bisection request is charged to the quota
+		RateLimiter quota = new RateLimiter(2, 3600000);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).quota(quota)) {
+			assertTrue(crawlFailure(crawler, urls) instanceof DeserializationException);
+			assertEquals(2, crawler.bisections());
+			assertEquals(2, quota.acquired());
+		}
+	}
+
+	@Test
+	public void testBisectionCircuit() throws Exception {
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			urls.add("http://www.example.com/" + i);
+		}
+		server.poisonUrls(urls.get(3));
+		// a single failure would open the circuit of the only table
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).tables("store://primary").circuit(1, 60000, 60000)) {
+			CrawlingResults results = crawlAsync(crawler, urls);
+			assertEquals(Collections.singleton(urls.get(3)), results.deadUrls());
+			assertEquals(15, results.urls().size());
+			assertEquals(0, crawler.unavailable());
+			assertEquals(URLS.size(), crawlAsync(crawler, URLS).urls().size());
+		}
+	}
+
+	@Test
+	public void testCrawlNoBisection() throws Exception {
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			urls.add("http://www.example.com/" + i);
+		}
+		// server errors are not caused by the urls
+		server.errorRate(1);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI())) {
+			Throwable t = crawlFailure(crawler, urls);
+			assertTrue(t instanceof YQLException);
+			assertEquals(500, ((YQLException) t).status());
+			assertEquals(0, crawler.bisections());
+		}
+	}
+
+	private static CrawlingResults crawlAsync(YQLCrawler crawler, List<String> urls) throws Exception {
+		final CrawlingResults[] results = new CrawlingResults[1];
+		crawlAsync(crawler, urls, results, new Throwable[1]);
+		assertNotNull(results[0]);
+		return results[0];
+	}
+
+	private static Throwable crawlFailure(YQLCrawler crawler, List<String> urls) throws Exception {
+		final Throwable[] failure = new Throwable[1];
+		crawlAsync(crawler, urls, new CrawlingResults[1], failure);
+		assertNotNull(failure[0]);
+		return failure[0];
+	}
+
+	private static void crawlAsync(YQLCrawler crawler, List<String> urls, final CrawlingResults[] results, final Throwable[] failure)
+			throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		crawler.crawlAsync(urls, new AsyncResultHandler<CrawlingResults>() {
+			@Override
+			public void onCompleted(CrawlingResults data) {
+				results[0] = data;
+				done.countDown();
+			}
+
+			@Override
+			public void onThrowable(Throwable t) {
+				failure[0] = t;
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+		@Test
+	public void testThrottle() throws Exception {
+		server.throttleRate(1).throttleStatus(999);
+		try (YQLApiJSON api = new YQLApiJSON(server.baseURI())) {
+			api.query("select * from DATA where url='http://www.example.com/'");
+			fail("The throttling response has not been detected");
+		} catch (YQLException e) {
+			assertTrue(e.isThrottled());
+			assertEquals(999, e.status());
+		}
+		assertEquals(1, server.throttled());
+
+		// throttled batches are not bisected
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI())) {
+			final Throwable[] failure = new Throwable[1];
+			final CountDownLatch done = new CountDownLatch(1);
+			crawler.crawlAsync(Arrays.asList("http://www.example.com/1", "http://www.example.com/2"), new AsyncResultHandler<CrawlingResults>() {
+				@Override
+				public void onCompleted(CrawlingResults data) {
+					done.countDown();
+				}
+
+				@Override
+				public void onThrowable(Throwable t) {
+					failure[0] = t;
+					done.countDown();
+				}
+			});
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertTrue(failure[0] instanceof YQLException);
+			assertEquals(0, crawler.bisections());
+		}
+	}
+
+	@Test
+	public void testTableFailover() throws Exception {
+		String primary = "store://primary";
+		String failover = "http://www.example.com/data.headers.xml";
+		server.brokenTables(primary);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).tables(primary, failover).circuit(2, 500, 1000)) {
+			for (int i = 0; i < 2; i++) {
+				try {
+					crawler.crawl(URLS);
+					fail("The broken table has not been detected");
+				} catch (YQLException e) {
+					assertEquals(400, e.status());
+				}
+			}
+			// the primary table is skipped
+			assertEquals(URLS.size(), crawler.crawl(URLS).urls().size());
+			assertEquals(0, crawler.unavailable());
+
+			// both tables are broken --> requests are refused w/o being sent
+			server.brokenTables(primary, failover);
+			for (int i = 0; i < 2; i++) {
+				try {
+					crawler.crawl(URLS);
+					fail("The broken table has not been detected");
+				} catch (YQLException e) {
+					assertEquals(400, e.status());
+				}
+			}
+			long requests = server.requests();
+			assertTrue(crawler.unavailable() > 0);
+			try {
+				crawlAsync(crawler, URLS);
+				fail("The request has not been refused");
+			} catch (AssertionError e) {
+				// no results
+			}
+			assertEquals(requests, server.requests());
+			assertEquals(0, crawler.bisections());
+
+			// the probe closes the circuit of the preferred table
+			server.brokenTables();
+			Thread.sleep(crawler.unavailable() + 10);
+			assertEquals(URLS.size(), crawler.crawl(URLS).urls().size());
+			assertEquals(URLS.size(), crawlAsync(crawler, URLS).urls().size());
+			assertEquals(0, crawler.unavailable());
+		}
+	}
+
+	@Test
+	public void testFutures() throws Exception {
+		try (YQLApiJSON api = new YQLApiJSON(server.baseURI()); YQLCrawler crawler = new YQLCrawler(server.baseURI())) {
+			CompletableFuture<String> url = api.queryAsync("select * from DATA where url='http://www.example.com/'", "DATA", "store://wPdxHE6ILC1Ti4oCGOIs0v")
+					.thenApply(results -> (String) ((DBObject) results.get("resources")).get("url"));
+			assertEquals("http://www.example.com/", url.get(5, TimeUnit.SECONDS));
+
+			assertEquals(URLS.size(), crawler.crawlAsync(URLS).get(5, TimeUnit.SECONDS).urls().size());
+			assertTrue(crawler.crawlAsync(new ArrayList<String>()).isDone());
+		}
+	}
+
+	@Test
+	public void testExecutor() throws Exception {
+		MeteredExecutor workers = new MeteredExecutor("parser", 2);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).executor(workers)) {
+			String thread = crawler.crawlAsync(URLS).thenApply(data -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+			assertTrue(thread.startsWith("parser-"));
+			workers.shutdown();
+			assertTrue(workers.awaitTermination(5, TimeUnit.SECONDS));
+			assertEquals(1, workers.getCompletedTaskCount());
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	@Test
+	public void testSlowTransfers() throws Exception {
+		// larger responses are received in parts
+		server.pageSize(64 * 1024, 0, 64 * 1024).slowUrls(3000, "http://slow.example.com/");
+		MeteredExecutor workers = new MeteredExecutor("worker", 1);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).executor(workers)) {
+			// more stalled transfers than workers
+			List<CompletableFuture<CrawlingResults>> slow = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				slow.add(crawler.crawlAsync(Arrays.asList("http://slow.example.com/")));
+			}
+			Thread.sleep(200);
+			// the completed responses are handled anyway
+			assertEquals(URLS.size(), crawler.crawlAsync(URLS).get(1, TimeUnit.SECONDS).urls().size());
+			for (CompletableFuture<CrawlingResults> future : slow) {
+				assertFalse(future.isDone());
+			}
+			for (CompletableFuture<CrawlingResults> future : slow) {
+				assertEquals(1, future.get(5, TimeUnit.SECONDS).urls().size());
+			}
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	@Test
+	public void testLatencyModel() throws Exception {
+		HostLatencyModel model = new HostLatencyModel().timeouts(2, 100).grouping(1, 3);
+		model.observe(URLS.get(0), 50);
+		model.observe(URLS.get(1), 50);
+		model.observe(URLS.get(2), 1500);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).requestTimeout(2000).latencyModel(model)) {
+			CrawlingResults results = crawler.crawlAsync(URLS).get(5, TimeUnit.SECONDS);
+			assertEquals(3, results.urls().size());
+			// the slow host is requested separately
+			assertEquals(2, server.requests());
+			assertEquals(3, model.hosts());
+			assertEquals(0, model.timeouts());
+		}
+
+		// w/o a permit for the additional request the batch is not split
+		RateLimiter quota = new RateLimiter(1, 3600000);
+		assertTrue(quota.tryAcquire());
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).requestTimeout(2000).latencyModel(model).quota(quota)) {
+			assertEquals(3, crawler.crawlAsync(URLS).get(5, TimeUnit.SECONDS).urls().size());
+			assertEquals(3, server.requests());
+		}
+	}
+
+	@Test
+	public void testCancelFuture() throws Exception {
+		server.latency(2000, 2000);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI())) {
+			CompletableFuture<CrawlingResults> results = crawler.crawlAsync(URLS);
+			CompletableFuture<Integer> count = results.thenApply(data -> data.urls().size());
+			Thread.sleep(100);
+			assertTrue(results.cancel(true));
+			assertTrue(results.isCancelled());
+			try {
+				count.get(1, TimeUnit.SECONDS);
+				fail("The dependent stage has not been cancelled");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof CancellationException);
+			}
+			// cancelled requests neither open the circuit nor are bisected
+			assertEquals(0, crawler.unavailable());
+			assertEquals(0, crawler.bisections());
+		}
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		server.latency(2000, 2000);
+		try (YQLCrawler crawler = new YQLCrawler(server.baseURI()).deadline(200)) {
+			CompletableFuture<CrawlingResults> results = crawler.crawlAsync(URLS);
+			assertEquals(1, crawler.inFlight().size());
+			try {
+				results.get(5, TimeUnit.SECONDS);
+				fail("The deadline has not been enforced");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertTrue(crawler.drain(1000));
+			assertEquals(0, crawler.inFlight().size());
+			assertEquals(1, crawler.inFlight().expired());
+			// expired requests neither open the circuit nor are bisected
+			assertEquals(0, crawler.unavailable());
+			assertEquals(0, crawler.bisections());
+
+			// outstanding requests are cancelled after the drain timeout
+			crawler.deadline(0).crawlAsync(URLS);
+			assertFalse(crawler.drain(100));
+			assertEquals(0, crawler.inFlight().size());
+			assertEquals(1, crawler.inFlight().cancelled());
+		}
+	}
+
+	@Test
+	public void testQueryError() throws Exception {
+		try (YQLApiJSON api = new YQLApiJSON(server.baseURI())) {
+			api.query("show tables");
+			fail("The error response has not been detected");
+		} catch (YQLException e) {
+			assertEquals(400, e.status());
+			assertFalse(e.isThrottled());
+			assertTrue(e.getMessage().contains("Query syntax error"));
+		}
+	}
+}
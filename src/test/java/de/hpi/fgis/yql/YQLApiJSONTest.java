@@ -1,9 +1,13 @@
 package de.hpi.fgis.yql;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -12,6 +16,8 @@ import org.junit.Test;
 import com.mongodb.DBObject;
 import com.mongodb.util.JSON;
 
+import de.hpi.fgis.concurrency.AsyncStreamHandler;
+
 public class YQLApiJSONTest {
 	private static YQLApiJSON api;
 	@BeforeClass
@@ -29,6 +35,39 @@ public class YQLApiJSONTest {
 		assertEquals("json", api.format());
 	}
 	
+	@Test
+	public void testParse() throws DeserializationException {
+		String json = "  {\"query\":{\"count\":1,\"results\":{\"place\":{\"name\":\"Berlin\"}}}}";
+		assertEquals(JSON.parse(json), api.parse(new ByteArrayInputStream(json.getBytes())));
+		
+		try {
+			api.parse(new ByteArrayInputStream("<html>Service unavailable</html>".getBytes()));
+			fail();
+		} catch (DeserializationException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testParseItems() throws DeserializationException {
+		String json = "{\"query\":{\"count\":2,\"results\":{\"resources\":[{\"url\":\"a\"},{\"url\":\"b\"}]}}}";
+		final List<Object> items = new ArrayList<>();
+		DBObject remaining = api.parse(new ByteArrayInputStream(json.getBytes()), new String[] {"query", "results", "resources"}, new AsyncStreamHandler<DBObject>() {
+			@Override
+			public void onItem(Object item) {
+				items.add(item);
+			}
+			@Override
+			public void onCompleted(DBObject data) {
+			}
+			@Override
+			public void onThrowable(Throwable t) {
+			}
+		});
+		assertEquals(JSON.parse("[{\"url\":\"a\"},{\"url\":\"b\"}]"), items);
+		assertEquals(JSON.parse("{\"query\":{\"count\":2,\"results\":{}}}"), remaining);
+	}
+	
 
 	@Test
 	public void testQuery() throws IOException, DeserializationException {
@@ -0,0 +1,111 @@
+package de.hpi.fgis.yql;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.DBObject;
+
+/**
+ * compares the deserialization of (synthetic) crawling responses using the
+ * different wire formats and parsers, run it via
+ * <code>mvn test-compile -Pbenchmark</code>
+ *
+ * @author tongr
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YQLApiParserBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * the number of resources per response
+	 */
+	@Param({ "10", "100" })
+	public int resources;
+	/**
+	 * the length of the content of every resource
+	 */
+	@Param({ "4096" })
+	public int contentLength;
+
+	private YQLApiXML xmlApi;
+	private YQLApiJSON jsonApi;
+	private byte[] xml;
+	private byte[] json;
+
+	@Setup
+	public void setUp() {
+		xmlApi = new YQLApiXML();
+		jsonApi = new YQLApiJSON();
+
+		StringBuilder content = new StringBuilder(contentLength);
+		while (content.length() < contentLength) {
+			content.append("Lorem ipsum dolor sit amet, consetetur sadipscing elitr. ");
+		}
+		content.setLength(contentLength);
+
+		StringBuilder xmlData = new StringBuilder();
+		StringBuilder jsonData = new StringBuilder();
+		xmlData.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		xmlData.append("<query xmlns:yahoo=\"http://www.yahooapis.com/v1/base.rng\" yahoo:count=\"").append(resources).append("\" yahoo:lang=\"en-US\"><results>");
+		jsonData.append("{\"query\":{\"count\":").append(resources).append(",\"lang\":\"en-US\",\"results\":{\"resources\":[");
+		for (int i = 0; i < resources; i++) {
+			String url = "http://www.example" + i + ".com/some/path?id=" + i;
+			xmlData.append("<resources url=\"").append(url).append("\" status=\"200\">");
+			xmlData.append("<headers><content-type>text/html; charset=UTF-8</content-type><server>Apache</server></headers>");
+			xmlData.append("<content>").append(content).append("</content></resources>");
+
+			if (i > 0) {
+				jsonData.append(',');
+			}
+			jsonData.append("{\"url\":\"").append(url).append("\",\"status\":\"200\",");
+			jsonData.append("\"headers\":{\"content-type\":\"text/html; charset=UTF-8\",\"server\":\"Apache\"},");
+			jsonData.append("\"content\":\"").append(content).append("\"}");
+		}
+		xmlData.append("</results></query>");
+		jsonData.append("]}}}");
+
+		xml = xmlData.toString().getBytes(UTF8);
+		json = jsonData.toString().getBytes(UTF8);
+	}
+
+	@TearDown
+	public void tearDown() {
+		xmlApi.close();
+		jsonApi.close();
+	}
+
+	@Benchmark
+	public DBObject xmlDOM() {
+		return xmlApi.parseDOM(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark
+	public DBObject xmlStAX() {
+		return xmlApi.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark
+	public DBObject json() throws DeserializationException {
+		return jsonApi.parse(new ByteArrayInputStream(json));
+	}
+}
@@ -4,7 +4,9 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -13,6 +15,8 @@ import org.junit.Test;
 import com.mongodb.DBObject;
 import com.mongodb.util.JSON;
 
+import de.hpi.fgis.concurrency.AsyncStreamHandler;
+
 public class YQLApiXMLTest {
 	private static YQLApiXML api;
 	
@@ -43,6 +47,42 @@ public class YQLApiXMLTest {
 		assertEquals(JSON.parse(expectedJson), api.parse(new ByteArrayInputStream(xml.getBytes())));
 	}
 
+	@Test
+	public void testParseEqualsDOM() {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		      "<!-- leading comment -->\n" +
+		      "<query xmlns:yahoo=\"http://www.yahooapis.com/v1/base.rng\" yahoo:count=\"2\" yahoo:lang=\"en-US\">\n" +
+		      "  <results>\n" +
+		      "    <resources url=\"http://a.example/\" status=\"200\"><content>A &amp; B</content></resources>\n" +
+		      "    <!-- comment -->\n" +
+		      "    <resources url=\"http://b.example/\" status=\"301\" empty=\"\">mixed <b>bold</b> text<![CDATA[<raw>]]></resources>\n" +
+		      "    <empty/>\n" +
+		      "  </results>\n" +
+		      "</query>";
+
+		assertEquals(api.parseDOM(new ByteArrayInputStream(xml.getBytes())), api.parse(new ByteArrayInputStream(xml.getBytes())));
+	}
+
+	@Test
+	public void testParseItems() throws DeserializationException {
+		String xml = "<query count=\"2\"><results><resources url=\"a\"/><resources url=\"b\"/></results></query>";
+		final List<Object> items = new ArrayList<>();
+		DBObject remaining = api.parse(new ByteArrayInputStream(xml.getBytes()), new String[] {"query", "results", "resources"}, new AsyncStreamHandler<DBObject>() {
+			@Override
+			public void onItem(Object item) {
+				items.add(item);
+			}
+			@Override
+			public void onCompleted(DBObject data) {
+			}
+			@Override
+			public void onThrowable(Throwable t) {
+			}
+		});
+		assertEquals(JSON.parse("[{\"url\":\"a\"},{\"url\":\"b\"}]"), items);
+		assertEquals(JSON.parse("{\"query\":{\"count\":\"2\"}}"), remaining);
+	}
+
 	@Test
 	public void testFormat() {
 		assertEquals("xml", api.format());